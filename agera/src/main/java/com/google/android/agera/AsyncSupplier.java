@@ -0,0 +1,32 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A supplier of data that delivers it asynchronously, such as a non-blocking I/O call. Like
+ * {@link Supplier}, no guarantees are implied by this interface about the nature of the data.
+ */
+public interface AsyncSupplier<T> {
+
+  /**
+   * Starts obtaining an instance of the appropriate type and delivers it to the given
+   * {@code receiver}, on any thread, either before or after this method returns. Implementations
+   * should deliver exactly once; wrap the type in {@link Result} to be able to deliver failures.
+   */
+  void get(@NonNull Receiver<? super T> receiver);
+}
@@ -44,7 +44,9 @@ public abstract class BaseObservable implements Observable {
   private final WorkerHandler handler;
   @NonNull
   private final Object token = new Object();
-  final int shortestUpdateWindowMillis;
+  int shortestUpdateWindowMillis;
+  /** Volatile so that the observables this one is added to can read it without its lock. */
+  private volatile boolean urgentUpdates;
   // Pairs of updatables and their associated handlers. Always of even length.
   @NonNull
   private Object[] updatablesAndHandlers;
@@ -68,12 +70,14 @@ public abstract class BaseObservable implements Observable {
   public final void addUpdatable(@NonNull final Updatable updatable) {
     checkState(Looper.myLooper() != null, "Can only be added on a Looper thread");
     checkNotNull(updatable);
+    boolean firstAdded = false;
     boolean activateNow = false;
     synchronized (token) {
       add(updatable, workerHandler());
       if (size == 1) {
+        firstAdded = true;
         if (handler.hasMessages(MSG_LAST_REMOVED, this)) {
-          handler.removeMessages(MSG_LAST_REMOVED, this);
+          handler.purgeMessages(MSG_LAST_REMOVED, this);
         } else if (Looper.myLooper() == handler.getLooper()) {
           activateNow = true;
         } else {
@@ -81,6 +85,9 @@ public abstract class BaseObservable implements Observable {
         }
       }
     }
+    if (firstAdded) {
+      firstUpdatableAdded();
+    }
     if (activateNow) {
       observableActivated();
     }
@@ -94,7 +101,7 @@ public abstract class BaseObservable implements Observable {
       remove(updatable);
       if (size == 0) {
         handler.obtainMessage(MSG_LAST_REMOVED, this).sendToTarget();
-        handler.removeMessages(MSG_UPDATE, this);
+        handler.purgeMessages(MSG_UPDATE, this);
         pendingUpdate = false;
       }
     }
@@ -107,11 +114,39 @@ public abstract class BaseObservable implements Observable {
     synchronized (token) {
       if (!pendingUpdate) {
         pendingUpdate = true;
-        handler.obtainMessage(MSG_UPDATE, this).sendToTarget();
+        handler.send(handler.obtainMessage(MSG_UPDATE, this), urgentUpdates);
       }
     }
   }
 
+  /** Returns the current minimum time between two notifications. */
+  int getShortestUpdateWindowMillis() {
+    synchronized (token) {
+      return shortestUpdateWindowMillis;
+    }
+  }
+
+  /**
+   * Changes the minimum time between two notifications. Takes effect from the next notification.
+   */
+  void setShortestUpdateWindowMillis(final int shortestUpdateWindowMillis) {
+    synchronized (token) {
+      this.shortestUpdateWindowMillis = shortestUpdateWindowMillis;
+    }
+  }
+
+  /**
+   * Makes the notifications from this observable skip ahead of the other messages waiting on the
+   * worker looper threads. The notifications this observable receives as an {@link Updatable} of
+   * other {@link BaseObservable}s skip ahead too, so that an update travels urgently all the way
+   * from its source.
+   */
+  void setUrgentUpdates(final boolean urgentUpdates) {
+    synchronized (token) {
+      this.urgentUpdates = urgentUpdates;
+    }
+  }
+
   private void add(@NonNull final Updatable updatable, @NonNull final Handler handler) {
     int indexToAdd = -1;
     for (int index = 0; index < updatablesAndHandlers.length; index += 2) {
@@ -167,7 +202,8 @@ public abstract class BaseObservable implements Observable {
         final WorkerHandler handler =
             (WorkerHandler) updatablesAndHandlers[index + 1];
         if (updatable != null) {
-          handler.update(updatable, token);
+          handler.update(updatable, token, urgentUpdates || (updatable instanceof BaseObservable
+              && ((BaseObservable) updatable).urgentUpdates));
         }
       }
     }
@@ -179,6 +215,12 @@ public abstract class BaseObservable implements Observable {
    */
   protected void observableActivated() {}
 
+  /**
+   * Called from {@link #addUpdatable} on the calling thread when the observable goes from having
+   * no updatables to having one, before {@link #observableActivated()} is called, if at all.
+   */
+  void firstUpdatableAdded() {}
+
   /**
    * Called from the worker looper thread when this {@link Observable} is deactivated by
    * transitioning from having at least one client {@link Updatable} to having no client
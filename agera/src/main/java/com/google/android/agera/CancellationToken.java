@@ -0,0 +1,29 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+/**
+ * Tells whether the work it was obtained for has been requested to stop, as a cooperative
+ * alternative to {@link Thread#interrupt()}. See {@link CancellationTokens}.
+ */
+public interface CancellationToken {
+
+  /**
+   * Returns whether the cancellation of the work has been requested, in which case its results
+   * will be discarded, so it may stop early with any result.
+   */
+  boolean isCancellationRequested();
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Utility methods for obtaining {@link CancellationToken}s.
+ */
+public final class CancellationTokens {
+  private static final ThreadLocal<CancellationToken> currentTokens = new ThreadLocal<>();
+  private static final CancellationToken NEVER_CANCELLED = new CancellationToken() {
+    @Override
+    public boolean isCancellationRequested() {
+      return false;
+    }
+  };
+
+  /**
+   * Returns the {@link CancellationToken} of the data processing flow of a compiled repository
+   * that is running the current directive on the calling thread, or a token that is never
+   * cancelled if there is none. The token of a flow reports a cancellation request as soon as the
+   * flow is cancelled according to the {@link RepositoryConfig}, even if no interrupt signal is
+   * sent, so that a long running {@link Supplier}, {@link Function} or {@link Merger} can check it
+   * to stop early. The token can be kept, such as by an {@link AsyncSupplier}, and it never
+   * reports a cancellation request for another run of the flow.
+   */
+  @NonNull
+  public static CancellationToken currentCancellationToken() {
+    final CancellationToken token = currentTokens.get();
+    return token != null ? token : NEVER_CANCELLED;
+  }
+
+  /**
+   * Makes {@code token} the current token of the calling thread.
+   *
+   * @return The token it replaces, to be restored with this method when done.
+   */
+  @Nullable
+  static CancellationToken enterCancellationToken(@Nullable final CancellationToken token) {
+    final CancellationToken previousToken = currentTokens.get();
+    currentTokens.set(token);
+    return previousToken;
+  }
+
+  private CancellationTokens() {}
+}
@@ -15,45 +15,142 @@
  */
 package com.google.android.agera;
 
+import static com.google.android.agera.CancellationTokens.enterCancellationToken;
 import static com.google.android.agera.Functions.identityFunction;
 import static com.google.android.agera.Observables.compositeObservable;
+import static com.google.android.agera.Observables.sharedCompositeObservable;
+import static com.google.android.agera.Observables.sharedPerFrameObservable;
+import static com.google.android.agera.Preconditions.checkArgument;
 import static com.google.android.agera.Preconditions.checkNotNull;
 import static com.google.android.agera.Preconditions.checkState;
 import static com.google.android.agera.RepositoryConfig.CANCEL_FLOW;
 import static com.google.android.agera.RepositoryConfig.RESET_TO_INITIAL_VALUE;
 import static com.google.android.agera.RepositoryConfig.SEND_INTERRUPT;
+import static com.google.android.agera.Result.failure;
 import static com.google.android.agera.WorkerHandler.MSG_CALL_ACKNOWLEDGE_CANCEL;
 import static com.google.android.agera.WorkerHandler.MSG_CALL_MAYBE_START_FLOW;
+import static com.google.android.agera.WorkerHandler.MSG_CALL_ON_TIMEOUT;
+import static com.google.android.agera.WorkerHandler.MSG_CALL_RESUME_RETRY;
+import static com.google.android.agera.WorkerHandler.MSG_CALL_REVALIDATE;
 import static com.google.android.agera.WorkerHandler.workerHandler;
+import static android.os.SystemClock.uptimeMillis;
+import static java.lang.System.nanoTime;
 import static java.lang.Thread.currentThread;
+import static java.util.Arrays.asList;
+import static java.util.Collections.newSetFromMap;
+import static java.util.Collections.unmodifiableList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
 
 @SuppressWarnings({"rawtypes", "unchecked"})
 final class CompiledRepository extends BaseObservable
-    implements Repository, Updatable, Runnable {
+    implements RevalidatingRepository, Updatable, Runnable {
+  /** Value of {@code frequency} for starting flows at most once per display frame. */
+  static final int FREQUENCY_PER_FRAME = -1;
+  /** Value of {@code priority} for repositories without a {@link FlowPriority}. */
+  static final int NO_PRIORITY = -1;
+  /** Value of {@code trimMemoryLevel} for repositories that never release their values. */
+  static final int NO_TRIM_MEMORY_LEVEL = 0;
+  /** The repositories that may release their values on {@link #trimMemory}, guarded by itself. */
+  @NonNull
+  private static final Set<CompiledRepository> releasingRepositories =
+      newSetFromMap(new WeakHashMap<CompiledRepository, Boolean>());
 
   @NonNull
-  static Repository compiledRepository(
+  static RevalidatingRepository compiledRepository(
       @NonNull final Object initialValue,
       @NonNull final List<Observable> eventSources,
       final int frequency,
+      final float targetCpuFraction,
+      final int maxAgeMillis,
       @NonNull final List<Object> directives,
       @NonNull final Merger<Object, Object, Boolean> notifyChecker,
       @RepositoryConfig final int concurrentUpdateConfig,
       @RepositoryConfig final int deactivationConfig,
-      @NonNull final Receiver discardedValuesDisposer) {
-    final Object[] directiveArray = directives.toArray();
-    return new CompiledRepository(initialValue, compositeObservable(frequency,
-        eventSources.toArray(new Observable[eventSources.size()])),
-        directiveArray, notifyChecker, deactivationConfig, concurrentUpdateConfig,
-        discardedValuesDisposer);
+      @NonNull final Receiver discardedValuesDisposer,
+      @Nullable final SnapshotPersistence snapshotPersistence,
+      final int priority,
+      final int trimMemoryLevel) {
+    return compiledRepository(initialValue,
+        eventSources.toArray(new Observable[eventSources.size()]), frequency, targetCpuFraction,
+        maxAgeMillis, directives.toArray(), notifyChecker, concurrentUpdateConfig,
+        deactivationConfig, discardedValuesDisposer, snapshotPersistence, priority,
+        trimMemoryLevel);
+  }
+
+  @NonNull
+  static RevalidatingRepository compiledRepository(
+      @NonNull final Object initialValue,
+      @NonNull final Observable[] eventSourceArray,
+      final int frequency,
+      final float targetCpuFraction,
+      final int maxAgeMillis,
+      @NonNull final Object[] directiveArray,
+      @NonNull final Merger<Object, Object, Boolean> notifyChecker,
+      @RepositoryConfig final int concurrentUpdateConfig,
+      @RepositoryConfig final int deactivationConfig,
+      @NonNull final Receiver discardedValuesDisposer,
+      @Nullable final SnapshotPersistence snapshotPersistence,
+      final int priority,
+      final int trimMemoryLevel) {
+    final StartupProfiler.Recording startupRecording = StartupProfiler.startRecording();
+    // Repositories observing the same event sources share their registrations with them, except
+    // the adaptive ones, which change the update window of their event source.
+    // The event source of a visible repository delivers its updates urgently, as the repository
+    // does, so that the flow starts ahead of the other messages on the way.
+    final boolean urgentUpdates = priority == FlowPriority.VISIBLE;
+    final Observable eventSource = frequency == FREQUENCY_PER_FRAME
+        ? sharedPerFrameObservable(eventSourceArray)
+        : targetCpuFraction > 0
+            ? compositeObservable(frequency, eventSourceArray)
+            : sharedCompositeObservable(frequency, urgentUpdates, eventSourceArray);
+    if (targetCpuFraction > 0 && frequency != FREQUENCY_PER_FRAME) {
+      ((BaseObservable) eventSource).setUrgentUpdates(urgentUpdates);
+    }
+    final CompiledRepository repository = new CompiledRepository(initialValue,
+        (BaseObservable) eventSource, targetCpuFraction, maxAgeMillis, directiveArray,
+        notifyChecker, deactivationConfig, concurrentUpdateConfig, discardedValuesDisposer,
+        snapshotPersistence, priority, trimMemoryLevel, startupRecording);
+    if (trimMemoryLevel != NO_TRIM_MEMORY_LEVEL) {
+      synchronized (releasingRepositories) {
+        releasingRepositories.add(repository);
+      }
+    }
+    if (startupRecording != null) {
+      startupRecording.compiled();
+    }
+    return repository;
+  }
+
+  /**
+   * Releases the values of the inactive repositories configured to release them at the given
+   * trim memory {@code level}.
+   */
+  static void trimMemory(final int level) {
+    final CompiledRepository[] repositories;
+    synchronized (releasingRepositories) {
+      repositories =
+          releasingRepositories.toArray(new CompiledRepository[releasingRepositories.size()]);
+    }
+    for (final CompiledRepository repository : repositories) {
+      if (level >= repository.trimMemoryLevel) {
+        repository.releaseValue();
+      }
+    }
   }
 
   //region Invariants
@@ -61,7 +158,11 @@ final class CompiledRepository extends BaseObservable
   @NonNull
   private final Object initialValue;
   @NonNull
-  private final Observable eventSource;
+  private final BaseObservable eventSource;
+  /** The share of thread time the flows may use for adaptive frequency, or 0 if not adaptive. */
+  private final float targetCpuFraction;
+  /** The age after which the value is revalidated when active, or 0 if not applicable. */
+  private final int maxAgeMillis;
   @NonNull
   private final Object[] directives;
   @NonNull
@@ -72,27 +173,118 @@ final class CompiledRepository extends BaseObservable
   private final int concurrentUpdateConfig;
   @NonNull
   private final Receiver discardedValuesDisposer;
+  /** The recycle bins of the transformRecycling directives, to recycle discarded values. */
+  @NonNull
+  private final RecycleBin[] recycleBins;
+  /** The memos of the memoizedGetFrom directives, to forget discarded values. */
+  @NonNull
+  private final Memo[] memos;
+  @Nullable
+  private final SnapshotPersistence snapshotPersistence;
+  /** The {@link FlowPriority} of this repository, or {@link #NO_PRIORITY}. */
+  private final int priority;
+  /** The trim memory level at which the value is released, or {@link #NO_TRIM_MEMORY_LEVEL}. */
+  private final int trimMemoryLevel;
   @NonNull
   private final WorkerHandler workerHandler;
+  /** Records the startup of this repository for {@link StartupProfiler}, or null if not. */
+  @Nullable
+  private final StartupProfiler.Recording startupRecording;
 
   CompiledRepository(
       @NonNull final Object initialValue,
-      @NonNull final Observable eventSource,
+      @NonNull final BaseObservable eventSource,
+      final float targetCpuFraction,
+      final int maxAgeMillis,
       @NonNull final Object[] directives,
       @NonNull final Merger<Object, Object, Boolean> notifyChecker,
       @RepositoryConfig final int deactivationConfig,
       @RepositoryConfig final int concurrentUpdateConfig,
-      @NonNull final Receiver discardedValuesDisposer) {
+      @NonNull final Receiver discardedValuesDisposer,
+      @Nullable final SnapshotPersistence snapshotPersistence,
+      final int priority,
+      final int trimMemoryLevel,
+      @Nullable final StartupProfiler.Recording startupRecording) {
     this.initialValue = initialValue;
-    this.currentValue = initialValue;
-    this.intermediateValue = initialValue; // non-final field but with @NonNull requirement
+    this.currentValue = snapshotPersistence != null
+        ? snapshotPersistence.restore(initialValue) : initialValue;
+    this.intermediateValue = currentValue; // non-final field but with @NonNull requirement
     this.eventSource = eventSource;
+    this.targetCpuFraction = targetCpuFraction;
+    this.maxAgeMillis = maxAgeMillis;
     this.directives = directives;
     this.notifyChecker = notifyChecker;
     this.deactivationConfig = deactivationConfig;
     this.concurrentUpdateConfig = concurrentUpdateConfig;
     this.discardedValuesDisposer = discardedValuesDisposer;
+    this.recycleBins = recycleBins(directives);
+    this.memos = memos(directives);
+    this.snapshotPersistence = snapshotPersistence;
+    this.priority = priority;
+    this.trimMemoryLevel = trimMemoryLevel;
     this.workerHandler = workerHandler();
+    this.startupRecording = startupRecording;
+    setUrgentUpdates(priority == FlowPriority.VISIBLE);
+  }
+
+  /**
+   * Copies the frozen directives of a {@link RepositoryTemplate} for a new instance, with fresh
+   * per-instance state and the given suppliers in place of the template parameters.
+   */
+  @NonNull
+  static Object[] instantiateDirectives(@NonNull final Object[] template,
+      @NonNull final Map<TemplateParameter<?>, Supplier<?>> suppliers) {
+    final Object[] directives = template.clone();
+    for (int i = 0; i < directives.length; i++) {
+      final Object directive = directives[i];
+      if (directive instanceof Memo) {
+        directives[i] = new Memo();
+      } else if (directive instanceof RecycleBin) {
+        directives[i] = new RecycleBin();
+      } else if (directive instanceof TemplateParameter) {
+        directives[i] = argumentFor((TemplateParameter) directive, suppliers);
+      } else if (directive instanceof Supplier[]) {
+        final Supplier[] parallelSuppliers = ((Supplier[]) directive).clone();
+        for (int j = 0; j < parallelSuppliers.length; j++) {
+          if (parallelSuppliers[j] instanceof TemplateParameter) {
+            parallelSuppliers[j] =
+                argumentFor((TemplateParameter) parallelSuppliers[j], suppliers);
+          }
+        }
+        directives[i] = parallelSuppliers;
+      }
+    }
+    return directives;
+  }
+
+  @NonNull
+  private static Supplier argumentFor(@NonNull final TemplateParameter parameter,
+      @NonNull final Map<TemplateParameter<?>, Supplier<?>> suppliers) {
+    final Supplier supplier = suppliers.get(parameter);
+    checkArgument(supplier != null, "Template parameter not bound");
+    return supplier;
+  }
+
+  @NonNull
+  private static RecycleBin[] recycleBins(@NonNull final Object[] directives) {
+    final List<RecycleBin> recycleBins = new ArrayList<>();
+    for (final Object directive : directives) {
+      if (directive instanceof RecycleBin) {
+        recycleBins.add((RecycleBin) directive);
+      }
+    }
+    return recycleBins.toArray(new RecycleBin[recycleBins.size()]);
+  }
+
+  @NonNull
+  private static Memo[] memos(@NonNull final Object[] directives) {
+    final List<Memo> memos = new ArrayList<>();
+    for (final Object directive : directives) {
+      if (directive instanceof Memo) {
+        memos.add((Memo) directive);
+      }
+    }
+    return memos.toArray(new Memo[memos.size()]);
   }
 
   //endregion Invariants
@@ -100,7 +292,8 @@ final class CompiledRepository extends BaseObservable
   //region Data processing flow states
 
   @Retention(RetentionPolicy.SOURCE)
-  @IntDef({IDLE, RUNNING, CANCEL_REQUESTED, PAUSED_AT_GO_TO, PAUSED_AT_GO_LAZY, RUNNING_LAZILY})
+  @IntDef({IDLE, RUNNING, CANCEL_REQUESTED, PAUSED_AT_GO_TO, PAUSED_AT_GO_LAZY, RUNNING_LAZILY,
+      PAUSED_AT_GET_FROM_ASYNC, PAUSED_AT_RETRY})
   private @interface RunState {}
 
   private static final int IDLE = 0;
@@ -109,21 +302,78 @@ final class CompiledRepository extends BaseObservable
   private static final int PAUSED_AT_GO_TO = 3;
   private static final int PAUSED_AT_GO_LAZY = 4;
   private static final int RUNNING_LAZILY = 5;
+  private static final int PAUSED_AT_GET_FROM_ASYNC = 6;
+  private static final int PAUSED_AT_RETRY = 7;
 
+  /** Volatile so that {@link #get()} outside of goLazy needs no lock; written while locked. */
   @RunState
-  private int runState = IDLE;
+  private volatile int runState = IDLE;
   private boolean restartNeeded;
-  /** Index of the last goTo()/goLazy() directive, for resuming, or -1 for other directives. */
+  /**
+   * Index of the last goTo()/goLazy()/getFromAsync() directive or retry point, for resuming, or -1
+   * for other directives.
+   */
   private int lastDirectiveIndex = -1;
-  /** The current value to be exposed through the repository's get method. */
+  /**
+   * The current value to be exposed through the repository's get method, or a
+   * {@link ReleasedValue} while released; written while locked.
+   */
   @NonNull
-  private Object currentValue;
+  private volatile Object currentValue;
   /** The intermediate value computed by the executed part of the flow. */
   @NonNull
   private Object intermediateValue;
+  /** The input value of the attempt directive after the last retry point, for retrying. */
+  @Nullable
+  private Object retryInput;
+  /** The number of consecutive failures of the attempt directive after the last retry point. */
+  private int retryFailedAttempts;
+  /** The receiver expecting the value of the getFromAsync() directive the flow is paused at. */
+  @Nullable
+  private AsyncResultReceiver asyncResultReceiver;
+  /**
+   * Index of the timeout directive whose timed directive is running, or -1. The running call is
+   * abandoned when its time is up, by incrementing {@link #timedCall}.
+   */
+  private int timedDirectiveIndex = -1;
+  /** Identifies the current call of a timed directive, to recognize the scheduled timeout. */
+  private int timedCall;
+  /** The thread running the lazy part of the flow outside the lock, if any. */
+  @Nullable
+  private Thread lazyTailThread;
+  /** How long other callers of get() wait for {@link #lazyTailThread}. */
+  private int lazyMaxWaitMillis;
+  /** The input value of the lazy part of the flow {@link #lazyTailThread} is running. */
+  @Nullable
+  private Object lazyTailInput;
+  /**
+   * Whether the result of the lazy part of the flow {@link #lazyTailThread} is running is to be
+   * dropped, because the flow has been cancelled or the value reset meanwhile.
+   */
+  private boolean lazyTailDropped;
+  /** The input and output values of the last completed non-blocking lazy part of the flow. */
+  @Nullable
+  private Object lazyInput;
+  @Nullable
+  private Object lazyOutput;
+  /** The cancellation token of the current flow, exposed to the directives while they run. */
+  @NonNull
+  private FlowCancellationToken cancellationToken = new FlowCancellationToken();
   /** The thread currently running a directive that can be interrupted. */
   @Nullable
   private Thread currentThread;
+  /** The uptime at which the current flow last published an intermediate value, or -1. */
+  private long lastPublishUptimeMillis = -1;
+  /** Time spent so far running the current flow, for adaptive frequency. */
+  private long currentFlowNanos;
+  /** Smoothed duration of the completed flows, for adaptive frequency. */
+  private long averageFlowNanos = -1;
+  /** The uptime at which the flow last ended with a new value, or -1 for the initial value. */
+  private long valueUptimeMillis = -1;
+  /** Whether the repository is active; only accessed from the Worker Looper thread. */
+  private boolean active;
+  /** Whether the value may be released on {@link #trimMemory}, i.e. the repository is inactive. */
+  private boolean releasable = true;
 
   //endregion Data processing flow states
 
@@ -131,16 +381,116 @@ final class CompiledRepository extends BaseObservable
   // - All methods in this region are called from the Worker Looper thread, but reading and writing
   //   states that might be accessed from a different thread are still synchronized.
 
+  @Override
+  void firstUpdatableAdded() {
+    if (startupRecording != null) {
+      startupRecording.firstUpdatableAdded();
+    }
+  }
+
   @Override
   protected void observableActivated() {
+    if (startupRecording != null) {
+      startupRecording.activated();
+    }
+    active = true;
     eventSource.addUpdatable(this);
+    boolean released = false;
+    if (trimMemoryLevel != NO_TRIM_MEMORY_LEVEL) {
+      synchronized (this) {
+        releasable = false;
+        released = currentValue instanceof ReleasedValue;
+      }
+    }
+    if (maxAgeMillis > 0 && !released) {
+      final long freshMillis;
+      synchronized (this) {
+        freshMillis = valueUptimeMillis < 0 ? 0 : valueUptimeMillis + maxAgeMillis - uptimeMillis();
+      }
+      if (freshMillis > 0) {
+        // Keep serving the value, and revalidate it once it is stale.
+        scheduleRevalidation(freshMillis);
+        return;
+      }
+    }
     maybeStartFlow();
   }
 
   @Override
   protected void observableDeactivated() {
+    active = false;
     eventSource.removeUpdatable(this);
+    workerHandler.purgeMessages(MSG_CALL_REVALIDATE, this);
     maybeCancelFlow(deactivationConfig, false);
+    if (trimMemoryLevel != NO_TRIM_MEMORY_LEVEL) {
+      synchronized (this) {
+        releasable = true;
+      }
+    }
+  }
+
+  /**
+   * Called on the thread signalling the memory pressure. Keeps the value only through a soft
+   * reference, if the repository is inactive and no flow is running.
+   */
+  private void releaseValue() {
+    if (runState != IDLE) {
+      return; // do not wait for the lock of a running flow
+    }
+    synchronized (this) {
+      if (!releasable || runState != IDLE || currentValue == initialValue
+          || currentValue instanceof ReleasedValue) {
+        return;
+      }
+      currentValue = new ReleasedValue(currentValue);
+      intermediateValue = initialValue; // GC the value but keep field non-null.
+      lazyInput = null;
+      lazyOutput = null;
+    }
+    for (final Memo memo : memos) {
+      memo.clear();
+    }
+    for (final RecycleBin recycleBin : recycleBins) {
+      final Object recycled = recycleBin.release();
+      if (recycled != null) {
+        discardedValuesDisposer.accept(recycled);
+      }
+    }
+  }
+
+  /** Brings back the released value, or the initial value if it has been garbage collected. */
+  private void restoreReleasedValueLocked() {
+    currentValue = unreleased(currentValue);
+  }
+
+  /** A repository value released under memory pressure. */
+  private static final class ReleasedValue extends SoftReference<Object> {
+    ReleasedValue(@NonNull final Object value) {
+      super(value);
+    }
+  }
+
+  private void scheduleRevalidation(final long delayMillis) {
+    workerHandler.purgeMessages(MSG_CALL_REVALIDATE, this);
+    workerHandler.sendMessageDelayed(
+        workerHandler.obtainMessage(MSG_CALL_REVALIDATE, this), delayMillis);
+  }
+
+  /**
+   * Called when a flow ends, whether with a new value or not, so that a stale-while-revalidate
+   * repository keeps revalidating its value while active.
+   */
+  private void scheduleNextRevalidation() {
+    if (maxAgeMillis > 0) {
+      scheduleRevalidation(maxAgeMillis);
+    }
+  }
+
+  /** Called by the worker handler when the value has reached the max age. */
+  void revalidate() {
+    if (active) {
+      maybeStartFlow();
+    }
   }
 
   @Override
@@ -159,10 +509,16 @@ final class CompiledRepository extends BaseObservable
         runState = RUNNING;
         lastDirectiveIndex = -1; // this could be pointing at the goLazy directive
         restartNeeded = false;
+        currentFlowNanos = 0; // a cancelled flow might not have recorded its duration
+        lastPublishUptimeMillis = -1;
+        restoreReleasedValueLocked();
+        if (cancellationToken.cancellationRequested) {
+          cancellationToken = new FlowCancellationToken();
+        }
       } else {
-        if (runState == CANCEL_REQUESTED) {
-          // flow may still be processing the previous deactivation;
-          // make sure to restart
+        if (runState == CANCEL_REQUESTED || runState == RUNNING_LAZILY) {
+          // flow may still be processing the previous deactivation, or a caller of get() may be
+          // running the lazy part of the flow outside the lock; make sure to restart
           restartNeeded = true;
         }
         return; // flow already running or scheduled to restart, do not continue
@@ -181,7 +537,8 @@ final class CompiledRepository extends BaseObservable
    */
   private void maybeCancelFlow(@RepositoryConfig final int config, final boolean scheduleRestart) {
     synchronized (this) {
-      if (runState == RUNNING || runState == PAUSED_AT_GO_TO) {
+      if (runState == RUNNING || runState == PAUSED_AT_GO_TO
+          || runState == PAUSED_AT_GET_FROM_ASYNC || runState == PAUSED_AT_RETRY) {
         restartNeeded = scheduleRestart;
 
         // If config forbids cancellation, exit now after scheduling the restart, to skip the
@@ -190,16 +547,44 @@ final class CompiledRepository extends BaseObservable
           return;
         }
 
+        final boolean waiting = runState == PAUSED_AT_GET_FROM_ASYNC
+            || runState == PAUSED_AT_RETRY;
         runState = CANCEL_REQUESTED;
+        cancellationToken.cancellationRequested = true;
+
+        if (waiting) {
+          // No thread is running the flow, and the async value might never be delivered, so
+          // acknowledge the cancellation now; discard the value if it is delivered later, and
+          // drop the scheduled retry.
+          asyncResultReceiver = null;
+          workerHandler.purgeMessages(MSG_CALL_RESUME_RETRY, this);
+          retryInput = null;
+          lastDirectiveIndex = -1;
+          checkCancellationLocked();
+        }
 
         if ((config & SEND_INTERRUPT) == SEND_INTERRUPT && currentThread != null) {
           currentThread.interrupt();
         }
+      } else if (runState == RUNNING_LAZILY) {
+        // A caller of get() is running the lazy part of the flow outside the lock. Its thread is
+        // not a flow thread and is not interrupted, but its result is dropped on cancellation.
+        if (scheduleRestart) {
+          restartNeeded = true;
+        }
+        if ((config & CANCEL_FLOW) != 0) {
+          lazyTailDropped = true;
+          cancellationToken.cancellationRequested = true;
+        }
       }
 
       // Resetting to the initial value should be done even if the flow is not running.
       if (!scheduleRestart && (config & RESET_TO_INITIAL_VALUE) == RESET_TO_INITIAL_VALUE) {
         setNewValueLocked(initialValue);
+        valueUptimeMillis = -1;
+        if (runState == RUNNING_LAZILY) {
+          lazyTailDropped = true; // do not let the lazily computed value undo the reset
+        }
       }
     }
   }
@@ -224,6 +609,20 @@ final class CompiledRepository extends BaseObservable
     return false;
   }
 
+  /**
+   * Checks for a cancellation request in the middle of a directive that runs several steps,
+   * acknowledging it like between directives. The volatile run state is read first, so that the
+   * lock is only taken when the cancellation has been requested.
+   */
+  private boolean checkCancellationWithinDirective() {
+    if (runState != CANCEL_REQUESTED) {
+      return false;
+    }
+    synchronized (this) {
+      return checkCancellationLocked();
+    }
+  }
+
   /**
    * Called by the worker handler.
    */
@@ -241,7 +640,7 @@ final class CompiledRepository extends BaseObservable
       }
     }
     if (discardedIntermediateValue != null) {
-      discardedValuesDisposer.accept(discardedIntermediateValue);
+      discard(discardedIntermediateValue);
     }
     if (shouldStartFlow) {
       maybeStartFlow();
@@ -255,7 +654,8 @@ final class CompiledRepository extends BaseObservable
    */
   private void checkRestartLocked() {
     if (restartNeeded) {
-      workerHandler.obtainMessage(MSG_CALL_MAYBE_START_FLOW, this).sendToTarget();
+      workerHandler.send(workerHandler.obtainMessage(MSG_CALL_MAYBE_START_FLOW, this),
+          priority == FlowPriority.VISIBLE);
     }
   }
 
@@ -275,6 +675,18 @@ final class CompiledRepository extends BaseObservable
   private static final int BIND = 8;
   private static final int FILTER_SUCCESS = 9;
   private static final int FILTER_FAILURE = 10;
+  private static final int MERGE_IN_PARALLEL = 11;
+  private static final int GET_FROM_ASYNC = 12;
+  private static final int MEMOIZED_GET_FROM = 13;
+  private static final int RETRY_POINT = 14;
+  private static final int RETRY_CHECK = 15;
+  private static final int TIMEOUT = 16;
+  private static final int PUBLISH_INTERMEDIATE = 17;
+  private static final int TRANSFORM_RECYCLING = 18;
+  /** Value of {@code maxWaitMillis} for a goLazy directive running its lazy part under the lock. */
+  static final int BLOCKING_LAZY = -1;
+  /** Index returned by a directive whose thread no longer runs the flow. */
+  private static final int ABANDONED = -2;
 
   /**
    * @param asynchronously Whether this flow is run asynchronously. True after the first goTo and
@@ -283,15 +695,37 @@ final class CompiledRepository extends BaseObservable
    *     cannot be delivered here.
    */
   private void runFlowFrom(final int index, final boolean asynchronously) {
+    // Flows can be nested, such as by a synchronous goTo executor, so restore the previous token.
+    final CancellationToken previousToken = enterCancellationToken(cancellationToken);
+    try {
+      runDirectivesFrom(index, asynchronously);
+    } catch (final RuntimeException e) {
+      // A directive may stop early by throwing once the flow is cancelled, like a single flight
+      // supplier does; end the flow as the cancellation would instead of failing the thread.
+      synchronized (this) {
+        if (!checkCancellationLocked()) {
+          throw e;
+        }
+      }
+    } finally {
+      enterCancellationToken(previousToken);
+    }
+  }
+
+  private void runDirectivesFrom(final int index, final boolean asynchronously) {
     final Object[] directives = this.directives;
     final int length = directives.length;
+    final long startNanos = targetCpuFraction > 0 ? nanoTime() : 0;
     int i = index;
     while (0 <= i && i < length) {
       final int directiveType = (Integer) directives[i];
-      if (asynchronously || directiveType == GO_TO || directiveType == GO_LAZY) {
-        // Check cancellation before running the next directive. This needs to be done while locked.
-        // For goTo and goLazy, because they need to change the states and suspend the flow, they
-        // need the lock and are therefore treated specially here.
+      AsyncResultReceiver pendingAsyncResultReceiver = null;
+      if (directiveType == GO_TO || directiveType == GO_LAZY || directiveType == GET_FROM_ASYNC
+          || asynchronously && runState == CANCEL_REQUESTED) {
+        // Check cancellation before running the next directive. Acknowledging it needs to be done
+        // while locked, but whether it has been requested can be read from the volatile run state
+        // without locking. For goTo, goLazy and getFromAsync, because they need to change the
+        // states and suspend the flow, they need the lock and are therefore treated specially here.
         synchronized (this) {
           if (checkCancellationLocked()) {
             break;
@@ -300,10 +734,15 @@ final class CompiledRepository extends BaseObservable
             setPausedAtGoToLocked(i);
             // the actual executor delivery is done below, outside the lock, to eliminate any
             // deadlock possibility.
-          } else if (directiveType == GO_LAZY) {
+          } else if (directiveType == GET_FROM_ASYNC) {
+            pendingAsyncResultReceiver = setPausedAtGetFromAsyncLocked(i);
+            // the actual supplier call is done below, outside the lock, for the same reason.
+          } else if (directiveType == GO_LAZY && !isLazyTailCachedLocked(i)) {
             setLazyAndEndFlowLocked(i);
+            recordFlowDuration(startNanos, true);
             return;
           }
+          // a goLazy directive with a cached result is run below, to end the flow with it.
         }
       }
 
@@ -313,18 +752,26 @@ final class CompiledRepository extends BaseObservable
         case GET_FROM:
           i = runGetFrom(directives, i);
           break;
+        case MEMOIZED_GET_FROM:
+          i = runMemoizedGetFrom(directives, i);
+          break;
         case MERGE_IN:
           i = runMergeIn(directives, i);
           break;
         case TRANSFORM:
           i = runTransform(directives, i);
           break;
+        case TRANSFORM_RECYCLING:
+          i = runTransformRecycling(directives, i);
+          break;
         case CHECK:
           i = runCheck(directives, i);
           break;
         case GO_TO:
-          i = runGoTo(directives, i);
-          break;
+          // Record before handing over to the executor, which might run the rest synchronously.
+          recordFlowDuration(startNanos, false);
+          runGoTo(directives, i);
+          return;
         case SEND_TO:
           i = runSendTo(directives, i);
           break;
@@ -337,12 +784,37 @@ final class CompiledRepository extends BaseObservable
         case FILTER_FAILURE:
           i = runFilterFailure(directives, i);
           break;
+        case RETRY_POINT:
+          i = runRetryPoint(directives, i);
+          break;
+        case RETRY_CHECK:
+          i = runRetryCheck(directives, i);
+          break;
+        case TIMEOUT:
+          i = runTimeout(directives, i);
+          break;
+        case MERGE_IN_PARALLEL:
+          i = runMergeInParallel(directives, i);
+          break;
+        case PUBLISH_INTERMEDIATE:
+          i = runPublishIntermediate(directives, i);
+          break;
+        case GET_FROM_ASYNC:
+          recordFlowDuration(startNanos, false);
+          runGetFromAsync(directives, i, checkNotNull(pendingAsyncResultReceiver));
+          return;
         case END:
           i = runEnd(directives, i);
           break;
-        // Missing GO_LAZY but it has already been dealt with in the synchronized block above.
+        case GO_LAZY:
+          // Only reached with a cached result; otherwise handled in the synchronized block above.
+          i = runCachedLazyTail();
+          break;
       }
     }
+    if (i != ABANDONED) {
+      recordFlowDuration(startNanos, true);
+    }
   }
 
   static void addGetFrom(@NonNull final Supplier supplier,
@@ -357,6 +829,72 @@ final class CompiledRepository extends BaseObservable
     return index + 2;
   }
 
+  static void addMemoizedGetFrom(@NonNull final Supplier supplier,
+      @NonNull final List<Object> directives) {
+    directives.add(MEMOIZED_GET_FROM);
+    directives.add(checkNotNull(supplier));
+    directives.add(new Memo());
+  }
+
+  private int runMemoizedGetFrom(@NonNull final Object[] directives, final int index) {
+    final Supplier supplier = (Supplier) directives[index + 1];
+    final Memo memo = (Memo) directives[index + 2];
+    final Object input = checkNotNull(supplier.get());
+    if (checkCancellationWithinDirective()) {
+      return -1;
+    }
+    synchronized (memo) {
+      if (memo.output != null && input.equals(memo.input)) {
+        intermediateValue = memo.output;
+        return memo.resumeIndex;
+      }
+    }
+    // Run the transforms that follow right here, to find out where to resume next time.
+    Object output = input;
+    int i = index + 3;
+    while (i < directives.length && directives[i].equals(TRANSFORM)) {
+      final Function function = (Function) directives[i + 1];
+      output = checkNotNull(function.apply(output));
+      i += 2;
+      // Each transform would be a separate step of the flow if not memoized; check in between.
+      if (checkCancellationWithinDirective()) {
+        return -1;
+      }
+    }
+    synchronized (memo) {
+      memo.input = input;
+      memo.output = output;
+      memo.resumeIndex = i;
+    }
+    intermediateValue = output;
+    return i;
+  }
+
+  /**
+   * The last input and output of a memoizedGetFrom directive and the transforms following it.
+   * Guarded by itself, as the values discarded by the end of a flow are forgotten while the next
+   * flow may already be running.
+   */
+  private static final class Memo {
+    @Nullable
+    Object input;
+    @Nullable
+    Object output;
+    int resumeIndex;
+
+    /** Forgets the output if it is {@code value}, which is about to be disposed of. */
+    synchronized void forget(@NonNull final Object value) {
+      if (value == output) {
+        clear();
+      }
+    }
+
+    synchronized void clear() {
+      input = null;
+      output = null;
+    }
+  }
+
   static void addMergeIn(@NonNull final Supplier supplier, @NonNull final Merger merger,
       @NonNull final List<Object> directives) {
     directives.add(MERGE_IN);
@@ -383,6 +921,92 @@ final class CompiledRepository extends BaseObservable
     return index + 2;
   }
 
+  static void addTransformRecycling(@NonNull final RecyclingFunction function,
+      @NonNull final List<Object> directives) {
+    directives.add(TRANSFORM_RECYCLING);
+    directives.add(checkNotNull(function));
+    directives.add(new RecycleBin());
+  }
+
+  private int runTransformRecycling(@NonNull final Object[] directives, final int index) {
+    final RecyclingFunction function = (RecyclingFunction) directives[index + 1];
+    final RecycleBin recycleBin = (RecycleBin) directives[index + 2];
+    Object recycled = recycleBin.takeRecycled();
+    final Object lastOutput = recycleBin.takeLastOutput();
+    if (recycled == null && lastOutput != null && lastOutput != currentValue
+        && lastOutput != intermediateValue && lastOutput != lazyOutput) {
+      // A later directive of a previous flow has replaced the output, which was never published.
+      recycled = lastOutput;
+    }
+    final Object output = checkNotNull(function.apply(intermediateValue, recycled));
+    if (recycled != null && recycled != output) {
+      discardedValuesDisposer.accept(recycled);
+    }
+    recycleBin.setLastOutput(output);
+    intermediateValue = output;
+    return index + 3;
+  }
+
+  /**
+   * The single-slot recycle bin of a transformRecycling directive, accessed from the thread running
+   * the flow and from the threads discarding values.
+   */
+  private static final class RecycleBin {
+    @Nullable
+    private Object recycled;
+    @Nullable
+    private Object lastOutput;
+
+    @Nullable
+    synchronized Object takeRecycled() {
+      final Object recycled = this.recycled;
+      this.recycled = null;
+      return recycled;
+    }
+
+    @Nullable
+    synchronized Object takeLastOutput() {
+      final Object lastOutput = this.lastOutput;
+      this.lastOutput = null;
+      return lastOutput;
+    }
+
+    synchronized void setLastOutput(@NonNull final Object output) {
+      lastOutput = output;
+    }
+
+    /** Stops tracking {@code value} as the last output, so that it is never recycled. */
+    synchronized void forget(@NonNull final Object value) {
+      if (value == lastOutput) {
+        lastOutput = null;
+      }
+    }
+
+    /** Empties the bin under memory pressure, returning the recycled value to dispose of. */
+    @Nullable
+    synchronized Object release() {
+      lastOutput = null;
+      return takeRecycled();
+    }
+
+    /**
+     * Takes the discarded {@code value} if it is the last output and the slot is free.
+     *
+     * @return Whether the value has been taken.
+     */
+    synchronized boolean offer(@NonNull final Object value) {
+      if (value != lastOutput) {
+        return false;
+      }
+      lastOutput = null;
+      if (recycled != null) {
+        return false;
+      }
+      recycled = value;
+      return true;
+    }
+  }
+
   static void addCheck(@NonNull final Function caseFunction,
       @NonNull final Predicate casePredicate,
       @Nullable final Function terminatingValueFunction,
@@ -412,10 +1036,18 @@ final class CompiledRepository extends BaseObservable
     directives.add(executor);
   }
 
-  private int runGoTo(@NonNull final Object[] directives, final int index) {
+  private void runGoTo(@NonNull final Object[] directives, final int index) {
     Executor executor = (Executor) directives[index + 1];
-    executor.execute(this);
-    return -1;
+    execute(executor, this);
+  }
+
+  /** Submits the {@code task} to the {@code executor} with the priority of this repository. */
+  private void execute(@NonNull final Executor executor, @NonNull final Runnable task) {
+    if (priority != NO_PRIORITY && executor instanceof FlowExecutor) {
+      ((FlowExecutor) executor).execute(task, priority);
+    } else {
+      executor.execute(task);
+    }
   }
 
   private static int continueFromGoTo(@NonNull final Object[] directives, final int index) {
@@ -423,13 +1055,186 @@ final class CompiledRepository extends BaseObservable
     return index + 2;
   }
 
-  static void addGoLazy(@NonNull final List<Object> directives) {
+  static void addGetFromAsync(@NonNull final AsyncSupplier asyncSupplier,
+      @NonNull final List<Object> directives) {
+    directives.add(GET_FROM_ASYNC);
+    directives.add(checkNotNull(asyncSupplier));
+  }
+
+  private static void runGetFromAsync(@NonNull final Object[] directives, final int index,
+      @NonNull final AsyncResultReceiver receiver) {
+    final AsyncSupplier asyncSupplier = (AsyncSupplier) directives[index + 1];
+    asyncSupplier.get(receiver);
+  }
+
+  private static int continueFromGetFromAsync(@NonNull final Object[] directives,
+      final int index) {
+    checkState(directives[index].equals(GET_FROM_ASYNC),
+        "Inconsistent directive state for getFromAsync");
+    return index + 2;
+  }
+
+  static void addRetryPoint(@NonNull final RetryPolicy retryPolicy,
+      @Nullable final Executor goToExecutor, @NonNull final List<Object> directives) {
+    directives.add(RETRY_POINT);
+    directives.add(checkNotNull(retryPolicy));
+    directives.add(goToExecutor);
+  }
+
+  private int runRetryPoint(@NonNull final Object[] directives, final int index) {
+    retryInput = intermediateValue;
+    retryFailedAttempts = 0;
+    return index + 3;
+  }
+
+  private static int continueFromRetryPoint(@NonNull final Object[] directives,
+      final int index) {
+    checkState(directives[index].equals(RETRY_POINT), "Inconsistent directive state for retry");
+    return index + 3;
+  }
+
+  static void addRetryCheck(final int retryPointIndex, @NonNull final List<Object> directives) {
+    directives.add(RETRY_CHECK);
+    directives.add(retryPointIndex);
+  }
+
+  private int runRetryCheck(@NonNull final Object[] directives, final int index) {
+    final Result tryValue = (Result) intermediateValue;
+    if (tryValue.succeeded()) {
+      retryInput = null;
+      return index + 2;
+    }
+    final int retryPointIndex = (Integer) directives[index + 1];
+    final RetryPolicy retryPolicy = (RetryPolicy) directives[retryPointIndex + 1];
+    retryFailedAttempts++;
+    final long delayMillis =
+        retryPolicy.retryDelayMillis(retryFailedAttempts, tryValue.getFailure());
+    if (delayMillis < 0) {
+      retryInput = null;
+      return index + 2; // let the termination clause handle the failure
+    }
+    synchronized (this) {
+      if (checkCancellationLocked()) {
+        return -1;
+      }
+      intermediateValue = checkNotNull(retryInput);
+      lastDirectiveIndex = retryPointIndex;
+      runState = PAUSED_AT_RETRY;
+      workerHandler.sendMessageDelayed(
+          workerHandler.obtainMessage(MSG_CALL_RESUME_RETRY, this), delayMillis);
+    }
+    return -1;
+  }
+
+  static void addTimeout(final int timeoutMillis, final boolean attempt,
+      @Nullable final Executor goToExecutor, @NonNull final List<Object> directives) {
+    directives.add(TIMEOUT);
+    directives.add(timeoutMillis);
+    directives.add(attempt);
+    directives.add(goToExecutor);
+  }
+
+  private int runTimeout(@NonNull final Object[] directives, final int index) {
+    final int timeoutMillis = (Integer) directives[index + 1];
+    final boolean attempt = (Boolean) directives[index + 2];
+    final long deadline = uptimeMillis() + timeoutMillis;
+    final int call;
+    synchronized (this) {
+      call = ++timedCall;
+      timedDirectiveIndex = index;
+      workerHandler.sendMessageDelayed(
+          workerHandler.obtainMessage(MSG_CALL_ON_TIMEOUT, call, 0, this), timeoutMillis);
+    }
+    Object value = null;
+    RuntimeException exception = null;
+    try {
+      value = callTimedDirective(directives, index + 4);
+    } catch (final RuntimeException e) {
+      exception = e; // possibly caused by the interruption if the call has timed out
+    }
+    final boolean timedOut;
+    synchronized (this) {
+      if (call != timedCall) {
+        // The time was up and the flow has been taken over; just dispose of the late value.
+        if (value != null) {
+          discard(value);
+        }
+        return ABANDONED;
+      }
+      timedCall++;
+      timedDirectiveIndex = -1;
+      workerHandler.purgeMessages(MSG_CALL_ON_TIMEOUT, this);
+      // The timeout could not be handled while this thread was busy if this is the worker thread.
+      timedOut = uptimeMillis() >= deadline;
+    }
+    if (!timedOut) {
+      if (exception != null) {
+        throw exception;
+      }
+      intermediateValue = checkNotNull(value);
+      return continueFromTimeout(directives, index);
+    }
+    if (value != null) {
+      discard(value);
+    }
+    if (!attempt) {
+      skipAndEndFlow();
+      return -1;
+    }
+    intermediateValue = failure(new TimeoutException());
+    return continueFromTimeout(directives, index);
+  }
+
+  @Nullable
+  private Object callTimedDirective(@NonNull final Object[] directives, final int index) {
+    final int directiveType = (Integer) directives[index];
+    final Object input = intermediateValue;
+    switch (directiveType) {
+      case GET_FROM:
+        return ((Supplier) directives[index + 1]).get();
+      case MERGE_IN:
+        return ((Merger) directives[index + 2])
+            .merge(input, ((Supplier) directives[index + 1]).get());
+      case TRANSFORM:
+        return ((Function) directives[index + 1]).apply(input);
+      default:
+        throw new IllegalStateException("Inconsistent directive state for withTimeout");
+    }
+  }
+
+  private static int continueFromTimeout(@NonNull final Object[] directives, final int index) {
+    checkState(directives[index].equals(TIMEOUT), "Inconsistent directive state for withTimeout");
+    // Skip the timed directive as well.
+    return index + 4 + (directives[index + 4].equals(MERGE_IN) ? 3 : 2);
+  }
+
+  static void addGoLazy(final int maxWaitMillis, @NonNull final List<Object> directives) {
     directives.add(GO_LAZY);
+    directives.add(maxWaitMillis);
   }
 
   private static int continueFromGoLazy(@NonNull final Object[] directives, final int index) {
     checkState(directives[index].equals(GO_LAZY), "Inconsistent directive state for goLazy");
-    return index + 1;
+    return index + 2;
+  }
+
+  /**
+   * Checks whether the lazy part of the flow after the non-blocking goLazy directive at
+   * {@code index} has already been run with an input equal to the current intermediate value.
+   * This must be called while locked in a synchronized context.
+   */
+  private boolean isLazyTailCachedLocked(final int index) {
+    return (Integer) directives[index + 1] != BLOCKING_LAZY
+        && lazyOutput != null && intermediateValue.equals(lazyInput);
+  }
+
+  private int runCachedLazyTail() {
+    if (intermediateValue == lazyInput) {
+      // Keep the cached input from being sent to the discarded values disposer.
+      intermediateValue = checkNotNull(lazyOutput);
+    }
+    setNewValueAndEndFlow(checkNotNull(lazyOutput));
+    return -1;
   }
 
   static void addSendTo(@NonNull final Receiver receiver, @NonNull final List<Object> directives) {
@@ -443,6 +1248,36 @@ final class CompiledRepository extends BaseObservable
     return index + 2;
   }
 
+  static void addPublishIntermediate(@NonNull final Function function, final int intervalMillis,
+      @NonNull final List<Object> directives) {
+    directives.add(PUBLISH_INTERMEDIATE);
+    directives.add(function);
+    directives.add(intervalMillis);
+  }
+
+  private int runPublishIntermediate(@NonNull final Object[] directives, final int index) {
+    final Function function = (Function) directives[index + 1];
+    // An adaptive repository throttles by the update window it has currently adapted to.
+    final int intervalMillis = targetCpuFraction > 0
+        ? eventSource.getShortestUpdateWindowMillis()
+        : (Integer) directives[index + 2];
+    final long now = uptimeMillis();
+    synchronized (this) {
+      if (lastPublishUptimeMillis >= 0 && now - lastPublishUptimeMillis < intervalMillis) {
+        return index + 3; // throttled; a later publication or the end of the flow will catch up
+      }
+    }
+    final Object value = checkNotNull(function.apply(intermediateValue));
+    synchronized (this) {
+      // Don't publish from a flow that has been requested to cancel.
+      if (runState == RUNNING) {
+        lastPublishUptimeMillis = now;
+        setNewValueLocked(value);
+      }
+    }
+    return index + 3;
+  }
+
   static void addBindWith(@NonNull final Supplier supplier, @NonNull final Binder binder,
       @NonNull final List<Object> directives) {
     directives.add(BIND);
@@ -490,6 +1325,48 @@ final class CompiledRepository extends BaseObservable
     }
   }
 
+  static void addMergeInParallel(@NonNull final Executor executor,
+      @NonNull final List<? extends Supplier> suppliers, @NonNull final Merger merger,
+      @NonNull final List<Object> directives) {
+    final Supplier[] supplierArray = new Supplier[suppliers.size()];
+    for (int i = 0; i < supplierArray.length; i++) {
+      supplierArray[i] = checkNotNull(suppliers.get(i));
+    }
+    directives.add(MERGE_IN_PARALLEL);
+    directives.add(checkNotNull(executor));
+    directives.add(supplierArray);
+    directives.add(checkNotNull(merger));
+  }
+
+  private int runMergeInParallel(@NonNull final Object[] directives, final int index) {
+    final Executor executor = (Executor) directives[index + 1];
+    final Supplier[] suppliers = (Supplier[]) directives[index + 2];
+    final Merger merger = (Merger) directives[index + 3];
+    final ParallelSupplies supplies = new ParallelSupplies(suppliers, cancellationToken);
+    // The first supplier is left to this thread; the others go to the executor, but this thread
+    // will take over any of them the executor has not started by the time it is free.
+    for (int i = 1; i < suppliers.length; i++) {
+      execute(executor, supplies.task(i));
+    }
+    boolean interrupted = false;
+    while (!supplies.join()) {
+      synchronized (this) {
+        if (checkCancellationLocked()) {
+          supplies.cancel();
+          return -1;
+        }
+      }
+      // Interrupted for a reason other than cancelling this flow; keep waiting but restore the
+      // interrupted flag afterwards.
+      interrupted = true;
+    }
+    if (interrupted) {
+      currentThread().interrupt();
+    }
+    intermediateValue = checkNotNull(merger.merge(intermediateValue, supplies.values()));
+    return index + 4;
+  }
+
   private void runTerminate(@NonNull final Object caseValue,
       @Nullable final Function terminatingValueFunction) {
     if (terminatingValueFunction == null) {
@@ -514,6 +1391,28 @@ final class CompiledRepository extends BaseObservable
     return -1;
   }
 
+  /**
+   * Adds the time since {@code startNanos} to the duration of the current flow, and if the flow
+   * has {@code ended}, adapts the update window of the event source to the smoothed duration.
+   * Successive parts of a flow are handed over through the synchronized context, so the fields
+   * accessed here are never accessed concurrently.
+   */
+  private void recordFlowDuration(final long startNanos, final boolean ended) {
+    if (targetCpuFraction <= 0) {
+      return;
+    }
+    currentFlowNanos += nanoTime() - startNanos;
+    if (!ended) {
+      return;
+    }
+    final long flowNanos = currentFlowNanos;
+    currentFlowNanos = 0;
+    // Exponential moving average with a weight of 1/4 for the latest flow.
+    averageFlowNanos = averageFlowNanos < 0 ? flowNanos : (averageFlowNanos * 3 + flowNanos) / 4;
+    final double windowMillis = averageFlowNanos / 1e6 / targetCpuFraction;
+    eventSource.setShortestUpdateWindowMillis((int) Math.min(windowMillis, Integer.MAX_VALUE));
+  }
+
   //endregion Running directives
 
   //region Completing, pausing and resuming flow
@@ -528,38 +1427,121 @@ final class CompiledRepository extends BaseObservable
       }
       checkRestartLocked();
     }
+    scheduleNextRevalidation();
     if (discardedIntermediateValue != null) {
-      discardedValuesDisposer.accept(discardedIntermediateValue);
+      discard(discardedIntermediateValue);
     }
   }
 
-  private synchronized void setNewValueAndEndFlow(@NonNull final Object newValue) {
+  private void setNewValueAndEndFlow(@NonNull final Object newValue) {
+    if (dropLazyTailResult(newValue)) {
+      return;
+    }
     Object discardedIntermediateValue = null;
+    final boolean changed;
     synchronized (this) {
       final boolean wasRunningLazily = runState == RUNNING_LAZILY;
-      runState = IDLE;
       if (intermediateValue != newValue) {
         discardedIntermediateValue = intermediateValue;
         intermediateValue = newValue; // GC the intermediate value but keep field non-null.
       }
       if (wasRunningLazily) {
         currentValue = newValue; // Don't notify if this new value is produced lazily
+        keepFromRecycling(newValue);
+        changed = true;
+        if (lazyTailInput != null) {
+          lazyInput = lazyTailInput;
+          lazyOutput = newValue;
+        }
       } else {
-        setNewValueLocked(newValue); // May notify otherwise
+        changed = setNewValueLocked(newValue); // May notify otherwise
+      }
+      // Leave the lazy states only after setting the value, for the lock-free path of get().
+      runState = IDLE;
+      valueUptimeMillis = uptimeMillis();
+      checkRestartLocked();
+    }
+    if (startupRecording != null) {
+      startupRecording.valueProduced();
+    }
+    scheduleNextRevalidation();
+    if (changed && snapshotPersistence != null) {
+      snapshotPersistence.writeLater(newValue);
+    }
+    if (discardedIntermediateValue != null) {
+      discard(discardedIntermediateValue);
+    }
+  }
+
+  /**
+   * Ends the flow without the new value if the flow has been cancelled or the value reset while a
+   * caller of get() was running the lazy part of the flow outside the lock.
+   *
+   * @return Whether the new value has been dropped.
+   */
+  private boolean dropLazyTailResult(@NonNull final Object newValue) {
+    Object discardedIntermediateValue = null;
+    final boolean newValueUnused;
+    synchronized (this) {
+      if (runState != RUNNING_LAZILY || !lazyTailDropped) {
+        return false;
+      }
+      runState = IDLE;
+      if (intermediateValue != currentValue) {
+        discardedIntermediateValue = intermediateValue;
+        intermediateValue = currentValue; // GC the intermediate value but keep field non-null.
       }
+      newValueUnused = newValue != currentValue && newValue != discardedIntermediateValue;
       checkRestartLocked();
     }
+    scheduleNextRevalidation();
     if (discardedIntermediateValue != null) {
-      discardedValuesDisposer.accept(discardedIntermediateValue);
+      discard(discardedIntermediateValue);
     }
+    if (newValueUnused) {
+      discard(newValue);
+    }
+    return true;
   }
 
-  private void setNewValueLocked(@NonNull final Object newValue) {
+  /**
+   * @return Whether the new value generated a notification.
+   */
+  private boolean setNewValueLocked(@NonNull final Object newValue) {
     final boolean shouldNotify = notifyChecker.merge(currentValue, newValue);
     currentValue = newValue;
+    keepFromRecycling(newValue);
     if (shouldNotify) {
       dispatchUpdate();
     }
+    return shouldNotify;
+  }
+
+  /**
+   * Makes sure a value exposed as the repository value is never handed to a recycling function,
+   * as observers may still be using it after a later flow has replaced it.
+   */
+  private void keepFromRecycling(@NonNull final Object value) {
+    for (final RecycleBin recycleBin : recycleBins) {
+      recycleBin.forget(value);
+    }
+  }
+
+  /**
+   * Sends a value the flow no longer uses to the recycle bin of the transformRecycling directive
+   * that produced it, or to the discarded values disposer if there is none or its slot is taken.
+   * A memoizedGetFrom directive that memoized the value forgets it, so as not to reuse it.
+   */
+  private void discard(@NonNull final Object value) {
+    for (final Memo memo : memos) {
+      memo.forget(value);
+    }
+    for (final RecycleBin recycleBin : recycleBins) {
+      if (recycleBin.offer(value)) {
+        return;
+      }
+    }
+    discardedValuesDisposer.accept(value);
   }
 
   private void setPausedAtGoToLocked(final int resumeIndex) {
@@ -586,7 +1568,93 @@ final class CompiledRepository extends BaseObservable
       currentThread = myThread;
     }
     // leave the synchronization lock to run the rest of the flow
-    runFlowFrom(continueFromGoTo(directives, index), true);
+    final int resumeIndex;
+    if (directives[index].equals(RETRY_POINT)) {
+      resumeIndex = continueFromRetryPoint(directives, index);
+    } else if (directives[index].equals(TIMEOUT)) {
+      resumeIndex = continueFromTimeout(directives, index);
+    } else {
+      resumeIndex = continueFromGoTo(directives, index);
+    }
+    continueFlowOnThread(resumeIndex, myThread);
+  }
+
+  /**
+   * Called by the worker handler when the time of a timed directive is up. Unless the call has
+   * completed, interrupts its thread and abandons it, then ends the flow or continues it with a
+   * timeout failure on the executor of the goTo directive preceding the timed directive, or on the
+   * worker looper thread if there is none.
+   */
+  void onTimeout(final int call) {
+    final int index;
+    final boolean attempt;
+    final Executor executor;
+    synchronized (this) {
+      if (call != timedCall || runState != RUNNING) {
+        return; // completed, or cancelled and left to the thread still running the call
+      }
+      timedCall++;
+      index = timedDirectiveIndex;
+      timedDirectiveIndex = -1;
+      if (currentThread != null) {
+        currentThread.interrupt();
+        currentThread = null;
+      }
+      attempt = (Boolean) directives[index + 2];
+      executor = attempt ? (Executor) directives[index + 3] : null;
+      if (attempt) {
+        intermediateValue = failure(new TimeoutException());
+        if (executor != null) {
+          // run() picks up the timeout directive from lastDirectiveIndex
+          lastDirectiveIndex = index;
+          runState = PAUSED_AT_GO_TO;
+        }
+      }
+    }
+    if (!attempt) {
+      skipAndEndFlow();
+    } else if (executor != null) {
+      execute(executor, this);
+    } else {
+      runFlowFrom(continueFromTimeout(directives, index), false);
+    }
+  }
+
+  /**
+   * Called by the worker handler when the delay before retrying an attempt has passed. Resumes the
+   * flow on the executor of the goTo directive preceding the attempt, or on the worker looper
+   * thread if there is none.
+   */
+  void resumeRetry() {
+    final int index;
+    final Executor executor;
+    synchronized (this) {
+      if (runState != PAUSED_AT_RETRY) {
+        return;
+      }
+      index = lastDirectiveIndex;
+      executor = (Executor) directives[index + 2];
+      if (executor != null) {
+        // run() picks up the retry point from lastDirectiveIndex
+        runState = PAUSED_AT_GO_TO;
+      } else {
+        lastDirectiveIndex = -1;
+        runState = RUNNING;
+      }
+    }
+    if (executor != null) {
+      execute(executor, this);
+    } else {
+      runFlowFrom(continueFromRetryPoint(directives, index), false);
+    }
+  }
+
+  /**
+   * Runs the rest of the flow from the given index on {@code myThread}, the current thread, which
+   * has been made interruptible while holding the lock.
+   */
+  private void continueFlowOnThread(final int index, @NonNull final Thread myThread) {
+    runFlowFrom(index, true);
     // consume any unconsumed interrupted flag
     Thread.interrupted();
     // disallow interrupting the current thread, but chances are the next directive has started
@@ -601,23 +1669,287 @@ final class CompiledRepository extends BaseObservable
     }
   }
 
+  @NonNull
+  private AsyncResultReceiver setPausedAtGetFromAsyncLocked(final int resumeIndex) {
+    lastDirectiveIndex = resumeIndex;
+    runState = PAUSED_AT_GET_FROM_ASYNC;
+    asyncResultReceiver = new AsyncResultReceiver();
+    return asyncResultReceiver;
+  }
+
+  /** Called from the thread delivering the value of a getFromAsync instruction to continue. */
+  private void onAsyncResult(@NonNull final AsyncResultReceiver receiver,
+      @NonNull final Object value) {
+    final Thread myThread = currentThread();
+    final int index;
+    synchronized (this) {
+      if (receiver != asyncResultReceiver) {
+        index = -1; // stale or repeated delivery
+      } else {
+        index = lastDirectiveIndex;
+        asyncResultReceiver = null;
+        lastDirectiveIndex = -1;
+        runState = RUNNING;
+        // allow thread interruption (set this when still holding the lock)
+        currentThread = myThread;
+      }
+    }
+    if (index == -1) {
+      discard(value);
+      return;
+    }
+    intermediateValue = checkNotNull(value);
+    continueFlowOnThread(continueFromGetFromAsync(directives, index), myThread);
+  }
+
+  /** The cancellation token of one run of the flow. */
+  private static final class FlowCancellationToken implements CancellationToken {
+    volatile boolean cancellationRequested;
+
+    @Override
+    public boolean isCancellationRequested() {
+      return cancellationRequested;
+    }
+  }
+
+  private final class AsyncResultReceiver implements Receiver<Object> {
+    @Override
+    public void accept(@NonNull final Object value) {
+      onAsyncResult(this, value);
+    }
+  }
+
   private void setLazyAndEndFlowLocked(final int resumeIndex) {
     lastDirectiveIndex = resumeIndex;
     runState = PAUSED_AT_GO_LAZY;
     dispatchUpdate();
     checkRestartLocked();
+    scheduleNextRevalidation();
   }
 
   @NonNull
   @Override
-  public synchronized Object get() {
-    if (runState == PAUSED_AT_GO_LAZY) {
-      final int index = lastDirectiveIndex;
+  public Object get() {
+    // Outside of goLazy, a single volatile read; the run state is read first, and is only set to
+    // a state other than the lazy ones after the value the lazy part of the flow produces.
+    final int state = runState;
+    if (state != PAUSED_AT_GO_LAZY && state != RUNNING_LAZILY) {
+      return unreleased(currentValue);
+    }
+    // The value may be released on every path below too, as soon as the flow is idle; for example
+    // by a disposer called at the end of the lazy part of the flow.
+    final int index;
+    synchronized (this) {
+      if (runState == RUNNING_LAZILY) {
+        awaitLazyTailLocked();
+        return unreleased(currentValue);
+      }
+      if (runState != PAUSED_AT_GO_LAZY) {
+        return unreleased(currentValue);
+      }
+      index = lastDirectiveIndex;
       runState = RUNNING_LAZILY;
+      final int maxWaitMillis = (Integer) directives[index + 1];
+      if (maxWaitMillis == BLOCKING_LAZY) {
+        runFlowFrom(continueFromGoLazy(directives, index), false);
+        return unreleased(currentValue);
+      }
+      lazyTailThread = currentThread();
+      lazyMaxWaitMillis = maxWaitMillis;
+      lazyTailInput = intermediateValue;
+      lazyTailDropped = false;
+    }
+    // Run the lazy part outside the lock, so other callers get the previous value meanwhile.
+    try {
       runFlowFrom(continueFromGoLazy(directives, index), false);
+    } finally {
+      synchronized (this) {
+        lazyTailThread = null;
+        lazyTailInput = null;
+        notifyAll();
+      }
+    }
+    synchronized (this) {
+      return unreleased(currentValue);
+    }
+  }
+
+  /** Returns the {@code value}, or the value it holds if it is a {@link ReleasedValue}. */
+  @NonNull
+  private Object unreleased(@NonNull final Object value) {
+    if (value instanceof ReleasedValue) {
+      final Object releasedValue = ((ReleasedValue) value).get();
+      return releasedValue != null ? releasedValue : initialValue;
+    }
+    return value;
+  }
+
+  /**
+   * Waits up to the max wait time of the non-blocking goLazy directive for the thread running the
+   * lazy part of the flow to finish. This must be called while locked in a synchronized context.
+   */
+  private void awaitLazyTailLocked() {
+    final Thread tailThread = lazyTailThread;
+    if (tailThread == null || tailThread == currentThread()) {
+      return;
+    }
+    final long deadlineNanos = nanoTime() + MILLISECONDS.toNanos(lazyMaxWaitMillis);
+    long remainingNanos = deadlineNanos - nanoTime();
+    while (lazyTailThread == tailThread && remainingNanos > 0) {
+      try {
+        NANOSECONDS.timedWait(this, remainingNanos);
+      } catch (final InterruptedException e) {
+        currentThread().interrupt();
+        return;
+      }
+      remainingNanos = deadlineNanos - nanoTime();
     }
-    return currentValue;
+  }
+
+  @Override
+  public synchronized long getValueAgeMillis() {
+    return valueUptimeMillis < 0 ? -1 : uptimeMillis() - valueUptimeMillis;
+  }
+
+  @Override
+  public boolean isRevalidating() {
+    return runState != IDLE && runState != PAUSED_AT_GO_LAZY;
   }
 
   //endregion Completing, pausing and resuming flow
+
+  /**
+   * The state of one run of a mergeInParallel directive. Each supplier is called exactly once, by
+   * whichever thread claims it first: an executor thread or the thread joining the directive.
+   */
+  private static final class ParallelSupplies {
+    private static final int PENDING = 0;
+    private static final int CALLING = 1;
+    private static final int DONE = 2;
+
+    @NonNull
+    private final Supplier[] suppliers;
+    @NonNull
+    private final Object[] values;
+    @NonNull
+    private final int[] states;
+    @NonNull
+    private final Thread[] callingThreads;
+    @NonNull
+    private final CancellationToken cancellationToken;
+    private int remaining;
+    private boolean cancelled;
+    @Nullable
+    private Throwable failure;
+
+    ParallelSupplies(@NonNull final Supplier[] suppliers,
+        @NonNull final CancellationToken cancellationToken) {
+      this.suppliers = suppliers;
+      this.cancellationToken = cancellationToken;
+      this.values = new Object[suppliers.length];
+      this.states = new int[suppliers.length];
+      this.callingThreads = new Thread[suppliers.length];
+      this.remaining = suppliers.length;
+    }
+
+    @NonNull
+    Runnable task(final int index) {
+      return new Runnable() {
+        @Override
+        public void run() {
+          if (call(index)) {
+            // Do not leak an interruption from a cancelled flow to the next task of the executor.
+            Thread.interrupted();
+          }
+        }
+      };
+    }
+
+    /**
+     * Calls the supplier at {@code index} if no other thread has claimed it.
+     *
+     * @return Whether the directive was cancelled while calling the supplier.
+     */
+    private boolean call(final int index) {
+      synchronized (this) {
+        if (cancelled || states[index] != PENDING) {
+          return false;
+        }
+        states[index] = CALLING;
+        callingThreads[index] = currentThread();
+      }
+      Object value = null;
+      Throwable throwable = null;
+      final CancellationToken previousToken = enterCancellationToken(cancellationToken);
+      try {
+        value = checkNotNull(suppliers[index].get());
+      } catch (final Throwable e) {
+        throwable = e;
+      } finally {
+        enterCancellationToken(previousToken);
+      }
+      synchronized (this) {
+        values[index] = value;
+        if (throwable != null && failure == null) {
+          failure = throwable;
+        }
+        states[index] = DONE;
+        callingThreads[index] = null;
+        remaining--;
+        notifyAll();
+        return cancelled;
+      }
+    }
+
+    /**
+     * Calls the suppliers not yet claimed on the current thread, then waits for the others.
+     *
+     * @return Whether all suppliers have completed; false if interrupted while waiting.
+     */
+    boolean join() {
+      for (int i = 0; i < suppliers.length; i++) {
+        if (Thread.interrupted()) {
+          return false;
+        }
+        call(i);
+      }
+      synchronized (this) {
+        while (remaining > 0) {
+          try {
+            wait();
+          } catch (final InterruptedException e) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    synchronized void cancel() {
+      cancelled = true;
+      for (final Thread thread : callingThreads) {
+        if (thread != null) {
+          thread.interrupt();
+        }
+      }
+    }
+
+    @NonNull
+    List<Object> values() {
+      final Throwable failure;
+      synchronized (this) {
+        failure = this.failure;
+      }
+      if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      }
+      if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+      if (failure != null) {
+        throw new RuntimeException(failure);
+      }
+      return unmodifiableList(asList(values));
+    }
+  }
 }
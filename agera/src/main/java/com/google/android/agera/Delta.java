@@ -0,0 +1,265 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.Preconditions.checkArgument;
+import static com.google.android.agera.Preconditions.checkNotNull;
+import static com.google.android.agera.Preconditions.checkState;
+import static java.util.Arrays.copyOf;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.google.android.agera.PersistentVector.DiffCallback;
+
+/**
+ * An immutable value paired with a description of how it changed from the value of the previous
+ * {@code Delta}, as a sequence of item insertions, removals and changes. A data processing flow
+ * that knows how its value changes, such as one that appends a page of items to a list, can use a
+ * {@code Delta} as the repository value, to compute the change descriptor once in the flow:
+ *
+ * <pre>{@code
+ * repositoryWithInitialValue(initialDelta(emptyList()))
+ *     .observe(nextPageAvailable)
+ *     .onUpdatesPerLoop()
+ *     .thenMergeIn(nextPageSupplier, appendPage)
+ *     .notifyIf(deltaHasChanges())
+ *     .compile();
+ * }</pre>
+ *
+ * where the {@code appendPage} merger returns
+ * {@code previous.changesTo(items).inserted(previousSize, page.size()).build()} for the list of
+ * {@code items} with the {@code page} appended to the value of the {@code previous} delta.
+ *
+ * <p>Observers that have seen the previous {@code Delta} can then check
+ * {@link #isRelativeTo(Delta)} and {@linkplain #dispatchChanges replay} the changes instead of
+ * diffing the whole value. A {@code Delta} only refers to the previous one by an identity token,
+ * so a chain of deltas does not keep the previous values from being garbage collected.
+ *
+ * @param <T> The value type.
+ */
+public final class Delta<T> {
+  private static final int INSERTED = 0;
+  private static final int REMOVED = 1;
+  private static final int CHANGED = 2;
+  private static final int[] NO_CHANGES = new int[0];
+  @NonNull
+  private static final Merger<Delta<?>, Delta<?>, Boolean> DELTA_HAS_CHANGES =
+      new DeltaHasChangesMerger();
+
+  @NonNull
+  private final T value;
+  @NonNull
+  private final Object version = new Object();
+  @Nullable
+  private final Object baseVersion;
+  /** Triples of change type, position and count, or null if the changes are unknown. */
+  @Nullable
+  private final int[] changes;
+
+  private Delta(@NonNull final T value, @Nullable final Object baseVersion,
+      @Nullable final int[] changes) {
+    this.value = checkNotNull(value);
+    this.baseVersion = baseVersion;
+    this.changes = changes;
+  }
+
+  /**
+   * Creates a {@code Delta} of the given initial {@code value}, which is not relative to any other
+   * {@code Delta}.
+   */
+  @NonNull
+  public static <T> Delta<T> initialDelta(@NonNull final T value) {
+    return new Delta<>(value, null, null);
+  }
+
+  /**
+   * Creates a {@code Delta} of the given {@code newValue} relative to this one, without describing
+   * the changes. Observers will have to treat the whole value as changed.
+   */
+  @NonNull
+  public Delta<T> unknownChangesTo(@NonNull final T newValue) {
+    return new Delta<>(newValue, version, null);
+  }
+
+  /**
+   * Creates a {@code Delta} of the given {@code newValue} relative to this one, with no changes.
+   * This is useful when {@code newValue} is known to be {@linkplain Object#equals equal} to the
+   * value of this {@code Delta}.
+   */
+  @NonNull
+  public Delta<T> noChangesTo(@NonNull final T newValue) {
+    return new Delta<>(newValue, version, NO_CHANGES);
+  }
+
+  /**
+   * Starts describing the changes from the value of this {@code Delta} to the given
+   * {@code newValue}, to create a {@code Delta} relative to this one.
+   */
+  @NonNull
+  public Builder<T> changesTo(@NonNull final T newValue) {
+    return new Builder<>(checkNotNull(newValue), version);
+  }
+
+  /**
+   * Returns the value.
+   */
+  @NonNull
+  public T getValue() {
+    return value;
+  }
+
+  /**
+   * Returns whether the changes from the value of the previous {@code Delta} are described.
+   */
+  public boolean areChangesKnown() {
+    return changes != null;
+  }
+
+  /**
+   * Returns whether the value may have changed from the value of the previous {@code Delta}, that
+   * is, if any changes are described, or if the changes are unknown.
+   */
+  public boolean hasChanges() {
+    return changes == null || changes.length > 0;
+  }
+
+  /**
+   * Returns whether the changes of this {@code Delta} are described relative to the given
+   * {@code base}, so they can be {@linkplain #dispatchChanges dispatched} to an observer that
+   * has seen the value of {@code base}.
+   */
+  public boolean isRelativeTo(@NonNull final Delta<?> base) {
+    return changes != null && baseVersion == base.version;
+  }
+
+  /**
+   * Sends the changes from the value of the previous {@code Delta} to the given
+   * {@code callback}, in the order they have been described.
+   *
+   * @throws IllegalStateException If the changes are not {@linkplain #areChangesKnown known}.
+   */
+  public void dispatchChanges(@NonNull final DiffCallback callback) {
+    final int[] changes = this.changes;
+    checkState(changes != null, "Changes are unknown");
+    for (int i = 0; i < changes.length; i += 3) {
+      final int position = changes[i + 1];
+      final int count = changes[i + 2];
+      switch (changes[i]) {
+        case INSERTED:
+          callback.onInserted(position, count);
+          break;
+        case REMOVED:
+          callback.onRemoved(position, count);
+          break;
+        default:
+          callback.onChanged(position, count);
+          break;
+      }
+    }
+  }
+
+  /**
+   * Returns a {@link Merger} for {@link RepositoryCompilerStates.RConfig#notifyIf}, to notify
+   * the observers of a repository of {@code Delta}s only when the new {@code Delta}
+   * {@linkplain #hasChanges has changes}.
+   */
+  @NonNull
+  @SuppressWarnings("unchecked")
+  public static <T> Merger<Delta<T>, Delta<T>, Boolean> deltaHasChanges() {
+    return (Merger) DELTA_HAS_CHANGES;
+  }
+
+  @Override
+  public String toString() {
+    return "Delta{" + value + (changes == null ? ", unknown changes}" : "}");
+  }
+
+  /**
+   * Describes the changes of a {@link Delta}, in the order they are applied, with positions
+   * relative to the list after the preceding changes, as for {@link DiffCallback}.
+   *
+   * @param <T> The value type.
+   */
+  public static final class Builder<T> {
+    @NonNull
+    private final T value;
+    @NonNull
+    private final Object baseVersion;
+    @NonNull
+    private int[] changes = new int[6];
+    private int size;
+
+    Builder(@NonNull final T value, @NonNull final Object baseVersion) {
+      this.value = value;
+      this.baseVersion = baseVersion;
+    }
+
+    /**
+     * Describes that {@code count} items have been inserted at the given {@code position}.
+     */
+    @NonNull
+    public Builder<T> inserted(final int position, final int count) {
+      return add(INSERTED, position, count);
+    }
+
+    /**
+     * Describes that {@code count} items have been removed from the given {@code position}.
+     */
+    @NonNull
+    public Builder<T> removed(final int position, final int count) {
+      return add(REMOVED, position, count);
+    }
+
+    /**
+     * Describes that {@code count} items starting from the given {@code position} have changed.
+     */
+    @NonNull
+    public Builder<T> changed(final int position, final int count) {
+      return add(CHANGED, position, count);
+    }
+
+    /**
+     * Creates the {@link Delta} with the described changes.
+     */
+    @NonNull
+    public Delta<T> build() {
+      return new Delta<>(value, baseVersion, copyOf(changes, size));
+    }
+
+    @NonNull
+    private Builder<T> add(final int type, final int position, final int count) {
+      checkArgument(position >= 0, "Position must not be negative");
+      checkArgument(count > 0, "Count must be positive");
+      if (size == changes.length) {
+        changes = copyOf(changes, size * 2);
+      }
+      changes[size] = type;
+      changes[size + 1] = position;
+      changes[size + 2] = count;
+      size += 3;
+      return this;
+    }
+  }
+
+  private static final class DeltaHasChangesMerger
+      implements Merger<Delta<?>, Delta<?>, Boolean> {
+    @NonNull
+    @Override
+    public Boolean merge(@NonNull final Delta<?> oldDelta, @NonNull final Delta<?> newDelta) {
+      return newDelta.hasChanges();
+    }
+  }
+}
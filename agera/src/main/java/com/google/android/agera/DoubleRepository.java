@@ -0,0 +1,25 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+/**
+ * An {@link Observable} {@link DoubleSupplier} of a {@code double} value. This is the primitive
+ * specialization of {@link Repository}, which stores the raw value without boxing.
+ *
+ * <p>See {@link Repository} for the semantics of <i>direct</i> and <i>deferred</i>, and
+ * <i>active</i> and <i>inactive</i> repositories.
+ */
+public interface DoubleRepository extends Observable, DoubleSupplier {}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import android.support.annotation.NonNull;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An {@link Executor} for the {@code goTo} directives of data processing flows, which runs tasks
+ * by {@link FlowPriority} and reports how busy it is.
+ */
+public interface FlowExecutor extends Executor {
+
+  /**
+   * Runs the given {@code command} at {@link FlowPriority#BACKGROUND} priority, so that work
+   * submitted without a priority does not compete with {@link FlowPriority#VISIBLE} tasks.
+   */
+  @Override
+  void execute(@NonNull Runnable command);
+
+  /**
+   * Runs the given {@code command} at the given {@code priority}.
+   */
+  void execute(@NonNull Runnable command, @FlowPriority int priority);
+
+  /**
+   * Returns the number of tasks submitted but not yet started.
+   */
+  int getQueueDepth();
+
+  /**
+   * Returns the smoothed time in nanoseconds that recently started tasks waited for a thread after
+   * being submitted, or 0 if no tasks have started yet.
+   */
+  long getAverageWaitNanos();
+
+  /**
+   * Stops the threads of this executor once they have run the tasks already submitted, and
+   * rejects the tasks submitted afterwards with a {@link RejectedExecutionException}. Call this
+   * only once no repository goes to this executor anymore, since {@code goTo} directives assume
+   * the executor never rejects a task.
+   *
+   * @throws IllegalStateException if this is a shared executor, which cannot be shut down.
+   */
+  void shutdown();
+}
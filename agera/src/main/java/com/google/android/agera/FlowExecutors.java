@@ -0,0 +1,291 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.Preconditions.checkArgument;
+import static com.google.android.agera.Preconditions.checkNotNull;
+import static com.google.android.agera.Preconditions.checkState;
+import static java.lang.System.nanoTime;
+import static java.lang.Thread.currentThread;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Utility methods for obtaining {@link FlowExecutor} instances.
+ */
+public final class FlowExecutors {
+  @Nullable
+  private static FlowExecutor defaultFlowExecutor;
+
+  /**
+   * Returns a shared {@link FlowExecutor} like those created by
+   * {@link #workStealingFlowExecutor(int)}, with one thread per available processor. It cannot be
+   * {@linkplain FlowExecutor#shutdown() shut down}.
+   */
+  @NonNull
+  public static synchronized FlowExecutor flowExecutor() {
+    if (defaultFlowExecutor == null) {
+      defaultFlowExecutor =
+          new WorkStealingFlowExecutor(Runtime.getRuntime().availableProcessors(), false);
+    }
+    return defaultFlowExecutor;
+  }
+
+  /**
+   * Returns a {@link FlowExecutor} backed by a pool of {@code parallelism} daemon threads, which
+   * run {@link FlowPriority#VISIBLE} tasks at the default thread priority and
+   * {@link FlowPriority#BACKGROUND} tasks at background thread priority. The threads keep running
+   * until the executor is {@linkplain FlowExecutor#shutdown() shut down}, so an executor created
+   * for a limited time must be shut down afterwards. Each thread has its own queues, one per
+   * {@link FlowPriority}. A task submitted from one of the threads goes to the queues of that
+   * thread, so that a flow hopping from one {@code goTo} directive to the next with the same
+   * executor tends to stay on the same thread; other tasks are spread over the threads. A thread
+   * runs its own tasks of the highest priority in submission order, and when it has none, steals
+   * the oldest task of that priority from another thread, before moving on to the next lower
+   * priority.
+   */
+  @NonNull
+  public static FlowExecutor workStealingFlowExecutor(final int parallelism) {
+    checkArgument(parallelism > 0, "Parallelism must be positive");
+    return new WorkStealingFlowExecutor(parallelism, true);
+  }
+
+  private static final class WorkStealingFlowExecutor implements FlowExecutor {
+    private static final AtomicInteger poolCount = new AtomicInteger();
+    private static final int BACKGROUND_LANE = 0;
+    private static final int VISIBLE_LANE = 1;
+
+    @NonNull
+    private final Worker[] workers;
+    @NonNull
+    private final String name;
+    /** The number of tasks in all queues, counted before they are added. */
+    @NonNull
+    private final AtomicInteger queued = new AtomicInteger();
+    @NonNull
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private final boolean canShutdown;
+    /** Guards {@link #idleWorkers} and {@link #shutdown}; idle workers wait on it for new tasks. */
+    private final Object idleLock = new Object();
+    private int idleWorkers;
+    private boolean shutdown;
+    private long averageWaitNanos;
+
+    WorkStealingFlowExecutor(final int parallelism, final boolean canShutdown) {
+      this.canShutdown = canShutdown;
+      this.name = "Agera flow pool #" + poolCount.incrementAndGet();
+      this.workers = new Worker[parallelism];
+      for (int i = 0; i < parallelism; i++) {
+        workers[i] = new Worker(i);
+      }
+      for (final Worker worker : workers) {
+        worker.start();
+      }
+    }
+
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      execute(command, FlowPriority.BACKGROUND);
+    }
+
+    @Override
+    public void execute(@NonNull final Runnable command, @FlowPriority final int priority) {
+      final Task task = new Task(checkNotNull(command),
+          priority == FlowPriority.BACKGROUND ? BACKGROUND_LANE : VISIBLE_LANE, nanoTime());
+      final Thread thread = currentThread();
+      final Worker worker = thread instanceof WorkerThread
+          && ((WorkerThread) thread).worker.executor() == this
+          ? ((WorkerThread) thread).worker
+          : workers[(nextWorker.getAndIncrement() & Integer.MAX_VALUE) % workers.length];
+      synchronized (idleLock) {
+        if (shutdown) {
+          throw new RejectedExecutionException(name + " has been shut down");
+        }
+        queued.incrementAndGet();
+        worker.push(task);
+        if (idleWorkers > 0) {
+          idleLock.notify();
+        }
+      }
+    }
+
+    @Override
+    public void shutdown() {
+      checkState(canShutdown, "The shared flow executor cannot be shut down");
+      synchronized (idleLock) {
+        shutdown = true;
+        idleLock.notifyAll();
+      }
+    }
+
+    @Override
+    public int getQueueDepth() {
+      return queued.get();
+    }
+
+    @Override
+    public synchronized long getAverageWaitNanos() {
+      return averageWaitNanos;
+    }
+
+    private synchronized void recordWait(final long waitNanos) {
+      // Exponential moving average with a weight of 1/8 for the latest task.
+      averageWaitNanos = averageWaitNanos == 0 ? waitNanos
+          : averageWaitNanos + (waitNanos - averageWaitNanos) / 8;
+    }
+
+    /**
+     * Takes the next task for {@code worker}, waiting for one if there is none, or returns null if
+     * this executor has been shut down and has no tasks left.
+     */
+    @Nullable
+    private Task take(@NonNull final Worker worker) {
+      while (true) {
+        final Task task = poll(worker);
+        if (task != null) {
+          queued.decrementAndGet();
+          recordWait(nanoTime() - task.submittedNanos);
+          return task;
+        }
+        synchronized (idleLock) {
+          if (queued.get() == 0) {
+            if (shutdown) {
+              return null;
+            }
+            idleWorkers++;
+            try {
+              idleLock.wait();
+            } catch (final InterruptedException ignored) {
+              // Workers are never interrupted on purpose; keep working.
+            } finally {
+              idleWorkers--;
+            }
+          }
+        }
+      }
+    }
+
+    @Nullable
+    private Task poll(@NonNull final Worker worker) {
+      for (int lane = VISIBLE_LANE; lane >= BACKGROUND_LANE; lane--) {
+        // Start with the queue of this worker, then try to steal from the others.
+        for (int i = 0; i < workers.length; i++) {
+          final Task task = workers[(worker.index + i) % workers.length].poll(lane);
+          if (task != null) {
+            return task;
+          }
+        }
+      }
+      return null;
+    }
+
+    private final class Worker implements Runnable {
+      final int index;
+      /** The queues of this worker, one per lane; guarded by this worker. */
+      @NonNull
+      private final ArrayDeque<Task> visibleTasks = new ArrayDeque<>();
+      @NonNull
+      private final ArrayDeque<Task> backgroundTasks = new ArrayDeque<>();
+      /** The lane whose thread priority the thread of this worker runs at, or -1 if not set. */
+      private int currentLane = -1;
+
+      Worker(final int index) {
+        this.index = index;
+      }
+
+      @NonNull
+      WorkStealingFlowExecutor executor() {
+        return WorkStealingFlowExecutor.this;
+      }
+
+      void start() {
+        new WorkerThread(this, name + " worker #" + (index + 1)).start();
+      }
+
+      synchronized void push(@NonNull final Task task) {
+        tasks(task.lane).addLast(task);
+      }
+
+      @Nullable
+      synchronized Task poll(final int lane) {
+        return tasks(lane).pollFirst();
+      }
+
+      @NonNull
+      private ArrayDeque<Task> tasks(final int lane) {
+        return lane == VISIBLE_LANE ? visibleTasks : backgroundTasks;
+      }
+
+      @Override
+      public void run() {
+        currentLane = -1;
+        boolean stopped = false;
+        try {
+          Task task;
+          while ((task = take(this)) != null) {
+            if (task.lane != currentLane) {
+              currentLane = task.lane;
+              Process.setThreadPriority(task.lane == VISIBLE_LANE
+                  ? Process.THREAD_PRIORITY_DEFAULT : Process.THREAD_PRIORITY_BACKGROUND);
+            }
+            task.command.run();
+            // Do not leak an interruption meant for the last task to the next one.
+            Thread.interrupted();
+          }
+          stopped = true;
+        } finally {
+          if (!stopped) {
+            // A task threw; replace this thread so that the queues keep being served, and let
+            // the exception reach the uncaught exception handler.
+            start();
+          }
+        }
+      }
+    }
+  }
+
+  private static final class WorkerThread extends Thread {
+    @NonNull
+    final WorkStealingFlowExecutor.Worker worker;
+
+    WorkerThread(@NonNull final WorkStealingFlowExecutor.Worker worker,
+        @NonNull final String name) {
+      super(worker, name);
+      this.worker = worker;
+      setDaemon(true);
+    }
+  }
+
+  private static final class Task {
+    @NonNull
+    final Runnable command;
+    final int lane;
+    final long submittedNanos;
+
+    Task(@NonNull final Runnable command, final int lane, final long submittedNanos) {
+      this.command = command;
+      this.lane = lane;
+      this.submittedNanos = submittedNanos;
+    }
+  }
+
+  private FlowExecutors() {}
+}
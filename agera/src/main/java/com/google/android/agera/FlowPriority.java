@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import android.support.annotation.IntDef;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Constants for the priority lanes of a {@link FlowExecutor}.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@IntDef({
+    FlowPriority.BACKGROUND,
+    FlowPriority.VISIBLE,
+})
+public @interface FlowPriority {
+
+  /**
+   * For flows whose results are not currently on screen, such as prefetching. Tasks of this
+   * priority only run when there are no tasks of {@link #VISIBLE} priority waiting. This is the
+   * priority of tasks submitted without one.
+   */
+  int BACKGROUND = 0;
+
+  /**
+   * For flows whose results are, or are about to be, on screen.
+   */
+  int VISIBLE = 1;
+}
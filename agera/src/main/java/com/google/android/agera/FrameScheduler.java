@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static android.os.Build.VERSION.SDK_INT;
+import static android.os.SystemClock.uptimeMillis;
+import static com.google.android.agera.Preconditions.checkState;
+
+import android.annotation.TargetApi;
+import android.os.Build.VERSION_CODES;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.Choreographer;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
+/**
+ * Shared per-thread source of display frame callbacks behind the frame-aligned {@link Observable}s.
+ * Callbacks posted within one frame are run together at the start of the next frame, requesting a
+ * single frame from the underlying clock. Must only be used from the thread it was obtained on.
+ */
+abstract class FrameScheduler {
+  /** Frame interval used when {@link Choreographer} is not available, for a 60Hz display. */
+  static final int FALLBACK_FRAME_INTERVAL_MILLIS = 16;
+  private static final ThreadLocal<WeakReference<FrameScheduler>> schedulers =
+      new ThreadLocal<>();
+  /** The callbacks to run at the next frame, in the order posted and without duplicates. */
+  @NonNull
+  private final LinkedHashSet<Runnable> callbacks = new LinkedHashSet<>();
+  @NonNull
+  private final ArrayList<Runnable> runningCallbacks = new ArrayList<>();
+  private boolean frameRequested;
+
+  @NonNull
+  static FrameScheduler frameScheduler() {
+    final WeakReference<FrameScheduler> schedulerReference = schedulers.get();
+    FrameScheduler scheduler = schedulerReference != null ? schedulerReference.get() : null;
+    if (scheduler == null) {
+      final Looper looper = Looper.myLooper();
+      checkState(looper != null, "Can only be obtained on a Looper thread");
+      scheduler = SDK_INT >= VERSION_CODES.JELLY_BEAN
+          ? new ChoreographerFrameScheduler() : new HandlerFrameScheduler(looper);
+      schedulers.set(new WeakReference<>(scheduler));
+    }
+    return scheduler;
+  }
+
+  /**
+   * Replaces the {@link FrameScheduler} of the current thread, or restores the default one if
+   * {@code scheduler} is null. Only {@link Observable}s created after this call are affected.
+   * Allows JVM tests to drive the frames with {@link #onFrame()}.
+   */
+  static void setFrameScheduler(@Nullable final FrameScheduler scheduler) {
+    schedulers.set(scheduler != null ? new WeakReference<>(scheduler) : null);
+  }
+
+  final void postFrameCallback(@NonNull final Runnable callback) {
+    callbacks.add(callback);
+    if (!frameRequested) {
+      frameRequested = true;
+      requestFrame();
+    }
+  }
+
+  final void removeFrameCallback(@NonNull final Runnable callback) {
+    callbacks.remove(callback);
+  }
+
+  /**
+   * Called at the start of a frame after {@link #requestFrame()}. Runs the callbacks posted up to
+   * now; callbacks posted while running them are deferred to the next frame.
+   */
+  final void onFrame() {
+    frameRequested = false;
+    runningCallbacks.addAll(callbacks);
+    callbacks.clear();
+    for (int i = 0; i < runningCallbacks.size(); i++) {
+      runningCallbacks.get(i).run();
+    }
+    runningCallbacks.clear();
+  }
+
+  /**
+   * Requests {@link #onFrame()} to be called at the start of the next frame.
+   */
+  abstract void requestFrame();
+
+  /** A {@link FrameScheduler} whose frames are started by calling {@link #run()}. */
+  static final class ManualFrameScheduler extends FrameScheduler implements Runnable {
+    @Override
+    void requestFrame() {}
+
+    @Override
+    public void run() {
+      onFrame();
+    }
+  }
+
+  @TargetApi(VERSION_CODES.JELLY_BEAN)
+  private static final class ChoreographerFrameScheduler extends FrameScheduler
+      implements Choreographer.FrameCallback {
+    @NonNull
+    private final Choreographer choreographer = Choreographer.getInstance();
+
+    @Override
+    void requestFrame() {
+      choreographer.postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(final long frameTimeNanos) {
+      onFrame();
+    }
+  }
+
+  private static final class HandlerFrameScheduler extends FrameScheduler implements Runnable {
+    @NonNull
+    private final Handler handler;
+
+    HandlerFrameScheduler(@NonNull final Looper looper) {
+      this.handler = new Handler(looper);
+    }
+
+    @Override
+    void requestFrame() {
+      final long now = uptimeMillis();
+      handler.postAtTime(this, now - now % FALLBACK_FRAME_INTERVAL_MILLIS
+          + FALLBACK_FRAME_INTERVAL_MILLIS);
+    }
+
+    @Override
+    public void run() {
+      onFrame();
+    }
+  }
+}
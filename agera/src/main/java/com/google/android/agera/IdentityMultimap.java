@@ -38,13 +38,24 @@ final class IdentityMultimap<K, V> {
     return size == 0;
   }
 
-  synchronized void removeKeyValuePair(@NonNull final K key, @NonNull final V value) {
+  /**
+   * Removes the pair of {@code key} and {@code value}.
+   *
+   * @return Whether {@code key} has no values left.
+   */
+  synchronized boolean removeKeyValuePair(@NonNull final K key, @NonNull final V value) {
+    boolean hasValues = false;
     for (int index = 0; index < keysValues.length; index += 2) {
-      if (keysValues[index] == key && keysValues[index + 1] == value) {
-        keysValues[index] = null;
-        keysValues[index + 1] = null;
+      if (keysValues[index] == key) {
+        if (keysValues[index + 1] == value) {
+          keysValues[index] = null;
+          keysValues[index + 1] = null;
+        } else {
+          hasValues = true;
+        }
       }
     }
+    return !hasValues;
   }
 
   synchronized boolean removeKey(@NonNull final K key) {
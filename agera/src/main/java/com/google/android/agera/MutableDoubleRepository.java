@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A {@link DoubleRepository} that can receive new values.
+ *
+ * <p>If the new value is not equal to the old value, the added {@link Updatable}s will be notified.
+ * Equality is tested on the raw {@code double} values, with the same semantics as {@link
+ * Double#equals}, without any allocation. {@link MutableDoubleRepository#accept(double)} can be
+ * called on any thread.
+ */
+public interface MutableDoubleRepository extends DoubleRepository, DoubleReceiver {
+
+  /**
+   * Atomically replaces the value with the result of applying {@code function} to it, notifying the
+   * added {@link Updatable}s as {@link #accept(double)} would, and returns the new value. Unlike
+   * {@link #getAsDouble()} followed by {@link #accept(double)}, this never loses a concurrent
+   * update. The {@code function} is called while the repository is locked, so it must be fast and
+   * must not access the repository.
+   */
+  double updateAndGet(@NonNull DoubleFunction function);
+}
@@ -15,13 +15,24 @@
  */
 package com.google.android.agera;
 
+import static android.os.SystemClock.elapsedRealtime;
+import static com.google.android.agera.FrameScheduler.frameScheduler;
+import static com.google.android.agera.FrameScheduler.setFrameScheduler;
+import static com.google.android.agera.Preconditions.checkArgument;
 import static com.google.android.agera.Preconditions.checkNotNull;
+import static com.google.android.agera.WorkerHandler.MSG_CALL_ON_TIMER;
+import static com.google.android.agera.WorkerHandler.workerHandler;
 
 import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import java.util.ArrayList;
-import java.util.List;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Utility methods for obtaining {@link Observable} instances.
@@ -35,6 +46,8 @@ import java.util.List;
  * {@link UpdateDispatcher} was created on.
  */
 public final class Observables {
+  /** The shared composite observables created on each thread, see {@link #sharedComposites()}. */
+  private static final ThreadLocal<SharedComposites> sharedComposites = new ThreadLocal<>();
 
   /**
    * Returns an {@link Observable} that notifies added {@link Updatable}s that any of the
@@ -63,23 +76,77 @@ public final class Observables {
       }
     }
 
-    final List<Observable> flattenedDedupedObservables = new ArrayList<>();
+    final Set<Observable> flattenedDedupedObservables = flattenedDedupedObservables(observables);
+    return new CompositeObservable(shortestUpdateWindowMillis,
+        flattenedDedupedObservables.toArray(new Observable[flattenedDedupedObservables.size()]));
+  }
+
+  /**
+   * Returns a composite {@link Observable} like {@link #compositeObservable(int, Observable...)},
+   * but shared with the other callers on this thread asking for the same set of observables with
+   * the same update window, for as long as any of them keeps it. A shared composite observable is
+   * added to each of the {@code observables} once, however many {@link Updatable}s it has, so each
+   * update of the observables posts one message to the composite instead of one per
+   * {@link Updatable}; the composite then still posts one message per {@link Updatable} it
+   * notifies.
+   *
+   * <p>The returned observable must not be modified, as through
+   * {@link BaseObservable#setShortestUpdateWindowMillis}, and an {@link Updatable} can only be
+   * added to it once.
+   */
+  @NonNull
+  static Observable sharedCompositeObservable(final int shortestUpdateWindowMillis,
+      @NonNull final Observable... observables) {
+    return sharedCompositeObservable(shortestUpdateWindowMillis, false, observables);
+  }
+
+  /**
+   * Returns a shared composite {@link Observable} like
+   * {@link #sharedCompositeObservable(int, Observable...)}, whose updates are
+   * {@linkplain BaseObservable#setUrgentUpdates urgent} if {@code urgentUpdates}. Urgent and
+   * non-urgent callers do not share composites.
+   */
+  @NonNull
+  static Observable sharedCompositeObservable(final int shortestUpdateWindowMillis,
+      final boolean urgentUpdates, @NonNull final Observable... observables) {
+    return sharedComposites().get(shortestUpdateWindowMillis, urgentUpdates,
+        flattenedDedupedObservables(observables));
+  }
+
+  /**
+   * Returns a per-frame {@link Observable} like {@link #perFrameObservable(Observable...)}, on top
+   * of a {@linkplain #sharedCompositeObservable shared composite observable}.
+   */
+  @NonNull
+  static Observable sharedPerFrameObservable(@NonNull final Observable... observables) {
+    return new PerFrameObservable(sharedCompositeObservable(0, observables));
+  }
+
+  @NonNull
+  private static Set<Observable> flattenedDedupedObservables(
+      @NonNull final Observable... observables) {
+    final Set<Observable> flattenedDedupedObservables = new LinkedHashSet<>();
     for (final Observable observable : observables) {
       if (observable instanceof CompositeObservable
           && ((CompositeObservable) observable).shortestUpdateWindowMillis == 0) {
-        for (Observable subObservable : ((CompositeObservable) observable).observables) {
-          if (!flattenedDedupedObservables.contains(subObservable)) {
-            flattenedDedupedObservables.add(subObservable);
-          }
+        for (final Observable subObservable : ((CompositeObservable) observable).observables) {
+          flattenedDedupedObservables.add(subObservable);
         }
       } else {
-        if (!flattenedDedupedObservables.contains(observable)) {
-          flattenedDedupedObservables.add(observable);
-        }
+        flattenedDedupedObservables.add(observable);
       }
     }
-    return new CompositeObservable(shortestUpdateWindowMillis,
-        flattenedDedupedObservables.toArray(new Observable[flattenedDedupedObservables.size()]));
+    return flattenedDedupedObservables;
+  }
+
+  @NonNull
+  private static SharedComposites sharedComposites() {
+    SharedComposites composites = sharedComposites.get();
+    if (composites == null) {
+      composites = new SharedComposites();
+      sharedComposites.set(composites);
+    }
+    return composites;
   }
 
   /**
@@ -112,6 +179,83 @@ public final class Observables {
     return compositeObservable(observables);
   }
 
+  /**
+   * Returns an {@link Observable} that notifies added {@link Updatable}s that the
+   * {@code observables} have changed, but never more often than once per display frame. On API
+   * level 16 and above the frames are driven by {@link android.view.Choreographer}; below that an
+   * approximate 60Hz frame clock is used.
+   *
+   * <p>This is for {@link Observable}s whose clients only need to be up to date when the next frame
+   * is drawn, so that several updates between two frames result in a single notification.
+   */
+  @NonNull
+  public static Observable perFrameObservable(@NonNull final Observable... observables) {
+    return new PerFrameObservable(compositeObservable(observables));
+  }
+
+  /**
+   * Makes the {@linkplain #perFrameObservable per-frame observables} created afterwards on the
+   * calling thread, including those of the repositories compiled with
+   * {@link RepositoryCompilerStates.RFrequency#onUpdatesPerFrame()}, start a frame each time the
+   * returned {@link Runnable} is run, instead of following the display frames. For JVM tests,
+   * which have no display; run the returned {@link Runnable} on the calling thread, and call
+   * {@link #useDisplayFrames()} when done.
+   */
+  @NonNull
+  public static Runnable useManualFrames() {
+    final FrameScheduler.ManualFrameScheduler scheduler =
+        new FrameScheduler.ManualFrameScheduler();
+    setFrameScheduler(scheduler);
+    return scheduler;
+  }
+
+  /**
+   * Makes the {@linkplain #perFrameObservable per-frame observables} created afterwards on the
+   * calling thread follow the display frames again, after {@link #useManualFrames()}.
+   */
+  public static void useDisplayFrames() {
+    setFrameScheduler(null);
+  }
+
+  /**
+   * Returns an {@link Observable} that notifies added {@link Updatable}s once the
+   * {@code observables} have stopped changing for {@code quietPeriodMillis}. Every update from the
+   * {@code observables} restarts the quiet period, so a continuous burst of updates results in a
+   * single notification after the burst has ended.
+   */
+  @NonNull
+  public static Observable debounceObservable(
+      final int quietPeriodMillis, @NonNull final Observable... observables) {
+    checkArgument(quietPeriodMillis > 0, "Quiet period must be positive");
+    return new DebounceObservable(quietPeriodMillis, compositeObservable(observables));
+  }
+
+  /**
+   * Returns an {@link Observable} that notifies added {@link Updatable}s at most once every
+   * {@code periodMillis}, at a fixed rate measured from the activation of the observable, and only
+   * if any of the {@code observables} have changed during the preceding period. No timer is
+   * scheduled while the {@code observables} are not changing.
+   */
+  @NonNull
+  public static Observable sampleObservable(
+      final int periodMillis, @NonNull final Observable... observables) {
+    checkArgument(periodMillis > 0, "Period must be positive");
+    return new SampleObservable(periodMillis, compositeObservable(observables));
+  }
+
+  /**
+   * Returns an {@link Observable} that notifies added {@link Updatable}s immediately when any of
+   * the {@code observables} change, and then at most once every {@code windowMillis}. Updates
+   * received within a window are coalesced into a single notification sent at the end of that
+   * window, so the latest change is never dropped.
+   */
+  @NonNull
+  public static Observable throttleLatestObservable(
+      final int windowMillis, @NonNull final Observable... observables) {
+    checkArgument(windowMillis > 0, "Window must be positive");
+    return new ThrottleLatestObservable(windowMillis, compositeObservable(observables));
+  }
+
   /**
    * Returns an asynchronous {@link UpdateDispatcher}.
    *
@@ -173,6 +317,155 @@ public final class Observables {
     }
   }
 
+  /**
+   * The shared composite observables of one thread, weakly referenced by their update window,
+   * urgency and set of observables. The keys hold the observables weakly too, so that an entry left
+   * behind by a collected composite, until the next lookup expunges it, does not keep the
+   * observables alive.
+   */
+  private static final class SharedComposites {
+    @NonNull
+    private final Map<CompositeKey, SharedComposite> composites = new HashMap<>();
+    @NonNull
+    private final ReferenceQueue<CompositeObservable> collected = new ReferenceQueue<>();
+
+    @NonNull
+    CompositeObservable get(final int shortestUpdateWindowMillis, final boolean urgentUpdates,
+        @NonNull final Set<Observable> observables) {
+      expungeCollected();
+      final CompositeKey key =
+          new CompositeKey(shortestUpdateWindowMillis, urgentUpdates, observables);
+      final SharedComposite sharedComposite = composites.get(key);
+      CompositeObservable composite = sharedComposite != null ? sharedComposite.get() : null;
+      if (composite == null) {
+        composite = new CompositeObservable(shortestUpdateWindowMillis,
+            observables.toArray(new Observable[observables.size()]));
+        composite.setUrgentUpdates(urgentUpdates);
+        composites.put(key, new SharedComposite(composite, key, collected));
+      }
+      return composite;
+    }
+
+    private void expungeCollected() {
+      SharedComposite sharedComposite;
+      while ((sharedComposite = (SharedComposite) collected.poll()) != null) {
+        // The key may have been mapped to a new composite since.
+        if (composites.get(sharedComposite.key) == sharedComposite) {
+          composites.remove(sharedComposite.key);
+        }
+      }
+    }
+  }
+
+  private static final class SharedComposite extends WeakReference<CompositeObservable> {
+    @NonNull
+    final CompositeKey key;
+
+    SharedComposite(@NonNull final CompositeObservable composite,
+        @NonNull final CompositeKey key,
+        @NonNull final ReferenceQueue<CompositeObservable> queue) {
+      super(composite, queue);
+      this.key = key;
+    }
+  }
+
+  /**
+   * Identifies a shared composite by its update window, urgency and set of observables, compared
+   * by identity. The observables are sorted by identity hash code, so that keys of the same set
+   * can be compared element by element without allocating, and the hash code is computed once.
+   */
+  private static final class CompositeKey {
+    private final int shortestUpdateWindowMillis;
+    private final boolean urgentUpdates;
+    @NonNull
+    private final WeakReference<Observable>[] observables;
+    @NonNull
+    private final int[] identityHashCodes;
+    private final int hashCode;
+
+    @SuppressWarnings("unchecked")
+    CompositeKey(final int shortestUpdateWindowMillis, final boolean urgentUpdates,
+        @NonNull final Set<Observable> observables) {
+      this.shortestUpdateWindowMillis = shortestUpdateWindowMillis;
+      this.urgentUpdates = urgentUpdates;
+      final int size = observables.size();
+      final Observable[] unsortedObservables = observables.toArray(new Observable[size]);
+      // Sort the indices by identity hash code, packed together to sort without a comparator.
+      final long[] sortKeys = new long[size];
+      for (int i = 0; i < size; i++) {
+        sortKeys[i] = (long) System.identityHashCode(unsortedObservables[i]) << 32 | i;
+      }
+      Arrays.sort(sortKeys);
+      this.observables = new WeakReference[size];
+      this.identityHashCodes = new int[size];
+      int hashCode = 31 * shortestUpdateWindowMillis + (urgentUpdates ? 1 : 0);
+      for (int i = 0; i < size; i++) {
+        this.observables[i] = new WeakReference<>(unsortedObservables[(int) sortKeys[i]]);
+        identityHashCodes[i] = (int) (sortKeys[i] >> 32);
+        hashCode = 31 * hashCode + identityHashCodes[i];
+      }
+      this.hashCode = hashCode;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof CompositeKey)) {
+        return false;
+      }
+      final CompositeKey that = (CompositeKey) o;
+      if (hashCode != that.hashCode
+          || shortestUpdateWindowMillis != that.shortestUpdateWindowMillis
+          || urgentUpdates != that.urgentUpdates
+          || observables.length != that.observables.length) {
+        return false;
+      }
+      for (int i = 0; i < observables.length; i++) {
+        if (identityHashCodes[i] != that.identityHashCodes[i]) {
+          return false;
+        }
+        final Observable observable = observables[i].get();
+        if (observable == null) {
+          return false;
+        }
+        if (observable != that.observables[i].get()
+            && !containsInRunOfEqualHashCodes(that, i, observable)) {
+          // Observables sharing an identity hash code may be sorted differently in each key.
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Returns whether {@code observable}, found at {@code index} in this key, is in {@code that}
+     * key among the observables sharing its identity hash code.
+     */
+    private boolean containsInRunOfEqualHashCodes(@NonNull final CompositeKey that,
+        final int index, @NonNull final Observable observable) {
+      final int identityHashCode = identityHashCodes[index];
+      for (int i = index - 1; i >= 0 && that.identityHashCodes[i] == identityHashCode; i--) {
+        if (that.observables[i].get() == observable) {
+          return true;
+        }
+      }
+      for (int i = index + 1;
+          i < that.observables.length && that.identityHashCodes[i] == identityHashCode; i++) {
+        if (that.observables[i].get() == observable) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
   private static final class ConditionalObservable extends BaseObservable implements Updatable {
     @NonNull
     private final Observable observable;
@@ -203,6 +496,173 @@ public final class Observables {
     }
   }
 
+  /**
+   * Base of the {@link Observable}s that delay or drop updates using a timer on the shared
+   * {@link WorkerHandler}. All callbacks are called on the thread the observable was created on.
+   */
+  abstract static class TimedObservable extends BaseObservable implements Updatable {
+    @NonNull
+    private final Observable observable;
+    @NonNull
+    private final WorkerHandler handler;
+    private boolean timerScheduled;
+
+    TimedObservable(@NonNull final Observable observable) {
+      this.observable = checkNotNull(observable);
+      this.handler = workerHandler();
+    }
+
+    @Override
+    protected void observableActivated() {
+      observable.addUpdatable(this);
+    }
+
+    @Override
+    protected void observableDeactivated() {
+      observable.removeUpdatable(this);
+      if (timerScheduled) {
+        handler.purgeMessages(MSG_CALL_ON_TIMER, this);
+        timerScheduled = false;
+      }
+    }
+
+    final boolean isTimerScheduled() {
+      return timerScheduled;
+    }
+
+    final void scheduleTimer(final long delayMillis) {
+      handler.purgeMessages(MSG_CALL_ON_TIMER, this);
+      handler.sendMessageDelayed(handler.obtainMessage(MSG_CALL_ON_TIMER, this), delayMillis);
+      timerScheduled = true;
+    }
+
+    final void callOnTimer() {
+      if (timerScheduled) {
+        timerScheduled = false;
+        onTimer();
+      }
+    }
+
+    abstract void onTimer();
+  }
+
+  private static final class DebounceObservable extends TimedObservable {
+    private final int quietPeriodMillis;
+
+    DebounceObservable(final int quietPeriodMillis, @NonNull final Observable observable) {
+      super(observable);
+      this.quietPeriodMillis = quietPeriodMillis;
+    }
+
+    @Override
+    public void update() {
+      scheduleTimer(quietPeriodMillis);
+    }
+
+    @Override
+    void onTimer() {
+      dispatchUpdate();
+    }
+  }
+
+  private static final class SampleObservable extends TimedObservable {
+    private final int periodMillis;
+    private long activationTimestamp;
+
+    SampleObservable(final int periodMillis, @NonNull final Observable observable) {
+      super(observable);
+      this.periodMillis = periodMillis;
+    }
+
+    @Override
+    protected void observableActivated() {
+      activationTimestamp = elapsedRealtime();
+      super.observableActivated();
+    }
+
+    @Override
+    public void update() {
+      if (!isTimerScheduled()) {
+        final long elapsedMillis = elapsedRealtime() - activationTimestamp;
+        scheduleTimer(periodMillis - elapsedMillis % periodMillis);
+      }
+    }
+
+    @Override
+    void onTimer() {
+      dispatchUpdate();
+    }
+  }
+
+  private static final class ThrottleLatestObservable extends TimedObservable {
+    private final int windowMillis;
+    private boolean updatedWithinWindow;
+
+    ThrottleLatestObservable(final int windowMillis, @NonNull final Observable observable) {
+      super(observable);
+      this.windowMillis = windowMillis;
+    }
+
+    @Override
+    protected void observableDeactivated() {
+      super.observableDeactivated();
+      updatedWithinWindow = false;
+    }
+
+    @Override
+    public void update() {
+      if (isTimerScheduled()) {
+        updatedWithinWindow = true;
+      } else {
+        dispatchUpdate();
+        scheduleTimer(windowMillis);
+      }
+    }
+
+    @Override
+    void onTimer() {
+      if (updatedWithinWindow) {
+        updatedWithinWindow = false;
+        dispatchUpdate();
+        scheduleTimer(windowMillis);
+      }
+    }
+  }
+
+  private static final class PerFrameObservable extends BaseObservable
+      implements Updatable, Runnable {
+    @NonNull
+    private final Observable observable;
+    @NonNull
+    private final FrameScheduler frameScheduler;
+
+    PerFrameObservable(@NonNull final Observable observable) {
+      this.observable = checkNotNull(observable);
+      this.frameScheduler = frameScheduler();
+    }
+
+    @Override
+    protected void observableActivated() {
+      observable.addUpdatable(this);
+    }
+
+    @Override
+    protected void observableDeactivated() {
+      observable.removeUpdatable(this);
+      frameScheduler.removeFrameCallback(this);
+    }
+
+    @Override
+    public void update() {
+      frameScheduler.postFrameCallback(this);
+    }
+
+    @Override
+    public void run() {
+      dispatchUpdate();
+    }
+  }
+
   private static final class AsyncUpdateDispatcher extends BaseObservable
       implements UpdateDispatcher {
 
@@ -0,0 +1,605 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.Preconditions.checkNotNull;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable {@link Map} with efficient non-destructive updates, implemented as a hash array
+ * mapped trie. Each update method returns a new {@code PersistentMap} that shares all unaffected
+ * parts of its internal tree with the original map, so keeping many versions of a large map (for
+ * example the old and the new value of a repository) costs memory proportional to the changes only.
+ *
+ * <p>Because unchanged parts of two versions are the same instances, {@link #equals} and
+ * {@link #diff} between two versions of a map skip those parts without looking at the entries,
+ * and run in time proportional to the changes. This makes {@code PersistentMap} a good value type
+ * for repositories using the default {@link Object#equals}-based notification checker.
+ *
+ * <p>{@code PersistentMap} does not allow null keys or values. The mutator methods inherited from
+ * {@link Map} throw {@link UnsupportedOperationException}.
+ */
+public final class PersistentMap<K, V> extends AbstractMap<K, V> {
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+  @NonNull
+  private static final PersistentMap<Object, Object> EMPTY = new PersistentMap<>(null, 0);
+
+  @Nullable
+  private final Node root;
+  private final int size;
+  @Nullable
+  private Set<Entry<K, V>> entrySet;
+  private int hashCode;
+
+  /**
+   * Returns an empty {@code PersistentMap}.
+   */
+  @SuppressWarnings("unchecked")
+  @NonNull
+  public static <K, V> PersistentMap<K, V> emptyMap() {
+    return (PersistentMap<K, V>) EMPTY;
+  }
+
+  /**
+   * Returns a {@code PersistentMap} containing the entries of the given {@code map}. If
+   * {@code map} is already a {@code PersistentMap}, it is returned as is.
+   */
+  @SuppressWarnings("unchecked")
+  @NonNull
+  public static <K, V> PersistentMap<K, V> copyOf(
+      @NonNull final Map<? extends K, ? extends V> map) {
+    if (map instanceof PersistentMap) {
+      return (PersistentMap<K, V>) map;
+    }
+    PersistentMap<K, V> result = emptyMap();
+    for (final Entry<? extends K, ? extends V> entry : map.entrySet()) {
+      result = result.plus(entry.getKey(), entry.getValue());
+    }
+    return result;
+  }
+
+  private PersistentMap(@Nullable final Node root, final int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+    return get(key) != null;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public V get(final Object key) {
+    return key == null || root == null ? null : (V) root.find(0, key.hashCode(), key);
+  }
+
+  /**
+   * Returns a map with the given {@code key} mapped to the given {@code value}. Returns this map
+   * if the key is already mapped to the same value instance.
+   */
+  @NonNull
+  public PersistentMap<K, V> plus(@NonNull final K key, @NonNull final V value) {
+    checkNotNull(key);
+    checkNotNull(value);
+    final boolean[] addedLeaf = new boolean[1];
+    final Node newRoot = (root == null ? BitmapNode.EMPTY : root)
+        .put(0, key.hashCode(), key, value, addedLeaf);
+    if (newRoot == root) {
+      return this;
+    }
+    return new PersistentMap<>(newRoot, addedLeaf[0] ? size + 1 : size);
+  }
+
+  /**
+   * Returns a map without any mapping for the given {@code key}. Returns this map if there is no
+   * mapping for the key.
+   */
+  @NonNull
+  public PersistentMap<K, V> minus(@NonNull final Object key) {
+    if (root == null) {
+      return this;
+    }
+    final Node newRoot = root.remove(0, key.hashCode(), key);
+    if (newRoot == root) {
+      return this;
+    }
+    if (newRoot == null) {
+      return emptyMap();
+    }
+    return new PersistentMap<>(newRoot, size - 1);
+  }
+
+  /**
+   * Compares this map to the {@code newer} map and reports the keys that have been added, removed
+   * or mapped to a different value to the given {@code callback}. Two values are considered
+   * unchanged if they are {@linkplain Object#equals equal}. Parts of the two maps that are shared,
+   * because one map is derived from the other, are skipped without comparing the entries they
+   * contain. The order of the reported keys is undefined.
+   */
+  public void diff(@NonNull final PersistentMap<? extends K, ? extends V> newer,
+      @NonNull final DiffCallback<? super K> callback) {
+    diffNodes(0, root, newer.root, new DiffState(callback));
+  }
+
+  @NonNull
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    Set<Entry<K, V>> entrySet = this.entrySet;
+    if (entrySet == null) {
+      entrySet = new EntrySet();
+      this.entrySet = entrySet;
+    }
+    return entrySet;
+  }
+
+  @Override
+  public boolean equals(final Object object) {
+    if (this == object) {
+      return true;
+    }
+    if (!(object instanceof PersistentMap)) {
+      return super.equals(object);
+    }
+    final PersistentMap<?, ?> other = (PersistentMap<?, ?>) object;
+    if (size != other.size) {
+      return false;
+    }
+    if (hashCode != 0 && other.hashCode != 0 && hashCode != other.hashCode) {
+      return false;
+    }
+    final DiffState state = new DiffState(null);
+    diffNodes(0, root, other.root, state);
+    return !state.done;
+  }
+
+  @Override
+  public int hashCode() {
+    int hashCode = this.hashCode;
+    if (hashCode == 0) {
+      hashCode = super.hashCode();
+      this.hashCode = hashCode;
+    }
+    return hashCode;
+  }
+
+  private static void diffNodes(final int shift, @Nullable final Node node,
+      @Nullable final Node otherNode, @NonNull final DiffState state) {
+    if (node == otherNode || state.done) {
+      return;
+    }
+    if (node instanceof BitmapNode && otherNode instanceof BitmapNode) {
+      final BitmapNode bitmapNode = (BitmapNode) node;
+      final BitmapNode otherBitmapNode = (BitmapNode) otherNode;
+      int bits = bitmapNode.bitmap | otherBitmapNode.bitmap;
+      while (bits != 0 && !state.done) {
+        final int bit = bits & -bits;
+        bits ^= bit;
+        diffSlots(shift, bitmapNode.slot(bit), otherBitmapNode.slot(bit), state);
+      }
+      return;
+    }
+    diffByLookup(node, otherNode, state);
+  }
+
+  private static void diffSlots(final int shift, @Nullable final Object[] slot,
+      @Nullable final Object[] otherSlot, @NonNull final DiffState state) {
+    if (slot != null && otherSlot != null) {
+      final Object key = slot[0];
+      final Object otherKey = otherSlot[0];
+      if (key == null && otherKey == null) {
+        diffNodes(shift + BITS, (Node) slot[1], (Node) otherSlot[1], state);
+        return;
+      }
+      if (key != null && otherKey != null && key.equals(otherKey)) {
+        if (!valuesEqual(slot[1], otherSlot[1])) {
+          state.onChanged(key);
+        }
+        return;
+      }
+    }
+    diffByLookup(slotAsNode(slot), slotAsNode(otherSlot), state);
+  }
+
+  private static void diffByLookup(@Nullable final Node node, @Nullable final Node otherNode,
+      @NonNull final DiffState state) {
+    final Map<Object, Object> entries = new HashMap<>();
+    if (node != null) {
+      node.collect(entries);
+    }
+    final Map<Object, Object> otherEntries = new HashMap<>();
+    if (otherNode != null) {
+      otherNode.collect(otherEntries);
+    }
+    for (final Entry<Object, Object> entry : entries.entrySet()) {
+      final Object otherValue = otherEntries.get(entry.getKey());
+      if (otherValue == null) {
+        state.onRemoved(entry.getKey());
+      } else if (!valuesEqual(entry.getValue(), otherValue)) {
+        state.onChanged(entry.getKey());
+      }
+    }
+    for (final Object otherKey : otherEntries.keySet()) {
+      if (!entries.containsKey(otherKey)) {
+        state.onAdded(otherKey);
+      }
+    }
+  }
+
+  @Nullable
+  private static Node slotAsNode(@Nullable final Object[] slot) {
+    if (slot == null) {
+      return null;
+    }
+    if (slot[0] == null) {
+      return (Node) slot[1];
+    }
+    return new CollisionNode(slot[0].hashCode(), slot);
+  }
+
+  private static boolean valuesEqual(@NonNull final Object value, @NonNull final Object other) {
+    return value == other || value.equals(other);
+  }
+
+  private static int bitFor(final int hash, final int shift) {
+    return 1 << ((hash >>> shift) & MASK);
+  }
+
+  @NonNull
+  private static Object[] copyAndSet(@NonNull final Object[] array, final int index,
+      @Nullable final Object value) {
+    final Object[] result = array.clone();
+    result[index] = value;
+    return result;
+  }
+
+  /**
+   * Receives the differences between two {@link PersistentMap}s found by
+   * {@link PersistentMap#diff}.
+   */
+  public interface DiffCallback<K> {
+
+    /**
+     * Called when the given {@code key} is mapped in the newer map but not in the older map.
+     */
+    void onAdded(@NonNull K key);
+
+    /**
+     * Called when the given {@code key} is mapped in the older map but not in the newer map.
+     */
+    void onRemoved(@NonNull K key);
+
+    /**
+     * Called when the given {@code key} is mapped to unequal values in the two maps.
+     */
+    void onChanged(@NonNull K key);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static final class DiffState {
+    // If null, the state is used for an equality test, which is done at the first difference.
+    @Nullable
+    private final DiffCallback callback;
+    private boolean done;
+
+    DiffState(@Nullable final DiffCallback callback) {
+      this.callback = callback;
+    }
+
+    void onAdded(@NonNull final Object key) {
+      if (callback == null) {
+        done = true;
+      } else {
+        callback.onAdded(key);
+      }
+    }
+
+    void onRemoved(@NonNull final Object key) {
+      if (callback == null) {
+        done = true;
+      } else {
+        callback.onRemoved(key);
+      }
+    }
+
+    void onChanged(@NonNull final Object key) {
+      if (callback == null) {
+        done = true;
+      } else {
+        callback.onChanged(key);
+      }
+    }
+  }
+
+  private abstract static class Node {
+    @Nullable
+    abstract Object find(int shift, int hash, @NonNull Object key);
+
+    @NonNull
+    abstract Node put(int shift, int hash, @NonNull Object key, @NonNull Object value,
+        @NonNull boolean[] addedLeaf);
+
+    @Nullable
+    abstract Node remove(int shift, int hash, @NonNull Object key);
+
+    abstract void collect(@NonNull Map<Object, Object> entries);
+  }
+
+  /**
+   * Node with up to 32 slots, each holding either a key and a value, or null and a child node.
+   */
+  private static final class BitmapNode extends Node {
+    @NonNull
+    static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+    final int bitmap;
+    // Pairs of keys (or null) and values (or child nodes). Always of even length.
+    @NonNull
+    final Object[] array;
+
+    BitmapNode(final int bitmap, @NonNull final Object[] array) {
+      this.bitmap = bitmap;
+      this.array = array;
+    }
+
+    private int index(final int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Nullable
+    Object[] slot(final int bit) {
+      if ((bitmap & bit) == 0) {
+        return null;
+      }
+      final int index = 2 * index(bit);
+      return new Object[] {array[index], array[index + 1]};
+    }
+
+    @Nullable
+    @Override
+    Object find(final int shift, final int hash, @NonNull final Object key) {
+      final int bit = bitFor(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return null;
+      }
+      final int index = 2 * index(bit);
+      final Object slotKey = array[index];
+      final Object slotValue = array[index + 1];
+      if (slotKey == null) {
+        return ((Node) slotValue).find(shift + BITS, hash, key);
+      }
+      return key.equals(slotKey) ? slotValue : null;
+    }
+
+    @NonNull
+    @Override
+    Node put(final int shift, final int hash, @NonNull final Object key,
+        @NonNull final Object value, @NonNull final boolean[] addedLeaf) {
+      final int bit = bitFor(hash, shift);
+      final int index = 2 * index(bit);
+      if ((bitmap & bit) == 0) {
+        final Object[] newArray = new Object[array.length + 2];
+        System.arraycopy(array, 0, newArray, 0, index);
+        newArray[index] = key;
+        newArray[index + 1] = value;
+        System.arraycopy(array, index, newArray, index + 2, array.length - index);
+        addedLeaf[0] = true;
+        return new BitmapNode(bitmap | bit, newArray);
+      }
+      final Object slotKey = array[index];
+      final Object slotValue = array[index + 1];
+      if (slotKey == null) {
+        final Node newChild = ((Node) slotValue).put(shift + BITS, hash, key, value, addedLeaf);
+        return newChild == slotValue
+            ? this : new BitmapNode(bitmap, copyAndSet(array, index + 1, newChild));
+      }
+      if (key.equals(slotKey)) {
+        return value == slotValue
+            ? this : new BitmapNode(bitmap, copyAndSet(array, index + 1, value));
+      }
+      addedLeaf[0] = true;
+      final Object[] newArray = copyAndSet(array, index, null);
+      newArray[index + 1] = createNode(shift + BITS, slotKey, slotValue, hash, key, value);
+      return new BitmapNode(bitmap, newArray);
+    }
+
+    @Nullable
+    @Override
+    Node remove(final int shift, final int hash, @NonNull final Object key) {
+      final int bit = bitFor(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return this;
+      }
+      final int index = 2 * index(bit);
+      final Object slotKey = array[index];
+      final Object slotValue = array[index + 1];
+      if (slotKey == null) {
+        final Node newChild = ((Node) slotValue).remove(shift + BITS, hash, key);
+        if (newChild == slotValue) {
+          return this;
+        }
+        if (newChild != null) {
+          return new BitmapNode(bitmap, copyAndSet(array, index + 1, newChild));
+        }
+      } else if (!key.equals(slotKey)) {
+        return this;
+      }
+      if (bitmap == bit) {
+        return null;
+      }
+      final Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, index);
+      System.arraycopy(array, index + 2, newArray, index, newArray.length - index);
+      return new BitmapNode(bitmap ^ bit, newArray);
+    }
+
+    @Override
+    void collect(@NonNull final Map<Object, Object> entries) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (array[i] == null) {
+          ((Node) array[i + 1]).collect(entries);
+        } else {
+          entries.put(array[i], array[i + 1]);
+        }
+      }
+    }
+
+    @NonNull
+    private static Node createNode(final int shift, @NonNull final Object key1,
+        @NonNull final Object value1, final int hash2, @NonNull final Object key2,
+        @NonNull final Object value2) {
+      final int hash1 = key1.hashCode();
+      if (hash1 == hash2) {
+        return new CollisionNode(hash1, new Object[] {key1, value1, key2, value2});
+      }
+      final boolean[] addedLeaf = new boolean[1];
+      return EMPTY
+          .put(shift, hash1, key1, value1, addedLeaf)
+          .put(shift, hash2, key2, value2, addedLeaf);
+    }
+  }
+
+  /**
+   * Node holding entries whose keys all have the same hash code.
+   */
+  private static final class CollisionNode extends Node {
+    final int hash;
+    // Pairs of keys and values. Always of even length.
+    @NonNull
+    final Object[] array;
+
+    CollisionNode(final int hash, @NonNull final Object[] array) {
+      this.hash = hash;
+      this.array = array;
+    }
+
+    private int indexOf(@NonNull final Object key) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (key.equals(array[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Nullable
+    @Override
+    Object find(final int shift, final int hash, @NonNull final Object key) {
+      if (hash != this.hash) {
+        return null;
+      }
+      final int index = indexOf(key);
+      return index < 0 ? null : array[index + 1];
+    }
+
+    @NonNull
+    @Override
+    Node put(final int shift, final int hash, @NonNull final Object key,
+        @NonNull final Object value, @NonNull final boolean[] addedLeaf) {
+      if (hash != this.hash) {
+        // Nest this node in a bitmap node to distinguish the different hash codes.
+        return new BitmapNode(bitFor(this.hash, shift), new Object[] {null, this})
+            .put(shift, hash, key, value, addedLeaf);
+      }
+      final int index = indexOf(key);
+      if (index >= 0) {
+        return array[index + 1] == value
+            ? this : new CollisionNode(hash, copyAndSet(array, index + 1, value));
+      }
+      final Object[] newArray = new Object[array.length + 2];
+      System.arraycopy(array, 0, newArray, 0, array.length);
+      newArray[array.length] = key;
+      newArray[array.length + 1] = value;
+      addedLeaf[0] = true;
+      return new CollisionNode(hash, newArray);
+    }
+
+    @Nullable
+    @Override
+    Node remove(final int shift, final int hash, @NonNull final Object key) {
+      if (hash != this.hash) {
+        return this;
+      }
+      final int index = indexOf(key);
+      if (index < 0) {
+        return this;
+      }
+      if (array.length == 2) {
+        return null;
+      }
+      final Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, index);
+      System.arraycopy(array, index + 2, newArray, index, newArray.length - index);
+      return new CollisionNode(hash, newArray);
+    }
+
+    @Override
+    void collect(@NonNull final Map<Object, Object> entries) {
+      for (int i = 0; i < array.length; i += 2) {
+        entries.put(array[i], array[i + 1]);
+      }
+    }
+  }
+
+  private final class EntrySet extends AbstractSet<Entry<K, V>> {
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    @NonNull
+    @Override
+    public Iterator<Entry<K, V>> iterator() {
+      final Map<Object, Object> entries = new HashMap<>();
+      if (root != null) {
+        root.collect(entries);
+      }
+      final Iterator<Entry<Object, Object>> iterator = entries.entrySet().iterator();
+      return new Iterator<Entry<K, V>>() {
+        @Override
+        public boolean hasNext() {
+          return iterator.hasNext();
+        }
+
+        @Override
+        public Entry<K, V> next() {
+          final Entry<Object, Object> entry = iterator.next();
+          return new SimpleImmutableEntry<>((K) entry.getKey(), (V) entry.getValue());
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,447 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.Preconditions.checkNotNull;
+import static com.google.android.agera.Preconditions.checkState;
+
+import android.support.annotation.NonNull;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * An immutable {@link java.util.List} with efficient non-destructive updates. Each update method
+ * returns a new {@code PersistentVector} that shares all unaffected parts of its internal 32-way
+ * tree with the original vector, so keeping many versions of a large list (for example the old and
+ * the new value of a repository) costs memory proportional to the changes only.
+ *
+ * <p>Appending ({@link #plus}), replacing ({@link #with}) and removing the last item
+ * ({@link #minusLast}) are effectively constant time. Inserting or removing items anywhere else
+ * ({@link #plus(int, Object)}, {@link #minus}) rebuilds the part of the vector after the affected
+ * index, and therefore does not share that part with the original vector.
+ *
+ * <p>Because unchanged parts of two versions are the same instances, {@link #equals} and
+ * {@link #diff} between two versions of a vector skip those parts without looking at the items,
+ * and run in time proportional to the changes. This makes {@code PersistentVector} a good value
+ * type for repositories using the default {@link Object#equals}-based notification checker.
+ *
+ * <p>{@code PersistentVector} does not allow null items. The mutator methods inherited from
+ * {@link java.util.List} throw {@link UnsupportedOperationException}.
+ */
+public final class PersistentVector<T> extends AbstractList<T> implements RandomAccess {
+  private static final int BITS = 5;
+  private static final int WIDTH = 1 << BITS;
+  private static final int MASK = WIDTH - 1;
+  @NonNull
+  private static final Object[] EMPTY_NODE = new Object[0];
+  @NonNull
+  private static final PersistentVector<Object> EMPTY =
+      new PersistentVector<>(0, BITS, EMPTY_NODE, EMPTY_NODE);
+
+  private final int size;
+  private final int shift;
+  @NonNull
+  private final Object[] root;
+  @NonNull
+  private final Object[] tail;
+  private int hashCode;
+
+  /**
+   * Returns an empty {@code PersistentVector}.
+   */
+  @SuppressWarnings("unchecked")
+  @NonNull
+  public static <T> PersistentVector<T> emptyVector() {
+    return (PersistentVector<T>) EMPTY;
+  }
+
+  /**
+   * Returns a {@code PersistentVector} containing the given {@code items} in iteration order. If
+   * {@code items} is already a {@code PersistentVector}, it is returned as is.
+   */
+  @SuppressWarnings("unchecked")
+  @NonNull
+  public static <T> PersistentVector<T> copyOf(@NonNull final Iterable<? extends T> items) {
+    if (items instanceof PersistentVector) {
+      return (PersistentVector<T>) items;
+    }
+    PersistentVector<T> vector = emptyVector();
+    for (final T item : items) {
+      vector = vector.plus(item);
+    }
+    return vector;
+  }
+
+  private PersistentVector(final int size, final int shift, @NonNull final Object[] root,
+      @NonNull final Object[] tail) {
+    this.size = size;
+    this.shift = shift;
+    this.root = root;
+    this.tail = tail;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @SuppressWarnings("unchecked")
+  @NonNull
+  @Override
+  public T get(final int index) {
+    checkIndex(index, size);
+    return (T) leafFor(index)[index & MASK];
+  }
+
+  /**
+   * Returns a vector with the given {@code item} appended to the end of this vector.
+   */
+  @NonNull
+  public PersistentVector<T> plus(@NonNull final T item) {
+    checkNotNull(item);
+    final int tailLength = size - tailOffset();
+    if (tailLength < WIDTH) {
+      final Object[] newTail = Arrays.copyOf(tail, tailLength + 1);
+      newTail[tailLength] = item;
+      return new PersistentVector<>(size + 1, shift, root, newTail);
+    }
+    // The tail is full; push it into the tree and start a new tail.
+    final Object[] newRoot;
+    int newShift = shift;
+    if ((size >>> BITS) > (1 << shift)) {
+      newRoot = new Object[] {root, newPath(shift, tail)};
+      newShift += BITS;
+    } else {
+      newRoot = pushTail(shift, root, tail);
+    }
+    return new PersistentVector<>(size + 1, newShift, newRoot, new Object[] {item});
+  }
+
+  /**
+   * Returns a vector with the given {@code item} inserted at the given {@code index}. Items after
+   * the index are not shared with this vector.
+   */
+  @NonNull
+  public PersistentVector<T> plus(final int index, @NonNull final T item) {
+    checkIndex(index, size + 1);
+    if (index == size) {
+      return plus(item);
+    }
+    PersistentVector<T> result = truncate(index).plus(item);
+    for (int i = index; i < size; i++) {
+      result = result.plus(get(i));
+    }
+    return result;
+  }
+
+  /**
+   * Returns a vector with the item at the given {@code index} replaced by the given {@code item}.
+   * Returns this vector if the item at the given index is already the same instance.
+   */
+  @NonNull
+  public PersistentVector<T> with(final int index, @NonNull final T item) {
+    checkIndex(index, size);
+    checkNotNull(item);
+    if (leafFor(index)[index & MASK] == item) {
+      return this;
+    }
+    if (index >= tailOffset()) {
+      final Object[] newTail = tail.clone();
+      newTail[index & MASK] = item;
+      return new PersistentVector<>(size, shift, root, newTail);
+    }
+    return new PersistentVector<>(size, shift, replaceInTree(shift, root, index, item), tail);
+  }
+
+  /**
+   * Returns a vector without the last item of this vector.
+   *
+   * @throws IllegalStateException If this vector is empty.
+   */
+  @NonNull
+  public PersistentVector<T> minusLast() {
+    checkState(size > 0, "Cannot remove from an empty vector");
+    if (size == 1) {
+      return emptyVector();
+    }
+    final int tailLength = size - tailOffset();
+    if (tailLength > 1) {
+      return new PersistentVector<>(size - 1, shift, root, Arrays.copyOf(tail, tailLength - 1));
+    }
+    // The tail becomes empty; pull the last leaf out of the tree to be the new tail.
+    final Object[] newTail = leafFor(size - 2);
+    Object[] newRoot = popTail(shift, root);
+    int newShift = shift;
+    if (newRoot == null) {
+      newRoot = EMPTY_NODE;
+    }
+    if (shift > BITS && newRoot.length == 1) {
+      newRoot = (Object[]) newRoot[0];
+      newShift -= BITS;
+    }
+    return new PersistentVector<>(size - 1, newShift, newRoot, newTail);
+  }
+
+  /**
+   * Returns a vector with the item at the given {@code index} removed. Items after the index are
+   * not shared with this vector.
+   */
+  @NonNull
+  public PersistentVector<T> minus(final int index) {
+    checkIndex(index, size);
+    if (index == size - 1) {
+      return minusLast();
+    }
+    PersistentVector<T> result = truncate(index);
+    for (int i = index + 1; i < size; i++) {
+      result = result.plus(get(i));
+    }
+    return result;
+  }
+
+  /**
+   * Compares this vector to the {@code newer} vector and reports the differences to the given
+   * {@code callback}, in terms of changed positions followed by an insertion or removal at the end.
+   * Two items are considered unchanged if they are {@linkplain Object#equals equal}. Parts of the
+   * two vectors that are shared, because one vector is derived from the other, are skipped without
+   * comparing the items they contain.
+   *
+   * <p>The reported events are positional, and do not attempt to detect moves, insertions or
+   * removals in the middle of the vector; such changes are reported as changes of all affected
+   * positions.
+   */
+  public void diff(@NonNull final PersistentVector<? extends T> newer,
+      @NonNull final DiffCallback callback) {
+    final DiffState state = new DiffState(callback);
+    diffCommonItems(newer, state);
+    state.flush();
+    if (newer.size > size) {
+      callback.onInserted(size, newer.size - size);
+    } else if (newer.size < size) {
+      callback.onRemoved(newer.size, size - newer.size);
+    }
+  }
+
+  @Override
+  public boolean equals(final Object object) {
+    if (this == object) {
+      return true;
+    }
+    if (!(object instanceof PersistentVector)) {
+      return super.equals(object);
+    }
+    final PersistentVector<?> other = (PersistentVector<?>) object;
+    if (size != other.size) {
+      return false;
+    }
+    if (hashCode != 0 && other.hashCode != 0 && hashCode != other.hashCode) {
+      return false;
+    }
+    final DiffState state = new DiffState(null);
+    diffCommonItems(other, state);
+    return !state.done;
+  }
+
+  @Override
+  public int hashCode() {
+    int hashCode = this.hashCode;
+    if (hashCode == 0) {
+      hashCode = super.hashCode();
+      this.hashCode = hashCode;
+    }
+    return hashCode;
+  }
+
+  private int tailOffset() {
+    return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+  }
+
+  @NonNull
+  private Object[] leafFor(final int index) {
+    if (index >= tailOffset()) {
+      return tail;
+    }
+    Object[] node = root;
+    for (int level = shift; level > 0; level -= BITS) {
+      node = (Object[]) node[(index >>> level) & MASK];
+    }
+    return node;
+  }
+
+  @NonNull
+  private Object[] pushTail(final int level, @NonNull final Object[] parent,
+      @NonNull final Object[] tailNode) {
+    final int subIndex = ((size - 1) >>> level) & MASK;
+    final Object[] result = Arrays.copyOf(parent, Math.max(parent.length, subIndex + 1));
+    if (level == BITS) {
+      result[subIndex] = tailNode;
+    } else {
+      final Object[] child = subIndex < parent.length ? (Object[]) parent[subIndex] : null;
+      result[subIndex] = child != null
+          ? pushTail(level - BITS, child, tailNode)
+          : newPath(level - BITS, tailNode);
+    }
+    return result;
+  }
+
+  @NonNull
+  private static Object[] newPath(final int level, @NonNull final Object[] node) {
+    return level == 0 ? node : new Object[] {newPath(level - BITS, node)};
+  }
+
+  @NonNull
+  private static Object[] replaceInTree(final int level, @NonNull final Object[] node,
+      final int index, @NonNull final Object item) {
+    final Object[] result = node.clone();
+    if (level == 0) {
+      result[index & MASK] = item;
+    } else {
+      final int subIndex = (index >>> level) & MASK;
+      result[subIndex] = replaceInTree(level - BITS, (Object[]) node[subIndex], index, item);
+    }
+    return result;
+  }
+
+  private Object[] popTail(final int level, @NonNull final Object[] node) {
+    final int subIndex = ((size - 2) >>> level) & MASK;
+    if (level > BITS) {
+      final Object[] newChild = popTail(level - BITS, (Object[]) node[subIndex]);
+      if (newChild == null) {
+        return subIndex == 0 ? null : Arrays.copyOf(node, subIndex);
+      }
+      final Object[] result = node.clone();
+      result[subIndex] = newChild;
+      return result;
+    }
+    return subIndex == 0 ? null : Arrays.copyOf(node, subIndex);
+  }
+
+  @NonNull
+  private PersistentVector<T> truncate(final int newSize) {
+    PersistentVector<T> result = this;
+    while (result.size > newSize) {
+      result = result.minusLast();
+    }
+    return result;
+  }
+
+  private void diffCommonItems(@NonNull final PersistentVector<?> other,
+      @NonNull final DiffState state) {
+    final int commonSize = Math.min(size, other.size);
+    final int commonTreeSize = Math.min(tailOffset(), other.tailOffset());
+    int index = 0;
+    if (shift == other.shift) {
+      diffNodes(shift, root, other.root, 0, commonTreeSize, state);
+      index = commonTreeSize;
+    }
+    while (index < commonSize && !state.done) {
+      final Object[] leaf = leafFor(index);
+      final Object[] otherLeaf = other.leafFor(index);
+      final int leafEnd = Math.min(commonSize, (index | MASK) + 1);
+      if (leaf == otherLeaf) {
+        index = leafEnd;
+        continue;
+      }
+      for (; index < leafEnd; index++) {
+        state.compare(index, leaf[index & MASK], otherLeaf[index & MASK]);
+      }
+    }
+  }
+
+  private static void diffNodes(final int level, @NonNull final Object[] node,
+      @NonNull final Object[] otherNode, final int offset, final int limit,
+      @NonNull final DiffState state) {
+    if (node == otherNode || offset >= limit || state.done) {
+      return;
+    }
+    if (level == 0) {
+      final int end = Math.min(limit - offset, WIDTH);
+      for (int i = 0; i < end; i++) {
+        state.compare(offset + i, node[i], otherNode[i]);
+      }
+      return;
+    }
+    final int childCount = Math.min(node.length, otherNode.length);
+    for (int i = 0; i < childCount; i++) {
+      diffNodes(level - BITS, (Object[]) node[i], (Object[]) otherNode[i],
+          offset + (i << level), limit, state);
+    }
+  }
+
+  private static void checkIndex(final int index, final int size) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+  }
+
+  /**
+   * Receives the differences between two {@link PersistentVector}s found by
+   * {@link PersistentVector#diff}.
+   */
+  public interface DiffCallback {
+
+    /**
+     * Called when {@code count} items have been inserted at the given {@code position}.
+     */
+    void onInserted(int position, int count);
+
+    /**
+     * Called when {@code count} items have been removed from the given {@code position}.
+     */
+    void onRemoved(int position, int count);
+
+    /**
+     * Called when {@code count} items starting from the given {@code position} have changed.
+     */
+    void onChanged(int position, int count);
+  }
+
+  private static final class DiffState {
+    // If null, the state is used for an equality test, which is done at the first difference.
+    private final DiffCallback callback;
+    private boolean done;
+    private int runStart = -1;
+    private int runEnd = -1;
+
+    DiffState(final DiffCallback callback) {
+      this.callback = callback;
+    }
+
+    void compare(final int index, @NonNull final Object item, @NonNull final Object otherItem) {
+      if (item == otherItem || item.equals(otherItem)) {
+        return;
+      }
+      if (callback == null) {
+        done = true;
+        return;
+      }
+      if (index != runEnd) {
+        flush();
+        runStart = index;
+      }
+      runEnd = index + 1;
+    }
+
+    void flush() {
+      if (runStart >= 0) {
+        callback.onChanged(runStart, runEnd - runStart);
+        runStart = -1;
+        runEnd = -1;
+      }
+    }
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Determines an output value based on an input value, possibly reusing an output value that is no
+ * longer used, such as a large buffer or bitmap, instead of allocating a new one. See
+ * {@link RepositoryCompilerStates.RSyncFlow#transformRecycling}.
+ */
+public interface RecyclingFunction<TFrom, TTo> {
+
+  /**
+   * Returns the result of applying this function to {@code input}.
+   *
+   * @param recycled A previous output of this function that is no longer used, to be reused as
+   *     the output if suitable, or null if there is none. If the returned value is not this
+   *     instance, the instance is sent to the discarded values disposer.
+   */
+  @NonNull
+  TTo apply(@NonNull TFrom input, @Nullable TTo recycled);
+}
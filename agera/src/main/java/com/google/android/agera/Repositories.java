@@ -17,6 +17,7 @@ package com.google.android.agera;
 
 import static com.google.android.agera.Preconditions.checkNotNull;
 
+import android.content.ComponentCallbacks2;
 import android.os.Looper;
 import android.support.annotation.NonNull;
 import com.google.android.agera.RepositoryCompilerStates.REventSource;
@@ -45,6 +46,16 @@ public final class Repositories {
     return RepositoryCompiler.repositoryWithInitialValue(initialValue);
   }
 
+  /**
+   * Signals memory pressure to the compiled repositories configured with
+   * {@link RepositoryCompilerStates.RConfig#releaseValueOnTrimMemory(int)}. Call this from
+   * {@link ComponentCallbacks2#onTrimMemory(int)}, typically that of the application, with the
+   * given {@code level}.
+   */
+  public static void onTrimMemory(final int level) {
+    CompiledRepository.trimMemory(level);
+  }
+
   /**
    * Returns a {@link MutableRepository} with the given {@code object} as the initial data.
    */
@@ -53,6 +64,30 @@ public final class Repositories {
     return new SimpleRepository<>(object);
   }
 
+  /**
+   * Returns a {@link MutableIntRepository} with the given {@code value} as the initial data.
+   */
+  @NonNull
+  public static MutableIntRepository mutableIntRepository(final int value) {
+    return new SimpleIntRepository(value);
+  }
+
+  /**
+   * Returns a {@link MutableLongRepository} with the given {@code value} as the initial data.
+   */
+  @NonNull
+  public static MutableLongRepository mutableLongRepository(final long value) {
+    return new SimpleLongRepository(value);
+  }
+
+  /**
+   * Returns a {@link MutableDoubleRepository} with the given {@code value} as the initial data.
+   */
+  @NonNull
+  public static MutableDoubleRepository mutableDoubleRepository(final double value) {
+    return new SimpleDoubleRepository(value);
+  }
+
   private static final class SimpleRepository<T> extends BaseObservable
       implements MutableRepository<T> {
     @NonNull
@@ -81,5 +116,123 @@ public final class Repositories {
     }
   }
 
+  private static final class SimpleIntRepository extends BaseObservable
+      implements MutableIntRepository {
+    private int value;
+
+    SimpleIntRepository(final int value) {
+      this.value = value;
+    }
+
+    @Override
+    public synchronized int getAsInt() {
+      return value;
+    }
+
+    @Override
+    public void accept(final int value) {
+      synchronized (this) {
+        if (value == this.value) {
+          return;
+        }
+        this.value = value;
+      }
+      dispatchUpdate();
+    }
+
+    @Override
+    public int updateAndGet(@NonNull final IntFunction function) {
+      final int newValue;
+      synchronized (this) {
+        newValue = function.apply(value);
+        if (newValue == value) {
+          return newValue;
+        }
+        value = newValue;
+      }
+      dispatchUpdate();
+      return newValue;
+    }
+  }
+
+  private static final class SimpleLongRepository extends BaseObservable
+      implements MutableLongRepository {
+    private long value;
+
+    SimpleLongRepository(final long value) {
+      this.value = value;
+    }
+
+    @Override
+    public synchronized long getAsLong() {
+      return value;
+    }
+
+    @Override
+    public void accept(final long value) {
+      synchronized (this) {
+        if (value == this.value) {
+          return;
+        }
+        this.value = value;
+      }
+      dispatchUpdate();
+    }
+
+    @Override
+    public long updateAndGet(@NonNull final LongFunction function) {
+      final long newValue;
+      synchronized (this) {
+        newValue = function.apply(value);
+        if (newValue == value) {
+          return newValue;
+        }
+        value = newValue;
+      }
+      dispatchUpdate();
+      return newValue;
+    }
+  }
+
+  private static final class SimpleDoubleRepository extends BaseObservable
+      implements MutableDoubleRepository {
+    private double value;
+
+    SimpleDoubleRepository(final double value) {
+      this.value = value;
+    }
+
+    @Override
+    public synchronized double getAsDouble() {
+      return value;
+    }
+
+    @Override
+    public void accept(final double value) {
+      synchronized (this) {
+        // Same semantics as Double.equals(): NaN equals NaN, but 0.0 does not equal -0.0.
+        if (Double.doubleToLongBits(value) == Double.doubleToLongBits(this.value)) {
+          return;
+        }
+        this.value = value;
+      }
+      dispatchUpdate();
+    }
+
+    @Override
+    public double updateAndGet(@NonNull final DoubleFunction function) {
+      final double newValue;
+      synchronized (this) {
+        newValue = function.apply(value);
+        if (Double.doubleToLongBits(newValue) == Double.doubleToLongBits(value)) {
+          return newValue;
+        }
+        value = newValue;
+      }
+      dispatchUpdate();
+      return newValue;
+    }
+  }
+
   private Repositories() {}
 }
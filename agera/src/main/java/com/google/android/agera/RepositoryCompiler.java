@@ -16,22 +16,37 @@
 package com.google.android.agera;
 
 import static com.google.android.agera.Common.NULL_OPERATOR;
+import static com.google.android.agera.CompiledRepository.BLOCKING_LAZY;
+import static com.google.android.agera.CompiledRepository.FREQUENCY_PER_FRAME;
+import static com.google.android.agera.CompiledRepository.NO_PRIORITY;
+import static com.google.android.agera.CompiledRepository.NO_TRIM_MEMORY_LEVEL;
 import static com.google.android.agera.CompiledRepository.addBindWith;
 import static com.google.android.agera.CompiledRepository.addCheck;
 import static com.google.android.agera.CompiledRepository.addEnd;
 import static com.google.android.agera.CompiledRepository.addFilterFailure;
 import static com.google.android.agera.CompiledRepository.addFilterSuccess;
 import static com.google.android.agera.CompiledRepository.addGetFrom;
+import static com.google.android.agera.CompiledRepository.addGetFromAsync;
 import static com.google.android.agera.CompiledRepository.addGoLazy;
+import static com.google.android.agera.CompiledRepository.addMemoizedGetFrom;
 import static com.google.android.agera.CompiledRepository.addGoTo;
 import static com.google.android.agera.CompiledRepository.addMergeIn;
+import static com.google.android.agera.CompiledRepository.addMergeInParallel;
+import static com.google.android.agera.CompiledRepository.addPublishIntermediate;
+import static com.google.android.agera.CompiledRepository.addRetryCheck;
+import static com.google.android.agera.CompiledRepository.addRetryPoint;
 import static com.google.android.agera.CompiledRepository.addSendTo;
+import static com.google.android.agera.CompiledRepository.addTimeout;
 import static com.google.android.agera.CompiledRepository.addTransform;
+import static com.google.android.agera.CompiledRepository.addTransformRecycling;
 import static com.google.android.agera.CompiledRepository.compiledRepository;
+import static com.google.android.agera.FrameScheduler.FALLBACK_FRAME_INTERVAL_MILLIS;
 import static com.google.android.agera.Functions.identityFunction;
 import static com.google.android.agera.Mergers.objectsUnequal;
+import static com.google.android.agera.Preconditions.checkArgument;
 import static com.google.android.agera.Preconditions.checkNotNull;
 import static com.google.android.agera.Preconditions.checkState;
+import static com.google.android.agera.SnapshotPersistence.WRITE_DELAY_MILLIS;
 
 import android.os.Looper;
 import android.support.annotation.IntDef;
@@ -40,6 +55,7 @@ import android.support.annotation.Nullable;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executor;
 
 @SuppressWarnings({"unchecked, rawtypes"})
@@ -74,7 +90,7 @@ final class RepositoryCompiler implements
 
   @Retention(RetentionPolicy.SOURCE)
   @IntDef({NOTHING, FIRST_EVENT_SOURCE, FREQUENCY_OR_MORE_EVENT_SOURCE, FLOW,
-      TERMINATE_THEN_FLOW, TERMINATE_THEN_END, CONFIG})
+      TERMINATE_THEN_FLOW, TERMINATE_THEN_END, CONFIG, TIMED_FLOW})
   private @interface Expect {}
 
   private static final int NOTHING = 0;
@@ -84,16 +100,26 @@ final class RepositoryCompiler implements
   private static final int TERMINATE_THEN_FLOW = 4;
   private static final int TERMINATE_THEN_END = 5;
   private static final int CONFIG = 6;
+  private static final int TIMED_FLOW = 7;
 
   private Object initialValue;
   private final ArrayList<Observable> eventSources = new ArrayList<>();
   private int frequency;
+  private float targetCpuFraction;
   private final ArrayList<Object> directives = new ArrayList<>();
   // 2x fields below: store caseExtractor and casePredicate for check(caseExtractor, casePredicate)
   // for use in terminate(); if null then terminate() is terminating an attempt directive.
   private Function caseExtractor;
   private Predicate casePredicate;
   private boolean goLazyUsed;
+  // 3x fields below: index at which the last attempt directive was added, whether it is already
+  // retried, and the executor of the last goTo() directive, for use in retry().
+  private int attemptIndex = -1;
+  private boolean attemptRetried;
+  @Nullable
+  private Executor lastGoToExecutor;
+  // Time limit of the next directive, as given to withTimeout().
+  private int timeoutMillis;
   private Merger notifyChecker = objectsUnequal();
   @RepositoryConfig
   private int deactivationConfig;
@@ -101,6 +127,10 @@ final class RepositoryCompiler implements
   private int concurrentUpdateConfig;
   @NonNull
   private Receiver discardedValueDisposer = NULL_OPERATOR;
+  @Nullable
+  private SnapshotPersistence snapshotPersistence;
+  private int priority = NO_PRIORITY;
+  private int trimMemoryLevel = NO_TRIM_MEMORY_LEVEL;
 
   @Expect
   private int expect;
@@ -159,6 +189,24 @@ final class RepositoryCompiler implements
     return onUpdatesPer(0);
   }
 
+  @NonNull
+  @Override
+  public RepositoryCompiler onUpdatesPerFrame() {
+    onUpdatesPer(0);
+    frequency = FREQUENCY_PER_FRAME;
+    return this;
+  }
+
+  @NonNull
+  @Override
+  public RepositoryCompiler onUpdatesAdaptive(final float targetCpuFraction) {
+    checkArgument(targetCpuFraction > 0 && targetCpuFraction <= 1,
+        "Target CPU fraction must be in (0, 1]");
+    onUpdatesPer(0);
+    this.targetCpuFraction = targetCpuFraction;
+    return this;
+  }
+
   //endregion RFrequency
 
   //region RSyncFlow
@@ -166,16 +214,26 @@ final class RepositoryCompiler implements
   @NonNull
   @Override
   public RepositoryCompiler getFrom(@NonNull final Supplier supplier) {
-    checkExpect(FLOW);
+    checkExpect(FLOW, TIMED_FLOW);
+    maybeAddTimeout();
     addGetFrom(supplier, directives);
     return this;
   }
 
+  @NonNull
+  @Override
+  public RepositoryCompiler memoizedGetFrom(@NonNull final Supplier supplier) {
+    checkExpect(FLOW);
+    addMemoizedGetFrom(supplier, directives);
+    return this;
+  }
+
   @NonNull
   @Override
   public RepositoryCompiler mergeIn(@NonNull final Supplier supplier,
       @NonNull final Merger merger) {
-    checkExpect(FLOW);
+    checkExpect(FLOW, TIMED_FLOW);
+    maybeAddTimeout();
     addMergeIn(supplier, merger, directives);
     return this;
   }
@@ -183,11 +241,20 @@ final class RepositoryCompiler implements
   @NonNull
   @Override
   public RepositoryCompiler transform(@NonNull final Function function) {
-    checkExpect(FLOW);
+    checkExpect(FLOW, TIMED_FLOW);
+    maybeAddTimeout();
     addTransform(function, directives);
     return this;
   }
 
+  @NonNull
+  @Override
+  public RepositoryCompiler transformRecycling(@NonNull final RecyclingFunction function) {
+    checkExpect(FLOW);
+    addTransformRecycling(function, directives);
+    return this;
+  }
+
   @NonNull
   @Override
   public RepositoryCompiler check(@NonNull final Predicate predicate) {
@@ -262,6 +329,7 @@ final class RepositoryCompiler implements
   @NonNull
   @Override
   public RepositoryCompiler attemptGetFrom(@NonNull final Supplier attemptSupplier) {
+    startAttempt();
     getFrom(attemptSupplier);
     expect = TERMINATE_THEN_FLOW;
     return this;
@@ -271,6 +339,7 @@ final class RepositoryCompiler implements
   @Override
   public RepositoryCompiler attemptMergeIn(
       @NonNull final Supplier supplier, @NonNull final Merger attemptMerger) {
+    startAttempt();
     mergeIn(supplier, attemptMerger);
     expect = TERMINATE_THEN_FLOW;
     return this;
@@ -279,6 +348,7 @@ final class RepositoryCompiler implements
   @NonNull
   @Override
   public RepositoryCompiler attemptTransform(@NonNull final Function attemptFunction) {
+    startAttempt();
     transform(attemptFunction);
     expect = TERMINATE_THEN_FLOW;
     return this;
@@ -287,6 +357,7 @@ final class RepositoryCompiler implements
   @NonNull
   @Override
   public RepositoryCompiler thenAttemptGetFrom(@NonNull final Supplier attemptSupplier) {
+    startAttempt();
     getFrom(attemptSupplier);
     expect = TERMINATE_THEN_END;
     return this;
@@ -296,6 +367,7 @@ final class RepositoryCompiler implements
   @Override
   public RepositoryCompiler thenAttemptMergeIn(
       @NonNull final Supplier supplier, @NonNull final Merger attemptMerger) {
+    startAttempt();
     mergeIn(supplier, attemptMerger);
     expect = TERMINATE_THEN_END;
     return this;
@@ -304,11 +376,27 @@ final class RepositoryCompiler implements
   @NonNull
   @Override
   public RepositoryCompiler thenAttemptTransform(@NonNull final Function attemptFunction) {
+    startAttempt();
     transform(attemptFunction);
     expect = TERMINATE_THEN_END;
     return this;
   }
 
+  private void startAttempt() {
+    attemptIndex = directives.size();
+    attemptRetried = false;
+  }
+
+  private void maybeAddTimeout() {
+    if (expect == TIMED_FLOW) {
+      // startAttempt() has just recorded the current index if this is an attempt directive.
+      final boolean attempt = attemptIndex == directives.size();
+      addTimeout(timeoutMillis, attempt, lastGoToExecutor, directives);
+      timeoutMillis = 0;
+      expect = FLOW;
+    }
+  }
+
   //endregion RSyncFlow
 
   //region RFlow
@@ -319,6 +407,47 @@ final class RepositoryCompiler implements
     checkExpect(FLOW);
     checkGoLazyUnused();
     addGoTo(executor, directives);
+    lastGoToExecutor = executor;
+    return this;
+  }
+
+  @NonNull
+  @Override
+  public RepositoryCompiler mergeInParallel(@NonNull final Executor executor,
+      @NonNull final List suppliers, @NonNull final Merger merger) {
+    checkExpect(FLOW);
+    checkGoLazyUnused();
+    addMergeInParallel(executor, suppliers, merger, directives);
+    return this;
+  }
+
+  @NonNull
+  @Override
+  public RepositoryCompiler getFromAsync(@NonNull final AsyncSupplier asyncSupplier) {
+    checkExpect(FLOW);
+    checkGoLazyUnused();
+    addGetFromAsync(asyncSupplier, directives);
+    return this;
+  }
+
+  @NonNull
+  @Override
+  public RepositoryCompiler publishIntermediate(@NonNull final Function function) {
+    checkExpect(FLOW);
+    checkGoLazyUnused();
+    addPublishIntermediate(checkNotNull(function),
+        frequency == FREQUENCY_PER_FRAME ? FALLBACK_FRAME_INTERVAL_MILLIS : frequency, directives);
+    return this;
+  }
+
+  @NonNull
+  @Override
+  public RepositoryCompiler withTimeout(final int millis) {
+    checkExpect(FLOW);
+    checkGoLazyUnused();
+    checkArgument(millis > 0, "Timeout must be positive");
+    timeoutMillis = millis;
+    expect = TIMED_FLOW;
     return this;
   }
 
@@ -327,7 +456,18 @@ final class RepositoryCompiler implements
   public RepositoryCompiler goLazy() {
     checkExpect(FLOW);
     checkGoLazyUnused();
-    addGoLazy(directives);
+    addGoLazy(BLOCKING_LAZY, directives);
+    goLazyUsed = true;
+    return this;
+  }
+
+  @NonNull
+  @Override
+  public RepositoryCompiler goLazy(final int maxWaitMillis) {
+    checkArgument(maxWaitMillis >= 0, "Max wait must not be negative");
+    checkExpect(FLOW);
+    checkGoLazyUnused();
+    addGoLazy(maxWaitMillis, directives);
     goLazyUsed = true;
     return this;
   }
@@ -350,6 +490,23 @@ final class RepositoryCompiler implements
     return this;
   }
 
+  @NonNull
+  @Override
+  public RepositoryCompiler retry(@NonNull final RetryPolicy retryPolicy) {
+    checkExpect(TERMINATE_THEN_FLOW, TERMINATE_THEN_END);
+    checkState(caseExtractor == null, "retry() is only allowed after an attempt directive");
+    checkState(!attemptRetried, "retry() is already specified for this attempt directive");
+    checkGoLazyUnused();
+    final int retryPointIndex = attemptIndex;
+    // The retry point goes before the attempt directive, to keep the input of the attempt; adding
+    // to the empty sublist at its index inserts it there.
+    addRetryPoint(retryPolicy, lastGoToExecutor,
+        directives.subList(retryPointIndex, retryPointIndex));
+    addRetryCheck(retryPointIndex, directives);
+    attemptRetried = true;
+    return this;
+  }
+
   private void terminate(@Nullable final Function valueFunction) {
     checkExpect(TERMINATE_THEN_FLOW, TERMINATE_THEN_END);
     if (caseExtractor != null) {
@@ -411,10 +568,48 @@ final class RepositoryCompiler implements
     return this;
   }
 
+  @NonNull
+  @Override
+  public RepositoryCompiler persistTo(@NonNull final SnapshotStore store,
+      @NonNull final SnapshotCodec codec) {
+    checkExpect(CONFIG);
+    snapshotPersistence = new SnapshotPersistence(checkNotNull(store), checkNotNull(codec),
+        WRITE_DELAY_MILLIS);
+    return this;
+  }
+
+  @NonNull
+  @Override
+  public RepositoryCompiler priority(@FlowPriority final int priority) {
+    checkExpect(CONFIG);
+    checkArgument(priority == FlowPriority.BACKGROUND || priority == FlowPriority.VISIBLE,
+        "Unknown priority");
+    this.priority = priority;
+    return this;
+  }
+
+  @NonNull
+  @Override
+  public RepositoryCompiler releaseValueOnTrimMemory(final int level) {
+    checkExpect(CONFIG);
+    checkArgument(level > NO_TRIM_MEMORY_LEVEL, "Trim memory level must be positive");
+    this.trimMemoryLevel = level;
+    return this;
+  }
+
   @NonNull
   @Override
   public Repository compile() {
-    Repository repository = compileRepositoryAndReset();
+    Repository repository = compileRepositoryAndReset(0);
+    recycle(this);
+    return repository;
+  }
+
+  @NonNull
+  @Override
+  public RevalidatingRepository compileStaleWhileRevalidate(final int maxAgeMillis) {
+    checkArgument(maxAgeMillis > 0, "Max age must be positive");
+    RevalidatingRepository repository = compileRepositoryAndReset(maxAgeMillis);
     recycle(this);
     return repository;
   }
@@ -422,28 +617,68 @@ final class RepositoryCompiler implements
   @NonNull
   @Override
   public RepositoryCompiler compileIntoRepositoryWithInitialValue(@NonNull final Object value) {
-    Repository repository = compileRepositoryAndReset();
+    Repository repository = compileRepositoryAndReset(0);
     // Don't recycle, instead sneak in the first directive and start the second repository
     addGetFrom(repository, directives);
     return start(value).observe(repository);
   }
 
   @NonNull
-  private Repository compileRepositoryAndReset() {
+  @Override
+  public RepositoryTemplate compileTemplate() {
+    return compileTemplateAndRecycle(0);
+  }
+
+  @NonNull
+  @Override
+  public RepositoryTemplate compileStaleWhileRevalidateTemplate(final int maxAgeMillis) {
+    checkArgument(maxAgeMillis > 0, "Max age must be positive");
+    return compileTemplateAndRecycle(maxAgeMillis);
+  }
+
+  @NonNull
+  private RepositoryTemplate compileTemplateAndRecycle(final int maxAgeMillis) {
+    checkExpect(CONFIG);
+    checkState(snapshotPersistence == null, "Repository templates cannot persist their values");
+    final RepositoryTemplate template = new RepositoryTemplate(initialValue, eventSources,
+        frequency, targetCpuFraction, maxAgeMillis, directives, notifyChecker,
+        concurrentUpdateConfig, deactivationConfig, discardedValueDisposer, priority,
+        trimMemoryLevel);
+    reset();
+    recycle(this);
+    return template;
+  }
+
+  @NonNull
+  private RevalidatingRepository compileRepositoryAndReset(final int maxAgeMillis) {
     checkExpect(CONFIG);
-    Repository repository = compiledRepository(initialValue, eventSources, frequency, directives,
-        notifyChecker, concurrentUpdateConfig, deactivationConfig, discardedValueDisposer);
+    RevalidatingRepository repository = compiledRepository(initialValue, eventSources, frequency,
+        targetCpuFraction, maxAgeMillis, directives, notifyChecker, concurrentUpdateConfig,
+        deactivationConfig, discardedValueDisposer, snapshotPersistence, priority,
+        trimMemoryLevel);
+    reset();
+    return repository;
+  }
+
+  private void reset() {
     expect = NOTHING;
     initialValue = null;
     eventSources.clear();
     frequency = 0;
+    targetCpuFraction = 0;
     directives.clear();
     goLazyUsed = false;
+    attemptIndex = -1;
+    attemptRetried = false;
+    lastGoToExecutor = null;
+    timeoutMillis = 0;
     notifyChecker = objectsUnequal();
     deactivationConfig = RepositoryConfig.CONTINUE_FLOW;
     concurrentUpdateConfig = RepositoryConfig.CONTINUE_FLOW;
     discardedValueDisposer = NULL_OPERATOR;
-    return repository;
+    snapshotPersistence = null;
+    priority = NO_PRIORITY;
+    trimMemoryLevel = NO_TRIM_MEMORY_LEVEL;
   }
 
   //endregion RConfig
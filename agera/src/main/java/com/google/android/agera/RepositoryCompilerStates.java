@@ -15,8 +15,11 @@
  */
 package com.google.android.agera;
 
+import android.content.ComponentCallbacks2;
 import android.support.annotation.NonNull;
 import java.io.Closeable;
+import java.lang.ref.SoftReference;
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 
@@ -27,11 +30,13 @@ import java.util.concurrent.RejectedExecutionException;
  * <h3>List of directives</h3>
  *
  * <b>Variables:</b> s: supplier; fs: fallible supplier; m: merger; fm: fallible merger;
- * f: function; ff: fallible function; p: predicate; r: receiver; b: binder; e: executor; v: value.
+ * f: function; ff: fallible function; rf: recycling function; p: predicate; r: receiver;
+ * b: binder; e: executor; v: value.
  * <ul>
  *   <li>({@link RFlow#thenGetFrom then}){@link RFlow#getFrom GetFrom(s)}
  *   <li>({@link RFlow#thenMergeIn then}){@link RFlow#mergeIn MergeIn(s, m)}
  *   <li>({@link RFlow#thenTransform then}){@link RFlow#transform Transform(f)}
+ *   <li>{@link RFlow#transformRecycling transformRecycling(rf)}
  *   <li>({@link RFlow#thenAttemptGetFrom then}){@link
  *       RFlow#attemptGetFrom AttemptGetFrom(fs)}.<i>term</i>
  *   <li>({@link RFlow#thenAttemptMergeIn then}){@link
@@ -42,6 +47,7 @@ import java.util.concurrent.RejectedExecutionException;
  *   <li>{@link RFlow#check(Function, Predicate) check(f, p)}.<i>term</i>
  *   <li>{@link RFlow#sendTo sendTo(r)}
  *   <li>{@link RFlow#bindWith bindWith(s, b)}
+ *   <li>{@link RFlow#publishIntermediate publishIntermediate(f)}
  *   <li>{@link RFlow#goTo goTo(e)}
  *   <li>{@link RFlow#goLazy goLazy()}
  *   <li>{@link RFlow#thenSkip thenSkip()}
@@ -100,6 +106,36 @@ public interface RepositoryCompilerStates {
      */
     @NonNull
     RFlow<TVal, TStart, ?> onUpdatesPerLoop();
+
+    /**
+     * Specifies that multiple updates from the event sources per display frame should start only
+     * one data processing flow, which is started at the beginning of the frame following the
+     * updates. This is for repositories whose values are only consumed when drawing, such as those
+     * bound to views, so that updates during scrolling and animations do not start flows whose
+     * results are never drawn.
+     *
+     * @see Observables#perFrameObservable(Observable...)
+     */
+    @NonNull
+    RFlow<TVal, TStart, ?> onUpdatesPerFrame();
+
+    /**
+     * Specifies that the minimum timeout between data processing flows adapts to the cost of the
+     * flow, so that the flows occupy no more than {@code targetCpuFraction} of the time of the
+     * threads running them. The duration of each completed flow is measured, and the timeout is
+     * set to the smoothed duration divided by {@code targetCpuFraction}; this widens the timeout
+     * when the flows get expensive and shrinks it when they get cheap. As with
+     * {@link #onUpdatesPer(int)}, flows will not be started more frequent than if
+     * {@link #onUpdatesPerLoop()} were used.
+     *
+     * <p>The duration of a flow is the time spent running its directives on all threads, excluding
+     * the time the flow spends waiting for an {@link Executor} of a {@code goTo} directive.
+     *
+     * @param targetCpuFraction The share of thread time the flows may use; greater than 0 and at
+     *     most 1.
+     */
+    @NonNull
+    RFlow<TVal, TStart, ?> onUpdatesAdaptive(float targetCpuFraction);
   }
 
   /**
@@ -116,6 +152,10 @@ public interface RepositoryCompilerStates {
     @Override
     <TCur> RFlow<TVal, TCur, ?> getFrom(@NonNull Supplier<TCur> supplier);
 
+    @NonNull
+    @Override
+    <TCur> RFlow<TVal, TCur, ?> memoizedGetFrom(@NonNull Supplier<TCur> supplier);
+
     @NonNull
     @Override
     <TCur> RTermination<TVal, Throwable, RFlow<TVal, TCur, ?>> attemptGetFrom(
@@ -150,6 +190,11 @@ public interface RepositoryCompilerStates {
     @Override
     <TCur> RFlow<TVal, TCur, ?> transform(@NonNull Function<? super TPre, TCur> function);
 
+    @NonNull
+    @Override
+    <TCur> RFlow<TVal, TCur, ?> transformRecycling(
+        @NonNull RecyclingFunction<? super TPre, TCur> function);
+
     @NonNull
     @Override
     <TCur> RTermination<TVal, Throwable, RFlow<TVal, TCur, ?>> attemptTransform(
@@ -176,6 +221,84 @@ public interface RepositoryCompilerStates {
     @NonNull
     TSelf goTo(@NonNull Executor executor);
 
+    /**
+     * Take the input value and the values newly obtained from all the given {@code suppliers},
+     * merge them using the given merger, and use the resulting value as the output value. The
+     * values are given to the merger in the order of the {@code suppliers}.
+     *
+     * <p>The suppliers are submitted to the given {@code executor} to be called concurrently, and
+     * the thread running the flow waits for all of them to complete. While waiting, that thread
+     * calls any supplier the executor has not yet started, so the directive completes even if the
+     * executor is busy or is the one running the flow. The latency of this directive is therefore
+     * that of the slowest supplier rather than the sum of all of them.
+     *
+     * <p>If the flow is cancelled with {@link RepositoryConfig#SEND_INTERRUPT} while waiting, the
+     * threads still calling the suppliers are interrupted, the suppliers not yet started are
+     * skipped and the flow ends without calling the merger. If a supplier throws, the exception is
+     * rethrown on the thread running the flow once all suppliers have completed.
+     */
+    @NonNull
+    <TAdd, TCur> RFlow<TVal, TCur, ?> mergeInParallel(@NonNull Executor executor,
+        @NonNull List<? extends Supplier<? extends TAdd>> suppliers,
+        @NonNull Merger<? super TPre, ? super List<TAdd>, TCur> merger);
+
+    /**
+     * Ignore the input value, and use the value delivered by the given asynchronous supplier as the
+     * output value. The data processing flow is suspended until the value is delivered, without
+     * blocking any thread, and then continues on the thread delivering the value, as if it had
+     * been a {@link #goTo(Executor)} directive.
+     *
+     * <p>If the flow is cancelled while suspended here, the cancellation is acknowledged without
+     * waiting for the value, and the value is sent to the discarded values disposer when it is
+     * delivered. Any value delivered more than once per flow is discarded in the same way.
+     */
+    @NonNull
+    <TCur> RFlow<TVal, TCur, ?> getFromAsync(@NonNull AsyncSupplier<TCur> asyncSupplier);
+
+    /**
+     * Limit the time the next directive may take to the given number of milliseconds. The next
+     * directive must be a {@code getFrom}, {@code mergeIn} or {@code transform} directive, or one
+     * of their {@code attempt} or {@code then} variants.
+     *
+     * <p>When the time is up, the thread running the directive is interrupted, and the directive is
+     * abandoned: any value it produces later is sent to the discarded values disposer. For an
+     * attempt directive, the flow continues with a {@link Result#failure} of a
+     * {@link java.util.concurrent.TimeoutException}, which is handled by the termination clause
+     * (and {@code retry}, if specified), on the executor of the last {@link #goTo(Executor)}
+     * directive or on the worker looper thread if there is none. For other directives, the flow
+     * ends without updating the repository value.
+     *
+     * <p>The time limit is enforced from the worker looper thread, so while the directive runs on
+     * that thread, it cannot be abandoned; a value it produces after the time limit is still
+     * treated as above. This directive cannot be used after {@link #goLazy()}.
+     */
+    @NonNull
+    TSelf withTimeout(int millis);
+
+    /**
+     * Use the given function to compute a value from the input value, update the repository value
+     * with it and notify the registered {@link Updatable}s if the
+     * {@linkplain RConfig#notifyIf notify checker} allows, and then pass on the input value as the
+     * output of this directive, not modifying it. This lets a progressive flow, for example one
+     * loading the first page of the data before the rest, show partial results before it ends.
+     *
+     * <p>The publications are throttled by the frequency of the repository: within a flow, a
+     * publication is skipped if the previous one was made less than the milliseconds given to
+     * {@link RFrequency#onUpdatesPer} ago, less than a display frame ago for
+     * {@link RFrequency#onUpdatesPerFrame}, or less than the current adapted timeout ago for
+     * {@link RFrequency#onUpdatesAdaptive}. The function is not called for skipped publications.
+     * Nothing is published by a flow that is being cancelled, and published values are not
+     * persisted or considered fresh by {@link RConfig#compileStaleWhileRevalidate}.
+     *
+     * <p>A published value is the repository value like any other: the value the flow ends with
+     * replaces it, but if the flow does not produce a value after publishing, because it ends with
+     * {@link #thenSkip()} or {@link RTermination#orSkip()} or is cancelled, the published value
+     * remains the repository value until a later flow replaces it. This directive cannot be used
+     * after {@link #goLazy()}.
+     */
+    @NonNull
+    TSelf publishIntermediate(@NonNull Function<? super TPre, ? extends TVal> function);
+
     /**
      * Suspend the data processing flow and notify the registered {@link Updatable}s of updates.
      * The remaining of the flow will be run synchronously <i>and uninterruptibly</i> the first time
@@ -185,6 +308,25 @@ public interface RepositoryCompilerStates {
      */
     @NonNull
     RSyncFlow<TVal, TPre, ?> goLazy();
+
+    /**
+     * Like {@link #goLazy()}, suspend the data processing flow and notify the registered
+     * {@link Updatable}s of updates, but do not block concurrent callers of
+     * {@link Repository#get()} for the whole lazy computation. The first caller of {@code get()}
+     * runs the remaining of the flow on its thread without holding the repository lock; other
+     * callers meanwhile wait up to {@code maxWaitMillis} for it to finish, and then get the
+     * current value, which is the previous value of the repository if the computation has not
+     * finished by then. An update arriving during the computation restarts the flow afterwards.
+     *
+     * <p>The result of the remaining of the flow is cached against its input value: when the flow
+     * reaches this directive again with an input value {@linkplain Object#equals equal} to that of
+     * the last completed lazy computation, the flow ends with the cached result right away,
+     * without the lazy computation, notifying the registered {@link Updatable}s only if the
+     * {@linkplain RConfig#notifyIf notify checker} allows. The remaining of the flow must
+     * therefore depend only on its input value.
+     */
+    @NonNull
+    RSyncFlow<TVal, TPre, ?> goLazy(int maxWaitMillis);
   }
 
   /**
@@ -203,6 +345,19 @@ public interface RepositoryCompilerStates {
     @NonNull
     <TCur> RSyncFlow<TVal, TCur, ?> getFrom(@NonNull Supplier<TCur> supplier);
 
+    /**
+     * Like {@link #getFrom}, ignore the input value and use the value newly obtained from the given
+     * supplier, but memoize the part of the flow that follows up to the first directive that is not
+     * a {@code transform}. If the supplier gives a value {@linkplain Object#equals equal} to the
+     * value it gave in the previous flow, those transforms are not run again; the flow continues
+     * from the first other directive with the value the transforms produced last time.
+     *
+     * <p>The functions of the memoized transforms must therefore be pure. The last value of the
+     * supplier and of the memoized transforms are kept for the lifetime of the repository.
+     */
+    @NonNull
+    <TCur> RSyncFlow<TVal, TCur, ?> memoizedGetFrom(@NonNull Supplier<TCur> supplier);
+
     /**
      * Like {@link #getFrom}, ignore the input value and attempt to get the new value from the given
      * supplier. If the attempt fails, terminate the data processing flow by sending the failure to
@@ -244,6 +399,24 @@ public interface RepositoryCompilerStates {
     @NonNull
     <TCur> RSyncFlow<TVal, TCur, ?> transform(@NonNull Function<? super TPre, TCur> function);
 
+    /**
+     * Like {@link #transform}, transform the input value using the given function into the output
+     * value, but give the function a previous output value of this directive that is no longer
+     * used, if any, to reuse instead of allocating a new one. This avoids reallocating large
+     * objects such as buffers or bitmaps in every flow.
+     *
+     * <p>An output value is recycled when it is sent to the discarded values disposer, for
+     * example because the flow has been cancelled, or when a later directive of the flow has
+     * replaced it, once this directive runs again and the value is not the repository value. Only
+     * one value is kept for recycling; any other is sent to the discarded values disposer as
+     * usual, as is a recycled value the function does not return. The directives following this
+     * one, including any {@link #sendTo} receivers, must therefore not keep the output value, or
+     * make it part of the repository value other than as the value itself.
+     */
+    @NonNull
+    <TCur> RSyncFlow<TVal, TCur, ?> transformRecycling(
+        @NonNull RecyclingFunction<? super TPre, TCur> function);
+
     /**
      * Like {@link #transform}, attempt to transform the input value using the given function. If
      * the attempt fails, terminate the data processing flow by sending the failure to the
@@ -398,6 +571,21 @@ public interface RepositoryCompilerStates {
      */
     @NonNull
     TRet orEnd(@NonNull Function<? super TTerm, ? extends TVal> valueFunction);
+
+    /**
+     * If the previous attempt failed, retry it with the same input value after the delay given by
+     * the {@code retryPolicy}, until it succeeds or the policy stops retrying; the clause that
+     * follows then handles the last failure. This is only allowed after an attempt directive
+     * ({@code attemptGetFrom}, {@code attemptMergeIn} or {@code attemptTransform} and their
+     * {@code then} variants), and not after {@code goLazy()}.
+     *
+     * <p>No thread is blocked during the delay: the data processing flow is suspended and resumed
+     * by the worker looper. If the attempt follows a {@code goTo()} directive, the retry is run on
+     * the executor of that directive. Cancellation applies as usual; a flow cancelled while waiting
+     * to retry is cancelled without waiting for the delay to end.
+     */
+    @NonNull
+    RTermination<TVal, TTerm, TRet> retry(@NonNull RetryPolicy retryPolicy);
   }
 
   /**
@@ -421,6 +609,10 @@ public interface RepositoryCompilerStates {
      */
     @NonNull
     TCon orContinue();
+
+    @NonNull
+    @Override
+    RTerminationOrContinue<TVal, TTerm, TRet, TCon> retry(@NonNull RetryPolicy retryPolicy);
   }
 
   /**
@@ -495,12 +687,92 @@ public interface RepositoryCompilerStates {
     @NonNull
     RConfig<TVal> sendDiscardedValuesTo(@NonNull Receiver<Object> disposer);
 
+    /**
+     * Specifies that the repository value should survive process restarts in the given
+     * {@code store}. When the repository is compiled, its value is restored from the snapshot in
+     * the store, if any, instead of starting with the initial value; the initial value is still
+     * used if the snapshot cannot be read or decoded, including when the store or the codec
+     * throws, and for {@link RepositoryConfig#RESET_TO_INITIAL_VALUE}. Each time the data
+     * processing flow ends with a new value that generates a notification (or with a lazily
+     * computed value), the value is written to the store on a background thread, at most about
+     * once a second.
+     *
+     * <p>Note that the snapshot is read synchronously on the thread calling {@code compile()}, so
+     * that the value is available for the first frame; keep it small.
+     */
+    @NonNull
+    RConfig<TVal> persistTo(@NonNull SnapshotStore store, @NonNull SnapshotCodec<TVal> codec);
+
+    /**
+     * Specifies the priority of this repository over others. The {@code goTo} directives (and
+     * {@code mergeInParallel}) submit their tasks to any {@link FlowExecutor} with this priority.
+     * A repository of {@link FlowPriority#VISIBLE} priority also has its notifications and flow
+     * restarts handled ahead of the other messages waiting on the worker looper thread, so that
+     * it is not held up by repositories without this priority. By default, repositories have no
+     * priority: their messages are queued in order, and a {@link FlowExecutor} runs their tasks
+     * at {@link FlowPriority#BACKGROUND} priority, behind those of visible repositories.
+     */
+    @NonNull
+    RConfig<TVal> priority(@FlowPriority int priority);
+
+    /**
+     * Specifies that the repository should let go of its value under memory pressure while it is
+     * inactive. When {@link Repositories#onTrimMemory(int)} is called with a level at or above the
+     * given {@code level} (one of the {@code TRIM_MEMORY_*} constants of
+     * {@link ComponentCallbacks2}), each such repository that is inactive and has
+     * no data processing flow running keeps its value only through a {@link SoftReference}. Until
+     * the garbage collector clears the reference, {@link Repository#get()} still returns the value;
+     * afterwards it returns the initial value. When the repository is activated again, the data
+     * processing flow is started to recompute the value, even if the value of a stale-while-
+     * revalidate repository is not stale yet. The repository also drops the values memoized by its
+     * {@code memoizedGetFrom} directives and kept by its {@code transformRecycling} directives.
+     *
+     * <p>Values cleared by the garbage collector are not sent to the disposer given by
+     * {@link #sendDiscardedValuesTo}. Unlike {@link RepositoryConfig#RESET_TO_INITIAL_VALUE}, the
+     * value is kept as long as there is enough memory.
+     */
+    @NonNull
+    RConfig<TVal> releaseValueOnTrimMemory(int level);
+
     /**
      * Compiles a {@link Repository} that exhibits the previously defined behaviors.
      */
     @NonNull
     Repository<TVal> compile();
 
+    /**
+     * Compiles a repository that exhibits the previously defined behaviors, and keeps serving its
+     * value until it is older than {@code maxAgeMillis}. When the repository is activated, the data
+     * processing flow only starts if the value is older than that, or has not been produced by the
+     * flow yet. While the repository is active, the flow is also started every time the value
+     * reaches that age. Updates from the event sources start the flow as usual.
+     *
+     * <p>In the meantime, {@link Repository#get()} returns the last value. Use the returned
+     * {@link RevalidatingRepository} to find out its age and whether it is being revalidated.
+     */
+    @NonNull
+    RevalidatingRepository<TVal> compileStaleWhileRevalidate(int maxAgeMillis);
+
+    /**
+     * Compiles a {@link RepositoryTemplate} of repositories that exhibit the previously defined
+     * behaviors. The directives are validated once here, and each
+     * {@linkplain RepositoryTemplate#instantiate instance} is created without compiling them
+     * again, using the suppliers it is given in place of the {@link TemplateParameter}s used in
+     * the data processing flow. This is useful to create many similar repositories, for example
+     * at startup. The template cannot {@link #persistTo} a store, since its instances would share
+     * the snapshot.
+     */
+    @NonNull
+    RepositoryTemplate<TVal> compileTemplate();
+
+    /**
+     * Compiles a {@link RepositoryTemplate} like {@link #compileTemplate()}, whose instances keep
+     * serving their values until they are older than {@code maxAgeMillis}, like the repositories
+     * compiled with {@link #compileStaleWhileRevalidate}.
+     */
+    @NonNull
+    RepositoryTemplate<TVal> compileStaleWhileRevalidateTemplate(int maxAgeMillis);
+
     /**
      * Compiles a repository that exhibits the previously defined behaviors, and starts compiling
      * a new repository with the given initial value (which can be of a different type) that uses
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.CompiledRepository.compiledRepository;
+import static com.google.android.agera.CompiledRepository.instantiateDirectives;
+
+import android.support.annotation.NonNull;
+import com.google.android.agera.TemplateParameter.Argument;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled repository description that can be instantiated any number of times, each time
+ * creating an independent {@link Repository} that exhibits the compiled behaviors. The directives
+ * are validated and frozen once, when the template is compiled with
+ * {@link RepositoryCompilerStates.RConfig#compileTemplate()}, so instantiation does not go
+ * through the repository compiler again. Instances can use different suppliers in place of the
+ * {@link TemplateParameter}s of the template; all other operators, the event sources, the
+ * initial value and the configuration, including the max age given to
+ * {@link RepositoryCompilerStates.RConfig#compileStaleWhileRevalidateTemplate}, are shared by all
+ * instances.
+ *
+ * @param <T> The value type of the repositories.
+ */
+public final class RepositoryTemplate<T> {
+  @NonNull
+  private final Object initialValue;
+  @NonNull
+  private final Observable[] eventSources;
+  private final int frequency;
+  private final float targetCpuFraction;
+  private final int maxAgeMillis;
+  @NonNull
+  private final Object[] directives;
+  @NonNull
+  private final Merger<Object, Object, Boolean> notifyChecker;
+  @RepositoryConfig
+  private final int concurrentUpdateConfig;
+  @RepositoryConfig
+  private final int deactivationConfig;
+  @NonNull
+  private final Receiver discardedValuesDisposer;
+  private final int priority;
+  private final int trimMemoryLevel;
+
+  RepositoryTemplate(
+      @NonNull final Object initialValue,
+      @NonNull final List<Observable> eventSources,
+      final int frequency,
+      final float targetCpuFraction,
+      final int maxAgeMillis,
+      @NonNull final List<Object> directives,
+      @NonNull final Merger<Object, Object, Boolean> notifyChecker,
+      @RepositoryConfig final int concurrentUpdateConfig,
+      @RepositoryConfig final int deactivationConfig,
+      @NonNull final Receiver discardedValuesDisposer,
+      final int priority,
+      final int trimMemoryLevel) {
+    this.initialValue = initialValue;
+    this.eventSources = eventSources.toArray(new Observable[eventSources.size()]);
+    this.frequency = frequency;
+    this.targetCpuFraction = targetCpuFraction;
+    this.maxAgeMillis = maxAgeMillis;
+    this.directives = directives.toArray();
+    this.notifyChecker = notifyChecker;
+    this.concurrentUpdateConfig = concurrentUpdateConfig;
+    this.deactivationConfig = deactivationConfig;
+    this.discardedValuesDisposer = discardedValuesDisposer;
+    this.priority = priority;
+    this.trimMemoryLevel = trimMemoryLevel;
+  }
+
+  /**
+   * Creates a new {@link Repository} from this template, using the suppliers given by the
+   * {@code arguments} in place of the {@link TemplateParameter}s they are bound to. Use the
+   * returned {@link RevalidatingRepository} to find out the age of the value of an instance of a
+   * template compiled with
+   * {@link RepositoryCompilerStates.RConfig#compileStaleWhileRevalidateTemplate}.
+   *
+   * @throws IllegalArgumentException If a template parameter used by this template is not bound
+   *     by any of the {@code arguments}.
+   */
+  @NonNull
+  @SuppressWarnings("unchecked")
+  public RevalidatingRepository<T> instantiate(@NonNull final Argument... arguments) {
+    final Map<TemplateParameter<?>, Supplier<?>> suppliers = new IdentityHashMap<>();
+    for (final Argument argument : arguments) {
+      suppliers.put(argument.parameter, argument.supplier);
+    }
+    return compiledRepository(initialValue, eventSources, frequency, targetCpuFraction,
+        maxAgeMillis, instantiateDirectives(directives, suppliers), notifyChecker,
+        concurrentUpdateConfig, deactivationConfig, discardedValuesDisposer, null, priority,
+        trimMemoryLevel);
+  }
+}
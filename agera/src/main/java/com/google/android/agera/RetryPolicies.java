@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.Preconditions.checkArgument;
+
+import android.support.annotation.NonNull;
+import java.util.Random;
+
+/**
+ * Utility methods for obtaining {@link RetryPolicy} instances.
+ */
+public final class RetryPolicies {
+
+  /**
+   * Returns a {@link RetryPolicy} that retries up to a total of {@code maxAttempts} attempts,
+   * waiting {@code delayMillis} before each retry.
+   */
+  @NonNull
+  public static RetryPolicy fixedDelay(final int maxAttempts, final long delayMillis) {
+    return exponentialBackoff(maxAttempts, delayMillis, delayMillis, 0);
+  }
+
+  /**
+   * Returns a {@link RetryPolicy} that retries up to a total of {@code maxAttempts} attempts,
+   * waiting {@code initialDelayMillis} before the first retry and doubling the delay before each
+   * further retry, up to {@code maxDelayMillis}.
+   *
+   * <p>Each delay is then reduced by a random amount of up to {@code jitter} times the delay, so
+   * that clients failing at the same time do not all retry at the same time. A {@code jitter} of
+   * 0 disables this, and a {@code jitter} of 1 gives a delay anywhere between 0 and the full
+   * delay.
+   */
+  @NonNull
+  public static RetryPolicy exponentialBackoff(final int maxAttempts,
+      final long initialDelayMillis, final long maxDelayMillis, final double jitter) {
+    checkArgument(maxAttempts >= 1, "Max attempts must be at least 1");
+    checkArgument(initialDelayMillis >= 0, "Initial delay must not be negative");
+    checkArgument(maxDelayMillis >= initialDelayMillis,
+        "Max delay must not be less than initial delay");
+    checkArgument(jitter >= 0 && jitter <= 1, "Jitter must be between 0 and 1");
+    return new ExponentialBackoffPolicy(maxAttempts, initialDelayMillis, maxDelayMillis, jitter);
+  }
+
+  private static final class ExponentialBackoffPolicy implements RetryPolicy {
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final double jitter;
+    @NonNull
+    private final Random random;
+
+    ExponentialBackoffPolicy(final int maxAttempts, final long initialDelayMillis,
+        final long maxDelayMillis, final double jitter) {
+      this.maxAttempts = maxAttempts;
+      this.initialDelayMillis = initialDelayMillis;
+      this.maxDelayMillis = maxDelayMillis;
+      this.jitter = jitter;
+      this.random = new Random();
+    }
+
+    @Override
+    public long retryDelayMillis(final int failedAttempts, @NonNull final Throwable failure) {
+      if (failedAttempts >= maxAttempts) {
+        return -1;
+      }
+      long delayMillis = initialDelayMillis;
+      for (int i = 1; i < failedAttempts && delayMillis < maxDelayMillis; i++) {
+        delayMillis *= 2;
+      }
+      delayMillis = Math.min(delayMillis, maxDelayMillis);
+      if (jitter > 0) {
+        delayMillis -= (long) (delayMillis * jitter * random.nextDouble());
+      }
+      return delayMillis;
+    }
+  }
+
+  private RetryPolicies() {}
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Decides whether and when a failed attempt of a data processing flow should be retried.
+ */
+public interface RetryPolicy {
+
+  /**
+   * Returns the delay in milliseconds to wait before the next attempt, or a negative value to stop
+   * retrying and let the flow terminate with the {@code failure}.
+   *
+   * @param failedAttempts The number of consecutive failed attempts so far; 1 for the first
+   *     failure.
+   * @param failure The failure of the last attempt.
+   */
+  long retryDelayMillis(int failedAttempts, @NonNull Throwable failure);
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+/**
+ * A {@link Repository} that keeps exposing its last value while a data processing flow is
+ * revalidating it, and exposes how stale the value is.
+ */
+public interface RevalidatingRepository<T> extends Repository<T> {
+
+  /**
+   * Returns the time in milliseconds since the data processing flow last ended with a new value
+   * for this repository, whether or not the value was different, or -1 if the repository value is
+   * still (or has been reset to) the initial value.
+   */
+  long getValueAgeMillis();
+
+  /**
+   * Returns whether a data processing flow is ongoing, such that {@link #get()} returns a value
+   * that may soon be replaced.
+   */
+  boolean isRevalidating();
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Converts repository values to and from the snapshots kept in a {@link SnapshotStore}.
+ */
+public interface SnapshotCodec<T> {
+
+  /**
+   * Returns the snapshot of the given {@code value}.
+   */
+  @NonNull
+  byte[] encode(@NonNull T value);
+
+  /**
+   * Returns the value in the given {@code snapshot}, or a failure if it cannot be decoded, for
+   * example because it was written by an incompatible version of the codec.
+   */
+  @NonNull
+  Result<T> decode(@NonNull byte[] snapshot);
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.WorkerHandler.workerHandler;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Restores the value of a compiled repository from a {@link SnapshotStore}, and writes its new
+ * values back, at most once per write delay, on a shared background thread. The delay is timed on
+ * the worker looper of the thread that created this persistence.
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+final class SnapshotPersistence implements Runnable {
+  static final int WRITE_DELAY_MILLIS = 1000;
+  /** The executor set by {@link #setWriteExecutor}, or null to use the shared writer thread. */
+  @Nullable
+  private static Executor writeExecutorOverride;
+
+  @NonNull
+  private final SnapshotStore store;
+  @NonNull
+  private final SnapshotCodec codec;
+  private final int writeDelayMillis;
+  @NonNull
+  private final Executor writeExecutor;
+  @NonNull
+  private final WorkerHandler handler;
+  @NonNull
+  private final Runnable submitWrite;
+  /** The value to write next, or null if there is none. */
+  @Nullable
+  private Object pendingValue;
+
+  SnapshotPersistence(@NonNull final SnapshotStore store, @NonNull final SnapshotCodec codec,
+      final int writeDelayMillis) {
+    this.store = store;
+    this.codec = codec;
+    this.writeDelayMillis = writeDelayMillis;
+    this.writeExecutor = writeExecutor();
+    this.handler = workerHandler();
+    this.submitWrite = new Runnable() {
+      @Override
+      public void run() {
+        writeExecutor.execute(SnapshotPersistence.this);
+      }
+    };
+  }
+
+  /**
+   * Replaces the executor writing the snapshots, or restores the shared writer thread if
+   * {@code executor} is null. Only persistences created after this call are affected. Allows JVM
+   * tests to write synchronously once the write delay has passed on the looper clock.
+   */
+  static synchronized void setWriteExecutor(@Nullable final Executor executor) {
+    writeExecutorOverride = executor;
+  }
+
+  @NonNull
+  private static synchronized Executor writeExecutor() {
+    return writeExecutorOverride != null ? writeExecutorOverride : WriterThread.EXECUTOR;
+  }
+
+  /**
+   * Returns the value in the snapshot, or {@code fallbackValue} if there is no snapshot or it
+   * cannot be read or decoded, including when the store or the codec throws.
+   */
+  @NonNull
+  Object restore(@NonNull final Object fallbackValue) {
+    try {
+      final Result<byte[]> snapshot = store.read();
+      if (snapshot.failed()) {
+        return fallbackValue;
+      }
+      final Result<Object> value = codec.decode(snapshot.get());
+      return value != null ? value.orElse(fallbackValue) : fallbackValue;
+    } catch (final RuntimeException e) {
+      // A corrupt or incompatible snapshot must not prevent the repository from being created.
+      return fallbackValue;
+    }
+  }
+
+  /**
+   * Schedules {@code value} to be written, unless a newer value replaces it before the write. A
+   * write is scheduled only when no other write is pending, so bursts of values are coalesced.
+   */
+  void writeLater(@NonNull final Object value) {
+    final boolean schedule;
+    synchronized (this) {
+      schedule = pendingValue == null;
+      pendingValue = value;
+    }
+    if (schedule) {
+      handler.postDelayed(submitWrite, writeDelayMillis);
+    }
+  }
+
+  @Override
+  public void run() {
+    final Object value;
+    synchronized (this) {
+      value = pendingValue;
+      pendingValue = null;
+    }
+    if (value != null) {
+      store.write(codec.encode(value));
+    }
+  }
+
+  /** Holder of the executor, so the thread is only created when the first value is written. */
+  private static final class WriterThread implements ThreadFactory {
+    static final Executor EXECUTOR = newSingleThreadExecutor(new WriterThread());
+
+    @NonNull
+    @Override
+    public Thread newThread(@NonNull final Runnable runnable) {
+      final Thread thread = new Thread(runnable, "Agera snapshot writer");
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A place to keep a single snapshot of a repository value across process restarts, such as a
+ * local file.
+ */
+public interface SnapshotStore {
+
+  /**
+   * Returns the snapshot last written, an {@link Result#absent() absent} result if there is none,
+   * or a failure if it could not be read. Called on the thread compiling the repository.
+   */
+  @NonNull
+  Result<byte[]> read();
+
+  /**
+   * Replaces the snapshot. Called on a background thread, at most one call at a time.
+   * Implementations should not leave a partially written snapshot for {@link #read()} to return.
+   */
+  void write(@NonNull byte[] snapshot);
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.Preconditions.checkNotNull;
+import static com.google.android.agera.Result.absent;
+import static com.google.android.agera.Result.failure;
+import static com.google.android.agera.Result.success;
+
+import android.support.annotation.NonNull;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Utility methods for obtaining {@link SnapshotStore} instances.
+ */
+public final class SnapshotStores {
+
+  /**
+   * Returns a {@link SnapshotStore} that keeps the snapshot in the given {@code file}. A snapshot
+   * is first written to a temporary file next to it, which then replaces the file, so that an
+   * interrupted write never leaves a partial snapshot behind. Failures to write are ignored, as the
+   * snapshot is only a cache of the repository value.
+   */
+  @NonNull
+  public static SnapshotStore fileSnapshotStore(@NonNull final File file) {
+    return new FileSnapshotStore(checkNotNull(file));
+  }
+
+  private static final class FileSnapshotStore implements SnapshotStore {
+    private static final int BUFFER_SIZE = 4096;
+
+    @NonNull
+    private final File file;
+    @NonNull
+    private final File temporaryFile;
+
+    FileSnapshotStore(@NonNull final File file) {
+      this.file = file;
+      this.temporaryFile = new File(file.getPath() + ".tmp");
+    }
+
+    @NonNull
+    @Override
+    public Result<byte[]> read() {
+      try {
+        final InputStream input = new FileInputStream(file);
+        try {
+          final ByteArrayOutputStream output = new ByteArrayOutputStream();
+          final byte[] buffer = new byte[BUFFER_SIZE];
+          int count;
+          while ((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+          }
+          return success(output.toByteArray());
+        } finally {
+          input.close();
+        }
+      } catch (final FileNotFoundException e) {
+        return absent();
+      } catch (final IOException e) {
+        return failure(e);
+      }
+    }
+
+    @Override
+    public void write(@NonNull final byte[] snapshot) {
+      try {
+        final FileOutputStream output = new FileOutputStream(temporaryFile);
+        try {
+          output.write(snapshot);
+          output.getFD().sync();
+        } finally {
+          output.close();
+        }
+        if (!temporaryFile.renameTo(file)) {
+          temporaryFile.delete();
+        }
+      } catch (final IOException e) {
+        temporaryFile.delete();
+      }
+    }
+  }
+
+  private SnapshotStores() {}
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.Preconditions.checkState;
+import static java.lang.System.nanoTime;
+import static java.util.Collections.sort;
+import static java.util.Collections.unmodifiableList;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Records how the compiled repositories start up, to find the repository wiring behind a slow cold
+ * start. While profiling, every compiled {@link Repository} records:
+ *
+ * <ul>
+ * <li>the time spent compiling it, by {@link RepositoryCompilerStates.RConfig#compile()} or
+ * {@link RepositoryTemplate#instantiate};
+ * <li>the time from its first {@link Observable#addUpdatable} call to its activation, which
+ * includes the wait for its worker looper;
+ * <li>the time from its first {@link Observable#addUpdatable} call to the end of its first data
+ * processing flow with a value.
+ * </ul>
+ *
+ * <p>Profiling is off by default and costs the repositories nothing when off. Typically, call
+ * {@link #startProfiling()} at the beginning of {@code Application.onCreate()}, and
+ * {@link #stopProfiling()} once the first screen is drawn, then log the returned {@link Report}.
+ * Only the repositories compiled while profiling are recorded.
+ */
+public final class StartupProfiler {
+  /** Agera classes on the call stack of a compilation, skipped to find where it was called. */
+  @NonNull
+  private static final String[] COMPILING_CLASSES = {
+      StartupProfiler.class.getName(),
+      CompiledRepository.class.getName(),
+      RepositoryCompiler.class.getName(),
+      RepositoryTemplate.class.getName()};
+  /** The recordings of the current profiling session, guarded by itself; or null if off. */
+  @Nullable
+  private static volatile List<Recording> recordings;
+
+  /**
+   * Starts recording the startup of the repositories compiled from now on.
+   *
+   * @throws IllegalStateException if already profiling.
+   */
+  public static synchronized void startProfiling() {
+    checkState(recordings == null, "Already profiling");
+    recordings = new ArrayList<>();
+  }
+
+  /**
+   * Stops recording and returns what was recorded so far. Stages a repository has not reached yet
+   * are reported as not reached, even if the repository reaches them later.
+   *
+   * @throws IllegalStateException if not profiling.
+   */
+  @NonNull
+  public static synchronized Report stopProfiling() {
+    final List<Recording> currentRecordings = recordings;
+    checkState(currentRecordings != null, "Not profiling");
+    recordings = null;
+    final List<RepositoryProfile> profiles = new ArrayList<>();
+    synchronized (currentRecordings) {
+      for (final Recording recording : currentRecordings) {
+        profiles.add(recording.close());
+      }
+    }
+    return new Report(profiles);
+  }
+
+  /**
+   * Returns a new {@link Recording} for a repository about to be compiled, or null if not
+   * profiling.
+   */
+  @Nullable
+  static Recording startRecording() {
+    final List<Recording> currentRecordings = recordings;
+    if (currentRecordings == null) {
+      return null;
+    }
+    final Recording recording = new Recording(compilationSite());
+    synchronized (currentRecordings) {
+      currentRecordings.add(recording);
+    }
+    return recording;
+  }
+
+  @NonNull
+  private static String compilationSite() {
+    for (final StackTraceElement element : new Throwable().getStackTrace()) {
+      if (!isCompilingClass(element.getClassName())) {
+        return element.toString();
+      }
+    }
+    return "unknown";
+  }
+
+  private static boolean isCompilingClass(@NonNull final String className) {
+    for (final String compilingClass : COMPILING_CLASSES) {
+      if (className.equals(compilingClass) || className.startsWith(compilingClass + "$")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The mutable record of the startup of one repository. Once the profiling session has stopped,
+   * or the repository has produced its first value, the recording is closed, and the calls from
+   * the repository, which keep coming for the lifetime of the repository, only read a volatile
+   * flag.
+   */
+  static final class Recording {
+    @NonNull
+    private final String compilationSite;
+    private final long compileStartNanos;
+    private volatile boolean closed;
+    private long compileNanos = -1;
+    private long firstAddedNanos = -1;
+    private long activationNanos = -1;
+    private long firstValueNanos = -1;
+
+    Recording(@NonNull final String compilationSite) {
+      this.compilationSite = compilationSite;
+      this.compileStartNanos = nanoTime();
+    }
+
+    void compiled() {
+      if (closed) {
+        return;
+      }
+      synchronized (this) {
+        compileNanos = nanoTime() - compileStartNanos;
+      }
+    }
+
+    void firstUpdatableAdded() {
+      if (closed) {
+        return;
+      }
+      synchronized (this) {
+        if (firstAddedNanos < 0) {
+          firstAddedNanos = nanoTime();
+        }
+      }
+    }
+
+    void activated() {
+      if (closed) {
+        return;
+      }
+      synchronized (this) {
+        if (activationNanos < 0 && firstAddedNanos >= 0) {
+          activationNanos = nanoTime() - firstAddedNanos;
+        }
+      }
+    }
+
+    void valueProduced() {
+      if (closed) {
+        return;
+      }
+      synchronized (this) {
+        if (firstValueNanos < 0 && firstAddedNanos >= 0) {
+          firstValueNanos = nanoTime() - firstAddedNanos;
+          // The first value is the last stage recorded.
+          closed = true;
+        }
+      }
+    }
+
+    /** Closes this recording and returns what it recorded. */
+    @NonNull
+    synchronized RepositoryProfile close() {
+      closed = true;
+      return new RepositoryProfile(compilationSite, compileNanos, activationNanos,
+          firstValueNanos);
+    }
+  }
+
+  /**
+   * The startup of one repository, as recorded by {@link StartupProfiler}. The durations are in
+   * nanoseconds, or -1 for a stage the repository did not reach while profiling.
+   */
+  public static final class RepositoryProfile {
+    @NonNull
+    private final String compilationSite;
+    private final long compileNanos;
+    private final long activationNanos;
+    private final long firstValueNanos;
+
+    RepositoryProfile(@NonNull final String compilationSite, final long compileNanos,
+        final long activationNanos, final long firstValueNanos) {
+      this.compilationSite = compilationSite;
+      this.compileNanos = compileNanos;
+      this.activationNanos = activationNanos;
+      this.firstValueNanos = firstValueNanos;
+    }
+
+    /**
+     * Returns the stack frame that compiled the repository, to tell the repositories apart.
+     */
+    @NonNull
+    public String getCompilationSite() {
+      return compilationSite;
+    }
+
+    /**
+     * Returns the time spent compiling the repository.
+     */
+    public long getCompileNanos() {
+      return compileNanos;
+    }
+
+    /**
+     * Returns the time from the first {@link Observable#addUpdatable} call to the activation of
+     * the repository.
+     */
+    public long getActivationNanos() {
+      return activationNanos;
+    }
+
+    /**
+     * Returns the time from the first {@link Observable#addUpdatable} call to the end of the first
+     * data processing flow with a value.
+     */
+    public long getFirstValueNanos() {
+      return firstValueNanos;
+    }
+
+    @Override
+    public String toString() {
+      return compilationSite
+          + ": compile " + millis(compileNanos)
+          + ", activation " + millis(activationNanos)
+          + ", first value " + millis(firstValueNanos);
+    }
+  }
+
+  /**
+   * The startup report of a profiling session, listing the {@link RepositoryProfile}s from the
+   * slowest to produce its first value to the fastest, followed by the repositories that did not
+   * produce one.
+   */
+  public static final class Report {
+    @NonNull
+    private final List<RepositoryProfile> profiles;
+
+    Report(@NonNull final List<RepositoryProfile> profiles) {
+      sort(profiles, new SlowestFirstValueFirst());
+      this.profiles = unmodifiableList(profiles);
+    }
+
+    /**
+     * Returns the profiles of the repositories compiled while profiling.
+     */
+    @NonNull
+    public List<RepositoryProfile> getRepositoryProfiles() {
+      return profiles;
+    }
+
+    /**
+     * Returns the total time spent compiling repositories.
+     */
+    public long getTotalCompileNanos() {
+      long totalCompileNanos = 0;
+      for (final RepositoryProfile profile : profiles) {
+        totalCompileNanos += Math.max(profile.compileNanos, 0);
+      }
+      return totalCompileNanos;
+    }
+
+    /**
+     * Returns the longest time a repository took to produce its first value, or -1 if none did.
+     */
+    public long getMaxFirstValueNanos() {
+      return profiles.isEmpty() ? -1 : profiles.get(0).firstValueNanos;
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder report = new StringBuilder()
+          .append(profiles.size()).append(" repositories, compile ")
+          .append(millis(getTotalCompileNanos())).append(" in total, first value ")
+          .append(millis(getMaxFirstValueNanos())).append(" at most");
+      for (final RepositoryProfile profile : profiles) {
+        report.append("\n  ").append(profile);
+      }
+      return report.toString();
+    }
+  }
+
+  private static final class SlowestFirstValueFirst implements Comparator<RepositoryProfile> {
+    @Override
+    public int compare(@NonNull final RepositoryProfile first,
+        @NonNull final RepositoryProfile second) {
+      // Not Long.compare, which needs API level 19.
+      final long firstNanos = first.firstValueNanos;
+      final long secondNanos = second.firstValueNanos;
+      return firstNanos > secondNanos ? -1 : firstNanos == secondNanos ? 0 : 1;
+    }
+  }
+
+  @NonNull
+  private static String millis(final long nanos) {
+    return nanos < 0 ? "not reached" : NANOSECONDS.toMicros(nanos) / 1000f + "ms";
+  }
+
+  private StartupProfiler() {}
+}
@@ -15,10 +15,16 @@
  */
 package com.google.android.agera;
 
+import static com.google.android.agera.CancellationTokens.currentCancellationToken;
 import static com.google.android.agera.Preconditions.checkNotNull;
+import static com.google.android.agera.Preconditions.checkState;
+import static java.lang.Thread.currentThread;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import com.google.android.agera.Common.StaticProducer;
+import java.util.HashMap;
+import java.util.concurrent.CancellationException;
 
 /**
  * Utility methods for obtaining {@link Supplier} instances.
@@ -63,5 +69,132 @@ public final class Suppliers {
     }
   }
 
+  /**
+   * Returns a {@link Supplier} that lets concurrent calls share a single call of the given
+   * {@code supplier}. When its {@link Supplier#get()} is called while a supplier returned by this
+   * method for an equal {@code key} is being called on another thread, it waits for that call and
+   * returns the same value (or throws the same exception) instead of calling {@code supplier}.
+   * Otherwise it calls {@code supplier}, sharing the call with any such supplier called in the
+   * meantime. Values are not cached beyond the call that produced them.
+   *
+   * <p>This is useful for suppliers making the same expensive request from the data processing
+   * flows of different repositories, such as the same network request, so that repositories
+   * activated at the same time make the request only once. Equal keys must therefore identify
+   * suppliers supplying the same value.
+   *
+   * <p>Waiting for the shared call blocks the waiting thread. When the returned supplier is used
+   * in a {@code getFrom} directive that is not preceded by a {@code goTo} directive, this is the
+   * worker looper thread of the repository, typically the main thread; use {@code goTo} to wait on
+   * a background thread instead. A thread waiting for the shared call stops waiting and throws a
+   * {@link CancellationException} if it is interrupted, leaving its interrupted flag set, or if the
+   * {@linkplain CancellationTokens#currentCancellationToken() current cancellation token} reports
+   * a cancellation request, such as when the flow of the repository calling it is cancelled; the
+   * shared call itself carries on for the other threads.
+   *
+   * <p>The call of {@code supplier} must not call a supplier returned by this method for an equal
+   * {@code key}, as that would wait for its own outcome; such a call throws an
+   * {@link IllegalStateException} instead.
+   */
+  @NonNull
+  public static <T> Supplier<T> singleFlightSupplier(@NonNull final Object key,
+      @NonNull final Supplier<? extends T> supplier) {
+    return new SingleFlightSupplier<>(key, supplier);
+  }
+
+  private static final class SingleFlightSupplier<T> implements Supplier<T> {
+    /** The ongoing calls, by key; also the lock guarding itself. */
+    private static final HashMap<Object, Flight> flights = new HashMap<>();
+
+    @NonNull
+    private final Object key;
+    @NonNull
+    private final Supplier<? extends T> supplier;
+
+    private SingleFlightSupplier(@NonNull final Object key,
+        @NonNull final Supplier<? extends T> supplier) {
+      this.key = checkNotNull(key);
+      this.supplier = checkNotNull(supplier);
+    }
+
+    @NonNull
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get() {
+      final Flight ongoingFlight;
+      final Flight flight;
+      synchronized (flights) {
+        ongoingFlight = flights.get(key);
+        checkState(ongoingFlight == null || ongoingFlight.caller != currentThread(),
+            "Single flight supplier called again for the same key during its own call");
+        flight = ongoingFlight != null ? ongoingFlight : new Flight();
+        if (ongoingFlight == null) {
+          flights.put(key, flight);
+        }
+      }
+      if (ongoingFlight == null) {
+        Object value = null;
+        Throwable failure = null;
+        try {
+          value = checkNotNull(supplier.get());
+        } catch (final Throwable e) {
+          failure = e;
+        }
+        // Calls from now on start a new flight rather than get the outcome of this one.
+        synchronized (flights) {
+          flights.remove(key);
+        }
+        flight.complete(value, failure);
+      }
+      return (T) flight.await(currentCancellationToken());
+    }
+  }
+
+  /** The outcome of a single call of a supplier, shared by the threads waiting for it. */
+  private static final class Flight {
+    /** How often a waiting thread checks its cancellation token, which cannot notify it. */
+    private static final long CANCELLATION_POLL_MILLIS = 10;
+
+    /** The thread making the call. */
+    @NonNull
+    final Thread caller = currentThread();
+    private boolean done;
+    @Nullable
+    private Object value;
+    @Nullable
+    private Throwable failure;
+
+    synchronized void complete(@Nullable final Object value, @Nullable final Throwable failure) {
+      this.value = value;
+      this.failure = failure;
+      done = true;
+      notifyAll();
+    }
+
+    @NonNull
+    synchronized Object await(@NonNull final CancellationToken cancellationToken) {
+      while (!done) {
+        if (cancellationToken.isCancellationRequested()) {
+          throw new CancellationException("Cancelled while waiting for the shared call");
+        }
+        try {
+          wait(CANCELLATION_POLL_MILLIS);
+        } catch (final InterruptedException e) {
+          currentThread().interrupt();
+          throw new CancellationException("Interrupted while waiting for the shared call");
+        }
+      }
+      if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      }
+      if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+      if (failure != null) {
+        throw new RuntimeException(failure);
+      }
+      return checkNotNull(value);
+    }
+  }
+
   private Suppliers() {}
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.Preconditions.checkNotNull;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A placeholder for a {@link Supplier} in the data processing flow of a
+ * {@link RepositoryTemplate}, to be replaced by the supplier given for it when the template is
+ * {@linkplain RepositoryTemplate#instantiate instantiated}. A template parameter can be used in
+ * place of any supplier of a directive, but it cannot be called itself.
+ *
+ * @param <T> The value type of the suppliers it stands for.
+ */
+public final class TemplateParameter<T> implements Supplier<T> {
+
+  /**
+   * Creates a new template parameter.
+   */
+  @NonNull
+  public static <T> TemplateParameter<T> templateParameter() {
+    return new TemplateParameter<>();
+  }
+
+  private TemplateParameter() {}
+
+  /**
+   * Returns an {@link Argument} giving the {@code supplier} for this parameter.
+   */
+  @NonNull
+  public Argument bindTo(@NonNull final Supplier<? extends T> supplier) {
+    return new Argument(this, checkNotNull(supplier));
+  }
+
+  /**
+   * Throws {@link IllegalStateException}; a template parameter only stands for a supplier.
+   */
+  @NonNull
+  @Override
+  public T get() {
+    throw new IllegalStateException("Template parameter used outside of a repository template");
+  }
+
+  /**
+   * The {@link Supplier} replacing a {@link TemplateParameter} in an instance of a
+   * {@link RepositoryTemplate}.
+   */
+  public static final class Argument {
+    @NonNull
+    final TemplateParameter<?> parameter;
+    @NonNull
+    final Supplier<?> supplier;
+
+    Argument(@NonNull final TemplateParameter<?> parameter, @NonNull final Supplier<?> supplier) {
+      this.parameter = parameter;
+      this.supplier = supplier;
+    }
+  }
+}
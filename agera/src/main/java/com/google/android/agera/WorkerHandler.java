@@ -4,6 +4,8 @@ import android.os.Handler;
 import android.os.Message;
 import android.support.annotation.NonNull;
 import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Iterator;
 
 /**
  * Shared per-thread worker Handler behind internal logic of various Agera classes.
@@ -15,9 +17,20 @@ final class WorkerHandler extends Handler {
   static final int MSG_CALL_UPDATABLE = 3;
   static final int MSG_CALL_MAYBE_START_FLOW = 4;
   static final int MSG_CALL_ACKNOWLEDGE_CANCEL = 5;
+  static final int MSG_CALL_ON_TIMER = 6;
+  static final int MSG_CALL_RESUME_RETRY = 7;
+  static final int MSG_CALL_ON_TIMEOUT = 8;
+  static final int MSG_CALL_REVALIDATE = 9;
+  static final int MSG_DRAIN_URGENT = 10;
+  /** The most urgent messages one {@link #MSG_DRAIN_URGENT} message handles. */
+  private static final int MAX_URGENT_MESSAGES_PER_DRAIN = 64;
   private static final ThreadLocal<WeakReference<WorkerHandler>> handlers = new ThreadLocal<>();
   @NonNull
   private final IdentityMultimap<Updatable, Object> scheduledUpdatables;
+  /** The urgent messages, in the order sent, waiting for a {@link #MSG_DRAIN_URGENT} message. */
+  @NonNull
+  private final ArrayDeque<Message> urgentMessages;
+  private boolean urgentDrainScheduled;
 
   @NonNull
   static WorkerHandler workerHandler() {
@@ -32,16 +45,84 @@ final class WorkerHandler extends Handler {
 
   private WorkerHandler() {
     this.scheduledUpdatables = new IdentityMultimap<>();
+    this.urgentMessages = new ArrayDeque<>();
   }
 
   synchronized void removeUpdatable(@NonNull final Updatable updatable,
       @NonNull final Object token) {
-    scheduledUpdatables.removeKeyValuePair(updatable, token);
+    if (scheduledUpdatables.removeKeyValuePair(updatable, token)) {
+      purgeMessages(MSG_CALL_UPDATABLE, updatable);
+    }
   }
 
-  synchronized void update(@NonNull final Updatable updatable, @NonNull final Object token) {
+  synchronized void update(@NonNull final Updatable updatable, @NonNull final Object token,
+      final boolean urgent) {
     if (scheduledUpdatables.addKeyValuePair(updatable, token)) {
-      obtainMessage(WorkerHandler.MSG_CALL_UPDATABLE, updatable).sendToTarget();
+      send(obtainMessage(WorkerHandler.MSG_CALL_UPDATABLE, updatable), urgent);
+    }
+  }
+
+  /**
+   * Sends the {@code message}, ahead of the messages already waiting if {@code urgent}. Urgent
+   * messages are handled in the order they are sent, in batches: a single drain message is sent to
+   * the front of the queue for the urgent messages waiting, and handles them as well as the urgent
+   * messages they send in turn, such as the next hops of an urgent update. A batch handles at most
+   * {@link #MAX_URGENT_MESSAGES_PER_DRAIN} messages; the rest wait for a drain message sent to the
+   * back of the queue, so that urgent messages cannot starve the other messages.
+   */
+  void send(@NonNull final Message message, final boolean urgent) {
+    if (!urgent) {
+      sendMessage(message);
+      return;
+    }
+    synchronized (urgentMessages) {
+      urgentMessages.add(message);
+      if (!urgentDrainScheduled) {
+        urgentDrainScheduled = true;
+        sendMessageAtFrontOfQueue(obtainMessage(MSG_DRAIN_URGENT));
+      }
+    }
+  }
+
+  /**
+   * Removes the messages with the given {@code what} and {@code object}, both those waiting in the
+   * queue and the urgent ones waiting to be drained. Use this instead of
+   * {@link #removeMessages(int, Object)}, which only sees the former.
+   */
+  void purgeMessages(final int what, @NonNull final Object object) {
+    removeMessages(what, object);
+    synchronized (urgentMessages) {
+      final Iterator<Message> iterator = urgentMessages.iterator();
+      while (iterator.hasNext()) {
+        final Message message = iterator.next();
+        if (message.what == what && message.obj == object) {
+          iterator.remove();
+          message.recycle();
+        }
+      }
+    }
+  }
+
+  private void drainUrgent() {
+    for (int i = 0; i < MAX_URGENT_MESSAGES_PER_DRAIN; i++) {
+      final Message message;
+      synchronized (urgentMessages) {
+        message = urgentMessages.poll();
+        if (message == null) {
+          urgentDrainScheduled = false;
+          return;
+        }
+      }
+      handleMessage(message);
+      // Not dispatched by the looper, which would have recycled it.
+      message.recycle();
+    }
+    synchronized (urgentMessages) {
+      if (urgentMessages.isEmpty()) {
+        urgentDrainScheduled = false;
+      } else {
+        sendMessage(obtainMessage(MSG_DRAIN_URGENT));
+      }
     }
   }
 
@@ -69,6 +150,21 @@ final class WorkerHandler extends Handler {
       case MSG_CALL_ACKNOWLEDGE_CANCEL:
         ((CompiledRepository) message.obj).acknowledgeCancel();
         break;
+      case MSG_CALL_RESUME_RETRY:
+        ((CompiledRepository) message.obj).resumeRetry();
+        break;
+      case MSG_CALL_ON_TIMEOUT:
+        ((CompiledRepository) message.obj).onTimeout(message.arg1);
+        break;
+      case MSG_CALL_REVALIDATE:
+        ((CompiledRepository) message.obj).revalidate();
+        break;
+      case MSG_CALL_ON_TIMER:
+        ((Observables.TimedObservable) message.obj).callOnTimer();
+        break;
+      case MSG_DRAIN_URGENT:
+        drainUrgent();
+        break;
       default:
     }
   }
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.CancellationTokens.currentCancellationToken;
+import static com.google.android.agera.CancellationTokens.enterCancellationToken;
+import static com.google.android.agera.test.matchers.HasPrivateConstructor.hasPrivateConstructor;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+import org.junit.After;
+import org.junit.Test;
+
+public final class CancellationTokensTest {
+  private static final CancellationToken CANCELLED_TOKEN = new CancellationToken() {
+    @Override
+    public boolean isCancellationRequested() {
+      return true;
+    }
+  };
+
+  @After
+  public void tearDown() {
+    enterCancellationToken(null);
+  }
+
+  @Test
+  public void shouldNeverBeCancelledOutsideOfFlow() {
+    assertThat(currentCancellationToken().isCancellationRequested(), is(false));
+  }
+
+  @Test
+  public void shouldReturnEnteredToken() {
+    enterCancellationToken(CANCELLED_TOKEN);
+
+    assertThat(currentCancellationToken(), is(sameInstance(CANCELLED_TOKEN)));
+  }
+
+  @Test
+  public void shouldRestorePreviousToken() {
+    enterCancellationToken(enterCancellationToken(CANCELLED_TOKEN));
+
+    assertThat(currentCancellationToken().isCancellationRequested(), is(false));
+  }
+
+  @Test
+  public void shouldHavePrivateConstructor() {
+    assertThat(CancellationTokens.class, hasPrivateConstructor());
+  }
+}
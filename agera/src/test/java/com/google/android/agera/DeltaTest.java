@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.Delta.initialDelta;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import com.google.android.agera.PersistentVector.DiffCallback;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+
+public final class DeltaTest {
+  private static final List<Integer> LIST = singletonList(1);
+  private static final List<Integer> OTHER_LIST = asList(1, 2, 3);
+
+  @Mock
+  private DiffCallback mockDiffCallback;
+
+  @Before
+  public void setUp() {
+    initMocks(this);
+  }
+
+  @Test
+  public void shouldHaveValue() {
+    assertThat(initialDelta(LIST).getValue(), is(sameInstance(LIST)));
+  }
+
+  @Test
+  public void shouldHaveUnknownChangesForInitialDelta() {
+    final Delta<List<Integer>> delta = initialDelta(LIST);
+
+    assertThat(delta.areChangesKnown(), is(false));
+    assertThat(delta.hasChanges(), is(true));
+  }
+
+  @Test
+  public void shouldBeRelativeToPreviousDelta() {
+    final Delta<List<Integer>> previous = initialDelta(LIST);
+
+    final Delta<List<Integer>> delta = previous.changesTo(OTHER_LIST).inserted(1, 2).build();
+
+    assertThat(delta.isRelativeTo(previous), is(true));
+    assertThat(delta.getValue(), is(sameInstance(OTHER_LIST)));
+  }
+
+  @Test
+  public void shouldNotBeRelativeToOtherDelta() {
+    final Delta<List<Integer>> previous = initialDelta(LIST);
+
+    final Delta<List<Integer>> delta = previous.changesTo(OTHER_LIST).inserted(1, 2).build();
+
+    assertThat(delta.isRelativeTo(initialDelta(LIST)), is(false));
+    assertThat(delta.isRelativeTo(delta), is(false));
+  }
+
+  @Test
+  public void shouldNotBeRelativeToPreviousDeltaForUnknownChanges() {
+    final Delta<List<Integer>> previous = initialDelta(LIST);
+
+    final Delta<List<Integer>> delta = previous.unknownChangesTo(OTHER_LIST);
+
+    assertThat(delta.isRelativeTo(previous), is(false));
+    assertThat(delta.hasChanges(), is(true));
+  }
+
+  @Test
+  public void shouldHaveNoChangesForNoChanges() {
+    final Delta<List<Integer>> previous = initialDelta(LIST);
+
+    final Delta<List<Integer>> delta = previous.noChangesTo(singletonList(1));
+
+    assertThat(delta.isRelativeTo(previous), is(true));
+    assertThat(delta.hasChanges(), is(false));
+  }
+
+  @Test
+  public void shouldDispatchChangesInOrder() {
+    final Delta<List<Integer>> delta = initialDelta(LIST).changesTo(OTHER_LIST)
+        .changed(0, 1)
+        .removed(1, 2)
+        .inserted(1, 4)
+        .changed(2, 1)
+        .build();
+
+    delta.dispatchChanges(mockDiffCallback);
+
+    final InOrder inOrder = inOrder(mockDiffCallback);
+    inOrder.verify(mockDiffCallback).onChanged(0, 1);
+    inOrder.verify(mockDiffCallback).onRemoved(1, 2);
+    inOrder.verify(mockDiffCallback).onInserted(1, 4);
+    inOrder.verify(mockDiffCallback).onChanged(2, 1);
+    verifyNoMoreInteractions(mockDiffCallback);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotAllowDispatchingUnknownChanges() {
+    initialDelta(LIST).dispatchChanges(mockDiffCallback);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldNotAllowNegativePosition() {
+    initialDelta(LIST).changesTo(OTHER_LIST).inserted(-1, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldNotAllowEmptyChange() {
+    initialDelta(LIST).changesTo(OTHER_LIST).removed(0, 0);
+  }
+
+  @Test
+  public void shouldNotifyForDeltaWithChanges() {
+    final Delta<List<Integer>> previous = initialDelta(LIST);
+    final Delta<List<Integer>> delta = previous.changesTo(OTHER_LIST).inserted(1, 2).build();
+
+    assertThat(Delta.<List<Integer>>deltaHasChanges().merge(previous, delta), is(true));
+  }
+
+  @Test
+  public void shouldNotNotifyForDeltaWithoutChanges() {
+    final Delta<List<Integer>> previous = initialDelta(LIST);
+    final Delta<List<Integer>> delta = previous.noChangesTo(LIST);
+
+    assertThat(Delta.<List<Integer>>deltaHasChanges().merge(previous, delta), is(false));
+  }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.FlowExecutors.flowExecutor;
+import static com.google.android.agera.FlowExecutors.workStealingFlowExecutor;
+import static com.google.android.agera.test.matchers.HasPrivateConstructor.hasPrivateConstructor;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.robolectric.annotation.Config.NONE;
+
+import android.support.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@Config(manifest = NONE)
+@RunWith(RobolectricTestRunner.class)
+public final class FlowExecutorsTest {
+  private static final int TIMEOUT_SECONDS = 5;
+
+  @Test
+  public void shouldRunSubmittedTask() throws Exception {
+    final CountDownLatch ran = new CountDownLatch(1);
+
+    workStealingFlowExecutor(2).execute(countDown(ran));
+
+    assertThat(ran.await(TIMEOUT_SECONDS, SECONDS), is(true));
+  }
+
+  @Test
+  public void shouldRunVisibleTasksBeforeBackgroundTasks() throws Exception {
+    final FlowExecutor executor = workStealingFlowExecutor(1);
+    final CountDownLatch gate = new CountDownLatch(1);
+    final CountDownLatch ran = new CountDownLatch(2);
+    final List<String> order = new ArrayList<>();
+    executor.execute(await(gate));
+
+    executor.execute(record(order, "background", ran), FlowPriority.BACKGROUND);
+    executor.execute(record(order, "visible", ran), FlowPriority.VISIBLE);
+    gate.countDown();
+
+    assertThat(ran.await(TIMEOUT_SECONDS, SECONDS), is(true));
+    synchronized (order) {
+      assertThat(order, is(asList("visible", "background")));
+    }
+  }
+
+  @Test
+  public void shouldRunVisibleTasksBeforeTasksWithoutPriority() throws Exception {
+    final FlowExecutor executor = workStealingFlowExecutor(1);
+    final CountDownLatch gate = new CountDownLatch(1);
+    final CountDownLatch ran = new CountDownLatch(2);
+    final List<String> order = new ArrayList<>();
+    executor.execute(await(gate), FlowPriority.VISIBLE);
+
+    executor.execute(record(order, "without priority", ran));
+    executor.execute(record(order, "visible", ran), FlowPriority.VISIBLE);
+    gate.countDown();
+
+    assertThat(ran.await(TIMEOUT_SECONDS, SECONDS), is(true));
+    synchronized (order) {
+      assertThat(order, is(asList("visible", "without priority")));
+    }
+  }
+
+  @Test
+  public void shouldReportQueueDepthAndWaitTime() throws Exception {
+    final FlowExecutor executor = workStealingFlowExecutor(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch gate = new CountDownLatch(1);
+    final CountDownLatch ran = new CountDownLatch(2);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        await(gate).run();
+      }
+    });
+    started.await();
+
+    executor.execute(countDown(ran));
+    executor.execute(countDown(ran), FlowPriority.BACKGROUND);
+    assertThat(executor.getQueueDepth(), is(2));
+
+    gate.countDown();
+    assertThat(ran.await(TIMEOUT_SECONDS, SECONDS), is(true));
+    assertThat(executor.getQueueDepth(), is(0));
+    assertThat(executor.getAverageWaitNanos(), greaterThan(0L));
+  }
+
+  @Test
+  public void shouldLetIdleWorkerStealTaskOfBusyWorker() throws Exception {
+    final FlowExecutor executor = workStealingFlowExecutor(2);
+    final CountDownLatch stolen = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        // Goes to the queue of this worker, which is busy until the task has run elsewhere.
+        executor.execute(countDown(stolen));
+        await(stolen).run();
+        done.countDown();
+      }
+    });
+
+    assertThat(done.await(TIMEOUT_SECONDS, SECONDS), is(true));
+  }
+
+  @Test
+  public void shouldRunSubmittedTasksAfterShutdown() throws Exception {
+    final FlowExecutor executor = workStealingFlowExecutor(1);
+    final CountDownLatch gate = new CountDownLatch(1);
+    final CountDownLatch ran = new CountDownLatch(2);
+    executor.execute(await(gate));
+    executor.execute(countDown(ran));
+    executor.execute(countDown(ran), FlowPriority.BACKGROUND);
+
+    executor.shutdown();
+    gate.countDown();
+
+    assertThat(ran.await(TIMEOUT_SECONDS, SECONDS), is(true));
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void shouldRejectTaskAfterShutdown() {
+    final FlowExecutor executor = workStealingFlowExecutor(1);
+    executor.shutdown();
+
+    executor.execute(countDown(new CountDownLatch(1)));
+  }
+
+  @Test
+  public void shouldStopWorkerThreadsOnShutdown() throws Exception {
+    final FlowExecutor executor = workStealingFlowExecutor(1);
+    final List<Thread> workerThreads = new ArrayList<>();
+    final CountDownLatch ran = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (workerThreads) {
+          workerThreads.add(Thread.currentThread());
+        }
+        ran.countDown();
+      }
+    });
+    assertThat(ran.await(TIMEOUT_SECONDS, SECONDS), is(true));
+
+    executor.shutdown();
+
+    final Thread workerThread;
+    synchronized (workerThreads) {
+      workerThread = workerThreads.get(0);
+    }
+    workerThread.join(SECONDS.toMillis(TIMEOUT_SECONDS));
+    assertThat(workerThread.isAlive(), is(false));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotShutDownDefaultFlowExecutor() {
+    flowExecutor().shutdown();
+  }
+
+  @Test
+  public void shouldShareDefaultFlowExecutor() {
+    assertThat(flowExecutor(), is(sameInstance(flowExecutor())));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldNotAllowNonPositiveParallelism() {
+    workStealingFlowExecutor(0);
+  }
+
+  @Test
+  public void shouldHavePrivateConstructor() {
+    assertThat(FlowExecutors.class, hasPrivateConstructor());
+  }
+
+  @NonNull
+  private static Runnable countDown(@NonNull final CountDownLatch latch) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    };
+  }
+
+  @NonNull
+  private static Runnable await(@NonNull final CountDownLatch latch) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        try {
+          latch.await(TIMEOUT_SECONDS, SECONDS);
+        } catch (final InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+  }
+
+  @NonNull
+  private static Runnable record(@NonNull final List<String> order, @NonNull final String name,
+      @NonNull final CountDownLatch latch) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        synchronized (order) {
+          order.add(name);
+        }
+        latch.countDown();
+      }
+    };
+  }
+}
@@ -48,6 +48,23 @@ public final class IdentityMultimapTest {
     identityMultimap.removeKeyValuePair(KEY_1, VALUE_1);
   }
 
+  @Test
+  public void shouldReturnThatKeyHasNoValuesLeftAfterRemovalOfLastKeyValuePair() {
+    identityMultimap.addKeyValuePair(KEY_1, VALUE_1);
+    identityMultimap.addKeyValuePair(KEY_1, VALUE_2);
+    identityMultimap.removeKeyValuePair(KEY_1, VALUE_1);
+
+    assertThat(identityMultimap.removeKeyValuePair(KEY_1, VALUE_2), is(true));
+  }
+
+  @Test
+  public void shouldReturnThatKeyHasValuesLeftAfterRemovalOfKeyValuePair() {
+    identityMultimap.addKeyValuePair(KEY_1, VALUE_1);
+    identityMultimap.addKeyValuePair(KEY_1, VALUE_2);
+
+    assertThat(identityMultimap.removeKeyValuePair(KEY_1, VALUE_1), is(false));
+  }
+
   @Test
   public void shouldRemoveSecondValueForKeyOnRemoveKey() {
     identityMultimap.addKeyValuePair(KEY_1, VALUE_1);
@@ -20,8 +20,14 @@ import static com.google.android.agera.Conditions.falseCondition;
 import static com.google.android.agera.Conditions.trueCondition;
 import static com.google.android.agera.Observables.compositeObservable;
 import static com.google.android.agera.Observables.conditionalObservable;
+import static com.google.android.agera.Observables.debounceObservable;
+import static com.google.android.agera.FrameScheduler.setFrameScheduler;
+import static com.google.android.agera.Observables.perFrameObservable;
 import static com.google.android.agera.Observables.perLoopObservable;
 import static com.google.android.agera.Observables.perMillisecondObservable;
+import static com.google.android.agera.Observables.sampleObservable;
+import static com.google.android.agera.Observables.sharedCompositeObservable;
+import static com.google.android.agera.Observables.throttleLatestObservable;
 import static com.google.android.agera.Observables.updateDispatcher;
 import static com.google.android.agera.Repositories.repositoryWithInitialValue;
 import static com.google.android.agera.WorkerHandler.workerHandler;
@@ -33,7 +39,10 @@ import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -47,6 +56,7 @@ import static org.robolectric.shadows.ShadowLooper.runUiThreadTasksIncludingDela
 import android.support.annotation.NonNull;
 import com.google.android.agera.test.mocks.MockUpdatable;
 import java.util.ArrayList;
+import java.lang.ref.WeakReference;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -80,6 +90,8 @@ public final class ObservablesTest {
   private UpdateDispatcher updateDispatcher;
   @Mock
   private ActivationHandler mockActivationHandler;
+  @Mock
+  private Updatable mockTimedUpdatable;
   private UpdateDispatcher updateDispatcherWithUpdatablesChanged;
   private ShadowLooper looper;
 
@@ -113,6 +125,7 @@ public final class ObservablesTest {
   public void tearDown() {
     updatable.removeFromObservables();
     secondUpdatable.removeFromObservables();
+    setFrameScheduler(null);
   }
 
   @Test
@@ -172,6 +185,74 @@ public final class ObservablesTest {
     verify(updatable).update();
   }
 
+  @Test
+  public void shouldShareCompositeObservableOfSameObservables() {
+    assertThat(sharedCompositeObservable(0, firstUpdateDispatcher, secondUpdateDispatcher),
+        is(sameInstance(sharedCompositeObservable(0, secondUpdateDispatcher,
+            compositeObservable(firstUpdateDispatcher), secondUpdateDispatcher))));
+  }
+
+  @Test
+  public void shouldNotShareCompositeObservableOfDifferentObservables() {
+    assertThat(sharedCompositeObservable(0, firstUpdateDispatcher, secondUpdateDispatcher),
+        is(not(sameInstance(sharedCompositeObservable(0, firstUpdateDispatcher)))));
+  }
+
+  @Test
+  public void shouldNotShareCompositeObservableOfEqualButDistinctObservables() {
+    final Observable observable = new EqualToAnyObservable();
+    final Observable equalObservable = new EqualToAnyObservable();
+
+    assertThat(sharedCompositeObservable(0, observable),
+        is(not(sameInstance(sharedCompositeObservable(0, equalObservable)))));
+  }
+
+  @Test
+  public void shouldNotShareCompositeObservableOfDifferentUpdateWindows() {
+    assertThat(sharedCompositeObservable(0, firstUpdateDispatcher),
+        is(not(sameInstance(sharedCompositeObservable(FILTER_TIME, firstUpdateDispatcher)))));
+  }
+
+  @Test
+  public void shouldNotShareCompositeObservableBetweenUrgentAndNonUrgentUpdates() {
+    assertThat(sharedCompositeObservable(0, false, firstUpdateDispatcher),
+        is(not(sameInstance(sharedCompositeObservable(0, true, firstUpdateDispatcher)))));
+  }
+
+  @Test
+  public void shouldAddSharedCompositeObservableOnceAndUpdateAllUpdatables() {
+    updatable.addToObservable(sharedCompositeObservable(0, updateDispatcherWithUpdatablesChanged));
+    secondUpdatable.addToObservable(
+        sharedCompositeObservable(0, updateDispatcherWithUpdatablesChanged));
+
+    updateDispatcherWithUpdatablesChanged.update();
+    looper.runToEndOfTasks();
+
+    verify(mockActivationHandler).observableActivated(updateDispatcherWithUpdatablesChanged);
+    assertThat(updatable, wasUpdated());
+    assertThat(secondUpdatable, wasUpdated());
+  }
+
+  @Test
+  public void shouldNotKeepObservablesOfCollectedSharedCompositeObservable() {
+    final WeakReference<Observable> observableReference =
+        new WeakReference<>(updateDispatcherOfDroppedSharedComposite());
+
+    for (int i = 0; i < 20 && observableReference.get() != null; i++) {
+      System.gc();
+    }
+
+    assertThat(observableReference.get(), is(nullValue()));
+  }
+
+  /** Returns a new {@link UpdateDispatcher}, after dropping a shared composite observable of it. */
+  @NonNull
+  private static UpdateDispatcher updateDispatcherOfDroppedSharedComposite() {
+    final UpdateDispatcher dispatcher = updateDispatcher();
+    sharedCompositeObservable(0, dispatcher);
+    return dispatcher;
+  }
+
   @Test
   public void shouldNotUpdateConditionalObservableForFalseCondition() {
     updatable.addToObservable(trueConditionalObservable);
@@ -348,6 +429,121 @@ public final class ObservablesTest {
     assertThat(scheduler.getCurrentTime(), greaterThanOrEqualTo(expectedDelayedTime));
   }
 
+  @Test
+  public void shouldUpdatePerFrameObservableOncePerFrame() {
+    final ManualFrameScheduler frameScheduler = new ManualFrameScheduler();
+    setFrameScheduler(frameScheduler);
+    final Observable perFrameObservable = perFrameObservable(updateDispatcher);
+    perFrameObservable.addUpdatable(mockTimedUpdatable);
+
+    updateDispatcher.update();
+    updateDispatcher.update();
+    verify(mockTimedUpdatable, never()).update();
+    assertThat(frameScheduler.requestedFrames, is(1));
+
+    frameScheduler.onFrame();
+    verify(mockTimedUpdatable).update();
+
+    frameScheduler.onFrame();
+    verify(mockTimedUpdatable).update();
+    perFrameObservable.removeUpdatable(mockTimedUpdatable);
+  }
+
+  @Test
+  public void shouldNotUpdatePerFrameObservableAfterDeactivation() {
+    final ManualFrameScheduler frameScheduler = new ManualFrameScheduler();
+    setFrameScheduler(frameScheduler);
+    final Observable perFrameObservable = perFrameObservable(updateDispatcher);
+    perFrameObservable.addUpdatable(mockTimedUpdatable);
+
+    updateDispatcher.update();
+    perFrameObservable.removeUpdatable(mockTimedUpdatable);
+    idleMainLooper(0);
+    frameScheduler.onFrame();
+
+    verify(mockTimedUpdatable, never()).update();
+  }
+
+  @Test
+  public void shouldUpdatePerFrameObservableWithDefaultFrameScheduler() {
+    updatable.addToObservable(perFrameObservable(updateDispatcher));
+
+    updateDispatcher.update();
+
+    assertThat(updatable, wasUpdated());
+  }
+
+  @Test
+  public void shouldUpdateDebounceObservableOnlyAfterQuietPeriod() {
+    final Observable debounceObservable = debounceObservable(FILTER_TIME, updateDispatcher);
+    debounceObservable.addUpdatable(mockTimedUpdatable);
+
+    updateDispatcher.update();
+    idleMainLooper(FILTER_TIME / 2);
+    updateDispatcher.update();
+    idleMainLooper(FILTER_TIME / 2);
+    verify(mockTimedUpdatable, never()).update();
+
+    idleMainLooper(FILTER_TIME / 2);
+    verify(mockTimedUpdatable).update();
+    debounceObservable.removeUpdatable(mockTimedUpdatable);
+  }
+
+  @Test
+  public void shouldNotUpdateDebounceObservableAfterDeactivation() {
+    final Observable debounceObservable = debounceObservable(FILTER_TIME, updateDispatcher);
+    debounceObservable.addUpdatable(mockTimedUpdatable);
+
+    updateDispatcher.update();
+    debounceObservable.removeUpdatable(mockTimedUpdatable);
+    idleMainLooper(FILTER_TIME);
+
+    verify(mockTimedUpdatable, never()).update();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldThrowForNonPositiveDebounceQuietPeriod() {
+    debounceObservable(0, updateDispatcher);
+  }
+
+  @Test
+  public void shouldUpdateSampleObservableOncePerPeriod() {
+    final Observable sampleObservable = sampleObservable(FILTER_TIME, updateDispatcher);
+    sampleObservable.addUpdatable(mockTimedUpdatable);
+
+    updateDispatcher.update();
+    idleMainLooper(FILTER_TIME / 2);
+    updateDispatcher.update();
+    verify(mockTimedUpdatable, never()).update();
+
+    idleMainLooper(FILTER_TIME / 2);
+    verify(mockTimedUpdatable).update();
+
+    idleMainLooper(FILTER_TIME);
+    verify(mockTimedUpdatable).update();
+    sampleObservable.removeUpdatable(mockTimedUpdatable);
+  }
+
+  @Test
+  public void shouldUpdateThrottleLatestObservableImmediatelyAndAtEndOfWindow() {
+    final Observable throttleObservable = throttleLatestObservable(FILTER_TIME, updateDispatcher);
+    throttleObservable.addUpdatable(mockTimedUpdatable);
+
+    updateDispatcher.update();
+    verify(mockTimedUpdatable).update();
+
+    updateDispatcher.update();
+    updateDispatcher.update();
+    verify(mockTimedUpdatable).update();
+
+    idleMainLooper(FILTER_TIME);
+    verify(mockTimedUpdatable, times(2)).update();
+
+    idleMainLooper(FILTER_TIME);
+    verify(mockTimedUpdatable, times(2)).update();
+    throttleObservable.removeUpdatable(mockTimedUpdatable);
+  }
+
   @Test
   public void shouldHandleManyObservables() {
     final int numberOfObservables = 10;
@@ -440,4 +636,25 @@ public final class ObservablesTest {
     }
     return gotException.get();
   }
+
+  private static final class ManualFrameScheduler extends FrameScheduler {
+    int requestedFrames;
+
+    @Override
+    void requestFrame() {
+      requestedFrames++;
+    }
+  }
+
+  private static final class EqualToAnyObservable extends BaseObservable {
+    @Override
+    public boolean equals(final Object o) {
+      return o instanceof EqualToAnyObservable;
+    }
+
+    @Override
+    public int hashCode() {
+      return 0;
+    }
+  }
 }
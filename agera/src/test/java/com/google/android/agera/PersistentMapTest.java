@@ -0,0 +1,209 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.PersistentMap.copyOf;
+import static com.google.android.agera.PersistentMap.emptyMap;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public final class PersistentMapTest {
+  private static final int LARGE_SIZE = 5000;
+
+  @Test
+  public void shouldBeEmpty() {
+    assertThat(PersistentMap.emptyMap().isEmpty(), is(true));
+  }
+
+  @Test
+  public void shouldMapKeys() {
+    final PersistentMap<String, Integer> map =
+        PersistentMap.<String, Integer>emptyMap().plus("a", 1).plus("b", 2);
+
+    assertThat(map.get("a"), is(1));
+    assertThat(map.get("b"), is(2));
+    assertThat(map.get("c"), is(nullValue()));
+    assertThat(map.size(), is(2));
+  }
+
+  @Test
+  public void shouldReturnSameInstanceWhenMappingToSameValue() {
+    final PersistentMap<Integer, Integer> map = mapOfSize(100);
+
+    assertThat(map.plus(50, map.get(50)), is(sameInstance(map)));
+  }
+
+  @Test
+  public void shouldReturnSameInstanceWhenRemovingAbsentKey() {
+    final PersistentMap<Integer, Integer> map = mapOfSize(100);
+
+    assertThat(map.minus(1000), is(sameInstance(map)));
+  }
+
+  @Test
+  public void shouldReturnSameInstanceForCopyOfMap() {
+    final PersistentMap<Integer, Integer> map = mapOfSize(10);
+
+    assertThat(copyOf(map), is(sameInstance(map)));
+  }
+
+  @Test
+  public void shouldHandleHashCollisions() {
+    final CollidingKey first = new CollidingKey(1);
+    final CollidingKey second = new CollidingKey(2);
+    final CollidingKey third = new CollidingKey(3);
+    PersistentMap<CollidingKey, Integer> map =
+        PersistentMap.<CollidingKey, Integer>emptyMap().plus(first, 1).plus(second, 2);
+    map = map.plus(third, 3).minus(second);
+
+    assertThat(map.get(first), is(1));
+    assertThat(map.get(second), is(nullValue()));
+    assertThat(map.get(third), is(3));
+    assertThat(map.size(), is(2));
+  }
+
+  @Test
+  public void shouldBehaveLikeHashMapUnderRandomOperations() {
+    final Random random = new Random(42);
+    final Map<Integer, Integer> expected = new HashMap<>();
+    PersistentMap<Integer, Integer> map = emptyMap();
+    for (int i = 0; i < 20000; i++) {
+      final int key = random.nextInt(3000) - 1500;
+      if (random.nextInt(3) == 0) {
+        expected.remove(key);
+        map = map.minus(key);
+      } else {
+        expected.put(key, i);
+        map = map.plus(key, i);
+      }
+    }
+
+    assertThat(map, is(equalTo(expected)));
+    assertThat(expected, is(equalTo((Map<Integer, Integer>) map)));
+    assertThat(map.hashCode(), is(expected.hashCode()));
+  }
+
+  @Test
+  public void shouldBeEqualToEqualMapBuiltSeparately() {
+    assertThat(mapOfSize(LARGE_SIZE), is(equalTo(mapOfSize(LARGE_SIZE))));
+  }
+
+  @Test
+  public void shouldNotBeEqualToMapWithChangedValue() {
+    final PersistentMap<Integer, Integer> map = mapOfSize(LARGE_SIZE);
+
+    assertThat(map.plus(1234, -1), is(not(equalTo(map))));
+  }
+
+  @Test
+  public void shouldReportChangesInDiff() {
+    final PersistentMap<Integer, Integer> map = mapOfSize(LARGE_SIZE);
+    final PersistentMap<Integer, Integer> newer =
+        map.plus(10, -1).minus(20).plus(LARGE_SIZE, 0).plus(30, new Integer(30));
+    final RecordingDiffCallback callback = new RecordingDiffCallback();
+
+    map.diff(newer, callback);
+
+    assertThat(callback.events,
+        containsInAnyOrder("changed 10", "removed 20", "added " + LARGE_SIZE));
+  }
+
+  @Test
+  public void shouldReportNothingInDiffOfSameMap() {
+    final PersistentMap<Integer, Integer> map = mapOfSize(LARGE_SIZE);
+    final RecordingDiffCallback callback = new RecordingDiffCallback();
+
+    map.diff(map, callback);
+
+    assertThat(callback.events, is(empty()));
+  }
+
+  @Test
+  public void shouldReportDiffOfCollidingKeys() {
+    final CollidingKey first = new CollidingKey(1);
+    final CollidingKey second = new CollidingKey(2);
+    final PersistentMap<CollidingKey, Integer> map =
+        PersistentMap.<CollidingKey, Integer>emptyMap().plus(first, 1);
+    final RecordingDiffCallback callback = new RecordingDiffCallback();
+
+    map.diff(map.plus(second, 2).plus(first, 0), callback);
+
+    assertThat(callback.events, containsInAnyOrder("changed " + first, "added " + second));
+  }
+
+  private static PersistentMap<Integer, Integer> mapOfSize(final int size) {
+    PersistentMap<Integer, Integer> map = emptyMap();
+    for (int i = 0; i < size; i++) {
+      map = map.plus(i, i);
+    }
+    return map;
+  }
+
+  private static final class CollidingKey {
+    private final int id;
+
+    CollidingKey(final int id) {
+      this.id = id;
+    }
+
+    @Override
+    public boolean equals(final Object object) {
+      return object instanceof CollidingKey && ((CollidingKey) object).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+      return 0;
+    }
+
+    @Override
+    public String toString() {
+      return "key" + id;
+    }
+  }
+
+  private static final class RecordingDiffCallback implements PersistentMap.DiffCallback<Object> {
+    final List<String> events = new ArrayList<>();
+
+    @Override
+    public void onAdded(final Object key) {
+      events.add("added " + key);
+    }
+
+    @Override
+    public void onRemoved(final Object key) {
+      events.add("removed " + key);
+    }
+
+    @Override
+    public void onChanged(final Object key) {
+      events.add("changed " + key);
+    }
+  }
+}
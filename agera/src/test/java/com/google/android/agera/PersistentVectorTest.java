@@ -0,0 +1,238 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.PersistentVector.copyOf;
+import static com.google.android.agera.PersistentVector.emptyVector;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public final class PersistentVectorTest {
+  private static final int LARGE_SIZE = 5000;
+
+  @Test
+  public void shouldBeEmpty() {
+    assertThat(PersistentVector.<Integer>emptyVector(), is(empty()));
+  }
+
+  @Test
+  public void shouldAppendItems() {
+    assertThat(PersistentVector.<Integer>emptyVector().plus(1).plus(2).plus(3), contains(1, 2, 3));
+  }
+
+  @Test
+  public void shouldReturnSameInstanceForCopyOfVector() {
+    final PersistentVector<Integer> vector = vectorOfSize(10);
+
+    assertThat(copyOf(vector), is(sameInstance(vector)));
+  }
+
+  @Test
+  public void shouldReturnSameInstanceWhenReplacingWithSameItem() {
+    final PersistentVector<Integer> vector = vectorOfSize(100);
+
+    assertThat(vector.with(50, vector.get(50)), is(sameInstance(vector)));
+  }
+
+  @Test
+  public void shouldBehaveLikeArrayListUnderRandomOperations() {
+    final Random random = new Random(42);
+    final List<Integer> expected = new ArrayList<>();
+    PersistentVector<Integer> vector = emptyVector();
+    for (int i = 0; i < 20000; i++) {
+      final int operation = random.nextInt(10);
+      if (operation < 6 || expected.isEmpty()) {
+        expected.add(i);
+        vector = vector.plus(i);
+      } else if (operation < 8) {
+        final int index = random.nextInt(expected.size());
+        expected.set(index, -i);
+        vector = vector.with(index, -i);
+      } else if (operation < 9) {
+        expected.remove(expected.size() - 1);
+        vector = vector.minusLast();
+      } else if (random.nextBoolean()) {
+        final int index = random.nextInt(expected.size() + 1);
+        expected.add(index, i);
+        vector = vector.plus(index, i);
+      } else {
+        final int index = random.nextInt(expected.size());
+        expected.remove(index);
+        vector = vector.minus(index);
+      }
+    }
+
+    assertThat(vector, is(equalTo(expected)));
+    assertThat(expected, is(equalTo((List<Integer>) vector)));
+    assertThat(vector.hashCode(), is(expected.hashCode()));
+  }
+
+  @Test
+  public void shouldShrinkToEmpty() {
+    PersistentVector<Integer> vector = vectorOfSize(LARGE_SIZE);
+    for (int i = LARGE_SIZE - 1; i >= 0; i--) {
+      assertThat(vector.get(i), is(i));
+      vector = vector.minusLast();
+    }
+
+    assertThat(vector, is(empty()));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldThrowWhenRemovingFromEmptyVector() {
+    emptyVector().minusLast();
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void shouldThrowForIndexOutOfBounds() {
+    vectorOfSize(10).get(10);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void shouldNotAllowListMutation() {
+    vectorOfSize(10).add(10);
+  }
+
+  @Test
+  public void shouldBeEqualToEqualVectorBuiltSeparately() {
+    assertThat(vectorOfSize(LARGE_SIZE), is(equalTo(vectorOfSize(LARGE_SIZE))));
+  }
+
+  @Test
+  public void shouldNotBeEqualToVectorWithChangedItem() {
+    final PersistentVector<Integer> vector = vectorOfSize(LARGE_SIZE);
+
+    assertThat(vector.with(1234, -1), is(not(equalTo(vector))));
+  }
+
+  @Test
+  public void shouldReportChangedRangesInDiff() {
+    final PersistentVector<Integer> vector = vectorOfSize(LARGE_SIZE);
+    final PersistentVector<Integer> newer = vector.with(10, -1).with(11, -1).with(3000, -1);
+    final RecordingDiffCallback callback = new RecordingDiffCallback();
+
+    vector.diff(newer, callback);
+
+    assertThat(callback.events, contains("changed 10 2", "changed 3000 1"));
+  }
+
+  @Test
+  public void shouldNotReportEqualItemsInDiff() {
+    final PersistentVector<Integer> vector = vectorOfSize(LARGE_SIZE);
+    final RecordingDiffCallback callback = new RecordingDiffCallback();
+
+    vector.diff(vector.with(10, new Integer(10)), callback);
+
+    assertThat(callback.events, is(empty()));
+  }
+
+  @Test
+  public void shouldReportInsertionAtEndInDiff() {
+    final PersistentVector<Integer> vector = vectorOfSize(100);
+    final RecordingDiffCallback callback = new RecordingDiffCallback();
+
+    vector.diff(vector.plus(100).plus(101), callback);
+
+    assertThat(callback.events, contains("inserted 100 2"));
+  }
+
+  @Test
+  public void shouldReportRemovalAtEndInDiff() {
+    final PersistentVector<Integer> vector = vectorOfSize(100);
+    final RecordingDiffCallback callback = new RecordingDiffCallback();
+
+    vector.diff(vector.minusLast().minusLast().with(0, -1), callback);
+
+    assertThat(callback.events, contains("changed 0 1", "removed 98 2"));
+  }
+
+  @Test
+  public void shouldProduceDiffThatTransformsOldVectorIntoNewVector() {
+    final Random random = new Random(7);
+    PersistentVector<Integer> vector = vectorOfSize(LARGE_SIZE);
+    for (int round = 0; round < 50; round++) {
+      PersistentVector<Integer> newer = vector;
+      for (int i = random.nextInt(5); i >= 0; i--) {
+        newer = newer.with(random.nextInt(newer.size()), random.nextInt());
+      }
+      for (int i = random.nextInt(40) - 20; i != 0; i += i > 0 ? -1 : 1) {
+        newer = i > 0 ? newer.plus(random.nextInt()) : newer.minusLast();
+      }
+      final List<Integer> patched = new ArrayList<>(vector);
+      final PersistentVector<Integer> target = newer;
+      vector.diff(newer, new PersistentVector.DiffCallback() {
+        @Override
+        public void onInserted(final int position, final int count) {
+          for (int i = 0; i < count; i++) {
+            patched.add(position + i, target.get(position + i));
+          }
+        }
+
+        @Override
+        public void onRemoved(final int position, final int count) {
+          patched.subList(position, position + count).clear();
+        }
+
+        @Override
+        public void onChanged(final int position, final int count) {
+          for (int i = position; i < position + count; i++) {
+            patched.set(i, target.get(i));
+          }
+        }
+      });
+
+      assertThat(patched, is(equalTo((List<Integer>) newer)));
+      vector = newer;
+    }
+  }
+
+  private static PersistentVector<Integer> vectorOfSize(final int size) {
+    PersistentVector<Integer> vector = emptyVector();
+    for (int i = 0; i < size; i++) {
+      vector = vector.plus(i);
+    }
+    return vector;
+  }
+
+  private static final class RecordingDiffCallback implements PersistentVector.DiffCallback {
+    final List<String> events = new ArrayList<>();
+
+    @Override
+    public void onInserted(final int position, final int count) {
+      events.add("inserted " + position + " " + count);
+    }
+
+    @Override
+    public void onRemoved(final int position, final int count) {
+      events.add("removed " + position + " " + count);
+    }
+
+    @Override
+    public void onChanged(final int position, final int count) {
+      events.add("changed " + position + " " + count);
+    }
+  }
+}
@@ -17,9 +17,14 @@ package com.google.android.agera;
 
 import static com.google.android.agera.Mergers.staticMerger;
 import static com.google.android.agera.Observables.updateDispatcher;
+import static com.google.android.agera.Repositories.mutableDoubleRepository;
+import static com.google.android.agera.Repositories.mutableIntRepository;
+import static com.google.android.agera.Repositories.mutableLongRepository;
 import static com.google.android.agera.Repositories.mutableRepository;
 import static com.google.android.agera.Repositories.repository;
 import static com.google.android.agera.Repositories.repositoryWithInitialValue;
+import static com.google.android.agera.RepositoryConfig.CANCEL_FLOW;
+import static com.google.android.agera.RepositoryConfig.RESET_TO_INITIAL_VALUE;
 import static com.google.android.agera.Result.success;
 import static com.google.android.agera.test.matchers.HasPrivateConstructor.hasPrivateConstructor;
 import static com.google.android.agera.test.matchers.SupplierGives.has;
@@ -27,8 +32,11 @@ import static com.google.android.agera.test.matchers.UpdatableUpdated.wasNotUpda
 import static com.google.android.agera.test.matchers.UpdatableUpdated.wasUpdated;
 import static com.google.android.agera.test.mocks.MockUpdatable.mockUpdatable;
 import static java.util.Arrays.asList;
+import static java.lang.Thread.currentThread;
 import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -36,11 +44,15 @@ import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 import static org.robolectric.annotation.Config.NONE;
+import static org.robolectric.shadows.ShadowLooper.runUiThreadTasksIncludingDelayedTasks;
 
 import android.support.annotation.NonNull;
+import com.google.android.agera.test.SingleSlotDelayedAsyncSupplier;
+import com.google.android.agera.test.SingleSlotDelayedExecutor;
 import com.google.android.agera.test.mocks.MockUpdatable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import org.junit.After;
 import org.junit.Before;
@@ -56,6 +68,12 @@ import org.robolectric.annotation.Config;
 public final class RepositoriesTest {
   private static final int INITIAL_INT_VALUE = 0;
   private static final int INT_VALUE = 2;
+  private static final long INITIAL_LONG_VALUE = 0L;
+  private static final long LONG_VALUE = 2L;
+  private static final double INITIAL_DOUBLE_VALUE = 0.0;
+  private static final double DOUBLE_VALUE = 0.5;
+  private static final int READER_COUNT = 4;
+  private static final int READS_AFTER_LAZY_PART_FINISHED = 10000;
   private static final String INITIAL_STRING_VALUE = "init";
   private static final String STRING_VALUE = "string";
   private static final Result<String> RESULT_STRING_VALUE = success(STRING_VALUE);
@@ -64,11 +82,14 @@ public final class RepositoriesTest {
   private static final List<Integer> OTHER_LIST = asList(4, 5);
   private static final List<Integer> LIST_AND_OTHER_LIST = asList(1, 2, 3, 4, 5);
   private static final List<Integer> LIST_PLUS_TWO = asList(3, 4, 5);
+  private static final int THROTTLE_MILLIS = 10000;
+  private static final int MAX_WAIT_MILLIS = 1000;
 
   private MutableRepository<List<Integer>> listSource;
   private MutableRepository<List<Integer>> otherListSource;
   private MockUpdatable updatable;
   private UpdateDispatcher updateDispatcher;
+  private SingleSlotDelayedExecutor delayedExecutor;
   @Mock
   private Receiver<Integer> mockIntegerReceiver;
   @Mock
@@ -92,6 +113,8 @@ public final class RepositoriesTest {
   @Mock
   private Function<List<Integer>, Integer> mockIntegerListToIntValueFunction;
   @Mock
+  private Function<List<Integer>, List<Integer>> mockIntegerListFunction;
+  @Mock
   private Merger<String, String, Result<String>> mockResultStringMerger;
   @Mock
   private Merger<String, String, Result<String>> mockFailedResultStringMerger;
@@ -113,6 +136,7 @@ public final class RepositoriesTest {
     when(mockIntegerListToIntValueFunction.apply(Matchers.<List<Integer>>any()))
         .thenReturn(INT_VALUE);
     updateDispatcher = updateDispatcher();
+    delayedExecutor = new SingleSlotDelayedExecutor();
     listSource = mutableRepository(LIST);
     otherListSource = mutableRepository(OTHER_LIST);
     updatable = mockUpdatable();
@@ -166,6 +190,142 @@ public final class RepositoriesTest {
     assertThat(updatable, wasNotUpdated());
   }
 
+  @Test
+  public void shouldGetUpdateFromChangedMutableIntRepository() {
+    final MutableIntRepository repository = mutableIntRepository(INITIAL_INT_VALUE);
+    updatable.addToObservable(repository);
+
+    repository.accept(INT_VALUE);
+
+    assertThat(updatable, wasUpdated());
+    assertThat(repository.getAsInt(), is(INT_VALUE));
+  }
+
+  @Test
+  public void shouldNotGetUpdateFromMutableIntRepositoryChangedToSameValue() {
+    final MutableIntRepository repository = mutableIntRepository(INITIAL_INT_VALUE);
+    updatable.addToObservable(repository);
+
+    repository.accept(INITIAL_INT_VALUE);
+
+    assertThat(updatable, wasNotUpdated());
+  }
+
+  @Test
+  public void shouldGetUpdateFromMutableIntRepositoryUpdatedByFunction() {
+    final MutableIntRepository repository = mutableIntRepository(INITIAL_INT_VALUE);
+    updatable.addToObservable(repository);
+
+    final int newValue = repository.updateAndGet(new IntFunction() {
+      @Override
+      public int apply(final int input) {
+        return input + 1;
+      }
+    });
+
+    assertThat(updatable, wasUpdated());
+    assertThat(newValue, is(INITIAL_INT_VALUE + 1));
+    assertThat(repository.getAsInt(), is(INITIAL_INT_VALUE + 1));
+  }
+
+  @Test
+  public void shouldNotGetUpdateFromMutableIntRepositoryUpdatedToSameValue() {
+    final MutableIntRepository repository = mutableIntRepository(INITIAL_INT_VALUE);
+    updatable.addToObservable(repository);
+
+    repository.updateAndGet(new IntFunction() {
+      @Override
+      public int apply(final int input) {
+        return input;
+      }
+    });
+
+    assertThat(updatable, wasNotUpdated());
+  }
+
+  @Test
+  public void shouldGetUpdateFromChangedMutableLongRepository() {
+    final MutableLongRepository repository = mutableLongRepository(INITIAL_LONG_VALUE);
+    updatable.addToObservable(repository);
+
+    repository.accept(LONG_VALUE);
+
+    assertThat(updatable, wasUpdated());
+    assertThat(repository.getAsLong(), is(LONG_VALUE));
+  }
+
+  @Test
+  public void shouldNotGetUpdateFromMutableLongRepositoryChangedToSameValue() {
+    final MutableLongRepository repository = mutableLongRepository(INITIAL_LONG_VALUE);
+    updatable.addToObservable(repository);
+
+    repository.accept(INITIAL_LONG_VALUE);
+
+    assertThat(updatable, wasNotUpdated());
+  }
+
+  @Test
+  public void shouldGetUpdateFromMutableLongRepositoryUpdatedByFunction() {
+    final MutableLongRepository repository = mutableLongRepository(INITIAL_LONG_VALUE);
+    updatable.addToObservable(repository);
+
+    repository.updateAndGet(new LongFunction() {
+      @Override
+      public long apply(final long input) {
+        return input + 1;
+      }
+    });
+
+    assertThat(updatable, wasUpdated());
+    assertThat(repository.getAsLong(), is(INITIAL_LONG_VALUE + 1));
+  }
+
+  @Test
+  public void shouldGetUpdateFromChangedMutableDoubleRepository() {
+    final MutableDoubleRepository repository = mutableDoubleRepository(INITIAL_DOUBLE_VALUE);
+    updatable.addToObservable(repository);
+
+    repository.accept(DOUBLE_VALUE);
+
+    assertThat(updatable, wasUpdated());
+    assertThat(repository.getAsDouble(), is(DOUBLE_VALUE));
+  }
+
+  @Test
+  public void shouldNotGetUpdateFromMutableDoubleRepositoryChangedToSameValue() {
+    final MutableDoubleRepository repository = mutableDoubleRepository(Double.NaN);
+    updatable.addToObservable(repository);
+
+    repository.accept(Double.NaN);
+
+    assertThat(updatable, wasNotUpdated());
+  }
+
+  @Test
+  public void shouldNotGetUpdateFromMutableDoubleRepositoryUpdatedToSameValue() {
+    final MutableDoubleRepository repository = mutableDoubleRepository(Double.NaN);
+    updatable.addToObservable(repository);
+
+    repository.updateAndGet(new DoubleFunction() {
+      @Override
+      public double apply(final double input) {
+        return input * 2;
+      }
+    });
+
+    assertThat(updatable, wasNotUpdated());
+  }
+
+  @Test
+  public void shouldGetUpdateFromMutableDoubleRepositoryChangedToNegativeZero() {
+    final MutableDoubleRepository repository = mutableDoubleRepository(0.0);
+    updatable.addToObservable(repository);
+
+    repository.accept(-0.0);
+
+    assertThat(updatable, wasUpdated());
+  }
+
   @Test
   public void shouldGetUpdateFromRepositoryChangedToNewValue() {
     final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
@@ -291,6 +451,139 @@ public final class RepositoriesTest {
     assertThat(repository, has(LIST_AND_OTHER_LIST));
   }
 
+  @Test
+  public void shouldMergeInParallelSourcesInOrder() {
+    final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .mergeInParallel(newFixedThreadPool(2), asList(listSource, otherListSource),
+            new FlatteningMerger())
+        .thenTransform(Functions.<List<Integer>>identityFunction())
+        .compile();
+
+    updatable.addToObservable(repository);
+
+    assertThat(repository, has(asList(1, 1, 2, 3, 4, 5)));
+  }
+
+  @Test
+  public void shouldMergeInParallelSourcesIfExecutorDoesNotRunThem() {
+    final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .mergeInParallel(new DroppingExecutor(), asList(listSource, otherListSource),
+            new FlatteningMerger())
+        .thenTransform(Functions.<List<Integer>>identityFunction())
+        .compile();
+
+    updatable.addToObservable(repository);
+
+    assertThat(repository, has(asList(1, 1, 2, 3, 4, 5)));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRethrowFromParallelSupplier() {
+    final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .mergeInParallel(new SyncExecutor(), asList(listSource, new ThrowingSupplier()),
+            new FlatteningMerger())
+        .thenTransform(Functions.<List<Integer>>identityFunction())
+        .compile();
+
+    updatable.addToObservable(repository);
+  }
+
+  @Test
+  public void shouldGetFromAsyncSupplierDeliveringLater() {
+    final SingleSlotDelayedAsyncSupplier<List<Integer>> asyncSupplier =
+        new SingleSlotDelayedAsyncSupplier<>();
+    final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .getFromAsync(asyncSupplier)
+        .thenTransform(new AddTwoForEachFunction())
+        .compile();
+
+    updatable.addToObservable(repository);
+    assertThat(asyncSupplier.hasReceiver(), is(true));
+    assertThat(repository, has(INITIAL_VALUE));
+
+    asyncSupplier.deliverOrThrow(LIST);
+
+    assertThat(updatable, wasUpdated());
+    assertThat(repository, has(LIST_PLUS_TWO));
+  }
+
+  @Test
+  public void shouldGetFromAsyncSupplierDeliveringSynchronously() {
+    final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .getFromAsync(new SyncAsyncSupplier<>(LIST))
+        .thenTransform(new AddTwoForEachFunction())
+        .compile();
+
+    updatable.addToObservable(repository);
+
+    assertThat(repository, has(LIST_PLUS_TWO));
+  }
+
+  @Test
+  public void shouldNotRerunMemoizedTransformsForEqualSupplierValue() {
+    final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesPerLoop()
+        .memoizedGetFrom(mockIntegerListSupplier)
+        .transform(mockIntegerListToIntValueFunction)
+        .thenTransform(new IntegerToListFunction())
+        .compile();
+
+    updatable.addToObservable(repository);
+    updateDispatcher.update();
+    updatable.resetUpdated();
+
+    verify(mockIntegerListSupplier, times(2)).get();
+    verify(mockIntegerListToIntValueFunction, times(1)).apply(LIST);
+    assertThat(repository, has(singletonList(INT_VALUE)));
+  }
+
+  @Test
+  public void shouldRerunMemoizedTransformsForChangedSupplierValue() {
+    when(mockIntegerListSupplier.get()).thenReturn(LIST, OTHER_LIST);
+    final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesPerLoop()
+        .memoizedGetFrom(mockIntegerListSupplier)
+        .transform(mockIntegerListToIntValueFunction)
+        .thenTransform(new IntegerToListFunction())
+        .compile();
+
+    updatable.addToObservable(repository);
+    updateDispatcher.update();
+    updatable.resetUpdated();
+
+    verify(mockIntegerListToIntValueFunction).apply(LIST);
+    verify(mockIntegerListToIntValueFunction).apply(OTHER_LIST);
+  }
+
+  @Test
+  public void shouldRunDirectivesAfterMemoizedTransforms() {
+    final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(otherListSource)
+        .onUpdatesPerLoop()
+        .memoizedGetFrom(listSource)
+        .transform(new AddTwoForEachFunction())
+        .thenMergeIn(otherListSource, new ListMerger<Integer, Integer, Integer>())
+        .compile();
+
+    updatable.addToObservable(repository);
+    otherListSource.accept(LIST);
+
+    assertThat(updatable, wasUpdated());
+    assertThat(repository, has(asList(3, 4, 5, 1, 2, 3)));
+  }
+
   @Test
   public void shouldUpdateOnExplicitObservable() {
     final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
@@ -322,6 +615,175 @@ public final class RepositoriesTest {
     verify(mockIntegerListSupplier).get();
   }
 
+  @Test
+  public void shouldReturnDataWithNonBlockingGoLazyOnDemand() {
+    final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .goLazy(MAX_WAIT_MILLIS)
+        .thenGetFrom(mockIntegerListSupplier)
+        .compile();
+
+    updatable.addToObservable(repository);
+
+    verifyZeroInteractions(mockIntegerListSupplier);
+    assertThat(repository, has(LIST));
+    verify(mockIntegerListSupplier).get();
+  }
+
+  @Test
+  public void shouldNotRerunLazyPartOfFlowForEqualInput() {
+    when(mockIntegerListFunction.apply(LIST)).thenReturn(LIST_PLUS_TWO);
+    final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesPerLoop()
+        .getFrom(listSource)
+        .goLazy(MAX_WAIT_MILLIS)
+        .thenTransform(mockIntegerListFunction)
+        .compile();
+
+    updatable.addToObservable(repository);
+    assertThat(repository, has(LIST_PLUS_TWO));
+    updatable.resetUpdated();
+    updateDispatcher.update();
+
+    assertThat(updatable, wasNotUpdated());
+    assertThat(repository, has(LIST_PLUS_TWO));
+    verify(mockIntegerListFunction, times(1)).apply(LIST);
+  }
+
+  @Test
+  public void shouldGetPreviousValueWhileLazyPartOfFlowRuns() throws Exception {
+    final BlockingListSupplier blockingSupplier = new BlockingListSupplier();
+    final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .goLazy(0)
+        .thenGetFrom(blockingSupplier)
+        .compile();
+    updatable.addToObservable(repository);
+    final Thread lazyThread = new Thread() {
+      @Override
+      public void run() {
+        repository.get();
+      }
+    };
+    lazyThread.start();
+    blockingSupplier.started.await();
+
+    assertThat(repository, has(INITIAL_VALUE));
+    blockingSupplier.release.countDown();
+    lazyThread.join();
+    assertThat(repository, has(LIST));
+  }
+
+  @Test
+  public void shouldNotGetOlderValueAfterLazyPartOfFlowFinishedWhileReadConcurrently()
+      throws Exception {
+    final BlockingListSupplier blockingSupplier = new BlockingListSupplier();
+    final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .goLazy(0)
+        .thenGetFrom(blockingSupplier)
+        .compile();
+    updatable.addToObservable(repository);
+    final Thread lazyThread = new Thread() {
+      @Override
+      public void run() {
+        repository.get();
+      }
+    };
+    final List<ReadingThread> readers = new ArrayList<>();
+    for (int i = 0; i < READER_COUNT; i++) {
+      readers.add(new ReadingThread(repository));
+    }
+    lazyThread.start();
+    blockingSupplier.started.await();
+    for (final ReadingThread reader : readers) {
+      reader.start();
+      reader.reading.await();
+    }
+
+    blockingSupplier.release.countDown();
+    lazyThread.join();
+    for (final ReadingThread reader : readers) {
+      reader.lazyPartFinished = true;
+    }
+    for (final ReadingThread reader : readers) {
+      reader.join();
+    }
+
+    for (final ReadingThread reader : readers) {
+      assertThat(reader.olderValuesAfterLazyPartFinished, is(0));
+    }
+    assertThat(repository, has(LIST));
+  }
+
+  @Test
+  public void shouldNotUndoResetWithValueOfLazyPartOfFlowRunningMeanwhile() throws Exception {
+    final BlockingListSupplier blockingSupplier = new BlockingListSupplier();
+    final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .goLazy(0)
+        .thenGetFrom(blockingSupplier)
+        .onDeactivation(RESET_TO_INITIAL_VALUE)
+        .compile();
+    updatable.addToObservable(repository);
+    final Thread lazyThread = new Thread() {
+      @Override
+      public void run() {
+        repository.get();
+      }
+    };
+    lazyThread.start();
+    blockingSupplier.started.await();
+
+    updatable.removeFromObservables();
+    runUiThreadTasksIncludingDelayedTasks();
+    blockingSupplier.release.countDown();
+    lazyThread.join();
+
+    assertThat(repository, has(INITIAL_VALUE));
+  }
+
+  @Test
+  public void shouldDropValueOfLazyPartOfFlowCancelledMeanwhile() throws Exception {
+    final BlockingListSupplier blockingSupplier = new BlockingListSupplier();
+    final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .goLazy(0)
+        .thenGetFrom(blockingSupplier)
+        .onDeactivation(CANCEL_FLOW)
+        .compile();
+    updatable.addToObservable(repository);
+    final Thread lazyThread = new Thread() {
+      @Override
+      public void run() {
+        repository.get();
+      }
+    };
+    lazyThread.start();
+    blockingSupplier.started.await();
+
+    updatable.removeFromObservables();
+    runUiThreadTasksIncludingDelayedTasks();
+    blockingSupplier.release.countDown();
+    lazyThread.join();
+
+    assertThat(repository, has(INITIAL_VALUE));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldNotAllowNegativeMaxWaitForGoLazy() {
+    repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .goLazy(-1);
+  }
+
   @Test
   public void shouldCompileIntoNextRepository() throws Exception {
     final Repository<Integer> repository = repositoryWithInitialValue(INITIAL_VALUE)
@@ -455,6 +917,63 @@ public final class RepositoriesTest {
     assertThat(repository, has(INITIAL_STRING_VALUE));
   }
 
+  @Test
+  public void shouldPublishIntermediateValueBeforeFlowEnds() {
+    final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .getFrom(mockIntegerListSupplier)
+        .publishIntermediate(new AddTwoForEachFunction())
+        .goTo(delayedExecutor)
+        .thenMergeIn(otherListSource, new ListMerger<Integer, Integer, Integer>())
+        .compile();
+
+    updatable.addToObservable(repository);
+    assertThat(updatable, wasUpdated());
+    assertThat(repository, has(LIST_PLUS_TWO));
+    updatable.resetUpdated();
+
+    delayedExecutor.resumeOrThrow();
+
+    assertThat(updatable, wasUpdated());
+    assertThat(repository, has(LIST_AND_OTHER_LIST));
+  }
+
+  @Test
+  public void shouldPublishEachIntermediateValueForUpdatesPerLoop() {
+    final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .getFrom(mockIntegerListSupplier)
+        .publishIntermediate(new AddTwoForEachFunction())
+        .publishIntermediate(Functions.<List<Integer>>identityFunction())
+        .goTo(delayedExecutor)
+        .thenMergeIn(otherListSource, new ListMerger<Integer, Integer, Integer>())
+        .compile();
+
+    updatable.addToObservable(repository);
+
+    assertThat(repository, has(LIST));
+  }
+
+  @Test
+  public void shouldThrottleIntermediatePublicationsByFrequency() {
+    final Repository<List<Integer>> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPer(THROTTLE_MILLIS)
+        .getFrom(mockIntegerListSupplier)
+        .publishIntermediate(new AddTwoForEachFunction())
+        .publishIntermediate(mockIntegerListFunction)
+        .goTo(delayedExecutor)
+        .thenMergeIn(otherListSource, new ListMerger<Integer, Integer, Integer>())
+        .compile();
+
+    updatable.addToObservable(repository);
+
+    assertThat(repository, has(LIST_PLUS_TWO));
+    verifyZeroInteractions(mockIntegerListFunction);
+  }
+
   @Test
   public void shouldHavePrivateConstructor() {
     assertThat(Repositories.class, hasPrivateConstructor());
@@ -486,6 +1005,104 @@ public final class RepositoriesTest {
     }
   }
 
+  private static final class IntegerToListFunction
+      implements Function<Integer, List<Integer>> {
+    @NonNull
+    @Override
+    public List<Integer> apply(@NonNull final Integer integer) {
+      return singletonList(integer);
+    }
+  }
+
+  private static final class FlatteningMerger
+      implements Merger<List<Integer>, List<List<Integer>>, List<Integer>> {
+    @NonNull
+    @Override
+    public List<Integer> merge(@NonNull final List<Integer> firstList,
+        @NonNull final List<List<Integer>> otherLists) {
+      final List<Integer> result = new ArrayList<>(firstList);
+      for (final List<Integer> otherList : otherLists) {
+        result.addAll(otherList);
+      }
+      return result;
+    }
+  }
+
+  private static final class BlockingListSupplier implements Supplier<List<Integer>> {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    @NonNull
+    @Override
+    public List<Integer> get() {
+      started.countDown();
+      try {
+        release.await();
+      } catch (final InterruptedException e) {
+        currentThread().interrupt();
+      }
+      return LIST;
+    }
+  }
+
+  private static final class ReadingThread extends Thread {
+    @NonNull
+    private final Repository<List<Integer>> repository;
+    final CountDownLatch reading = new CountDownLatch(1);
+    volatile boolean lazyPartFinished;
+    volatile int olderValuesAfterLazyPartFinished;
+
+    ReadingThread(@NonNull final Repository<List<Integer>> repository) {
+      this.repository = repository;
+    }
+
+    @Override
+    public void run() {
+      int readsAfterLazyPartFinished = 0;
+      int olderValues = 0;
+      while (readsAfterLazyPartFinished < READS_AFTER_LAZY_PART_FINISHED) {
+        // Read the flag first: once it is set, the value of the lazy part must be visible.
+        final boolean finished = lazyPartFinished;
+        final List<Integer> value = repository.get();
+        reading.countDown();
+        if (finished) {
+          readsAfterLazyPartFinished++;
+          if (value != LIST) {
+            olderValues++;
+          }
+        }
+      }
+      olderValuesAfterLazyPartFinished = olderValues;
+    }
+  }
+
+  private static final class ThrowingSupplier implements Supplier<List<Integer>> {
+    @NonNull
+    @Override
+    public List<Integer> get() {
+      throw new IllegalStateException();
+    }
+  }
+
+  private static final class DroppingExecutor implements Executor {
+    @Override
+    public void execute(@NonNull final Runnable command) {}
+  }
+
+  private static final class SyncAsyncSupplier<T> implements AsyncSupplier<T> {
+    @NonNull
+    private final T value;
+
+    SyncAsyncSupplier(@NonNull final T value) {
+      this.value = value;
+    }
+
+    @Override
+    public void get(@NonNull final Receiver<? super T> receiver) {
+      receiver.accept(value);
+    }
+  }
+
   private static class SyncExecutor implements Executor {
     @Override
     public void execute(@NonNull final Runnable command) {
@@ -15,19 +15,35 @@
  */
 package com.google.android.agera;
 
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_COMPLETE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW;
+import static com.google.android.agera.CancellationTokens.currentCancellationToken;
+import static com.google.android.agera.Functions.staticFunction;
 import static com.google.android.agera.Mergers.staticMerger;
 import static com.google.android.agera.Observables.updateDispatcher;
+import static com.google.android.agera.Observables.useDisplayFrames;
+import static com.google.android.agera.Observables.useManualFrames;
+import static com.google.android.agera.Predicates.falsePredicate;
 import static com.google.android.agera.Repositories.repositoryWithInitialValue;
 import static com.google.android.agera.RepositoryConfig.CANCEL_FLOW;
 import static com.google.android.agera.RepositoryConfig.RESET_TO_INITIAL_VALUE;
 import static com.google.android.agera.RepositoryConfig.SEND_INTERRUPT;
+import static com.google.android.agera.Result.failure;
+import static com.google.android.agera.Result.present;
+import static com.google.android.agera.Result.success;
+import static com.google.android.agera.SnapshotPersistence.setWriteExecutor;
 import static com.google.android.agera.test.matchers.SupplierGives.has;
 import static com.google.android.agera.test.matchers.UpdatableUpdated.wasNotUpdated;
 import static com.google.android.agera.test.matchers.UpdatableUpdated.wasUpdated;
 import static com.google.android.agera.test.mocks.MockUpdatable.mockUpdatable;
+import static java.util.Arrays.asList;
 import static java.util.concurrent.Executors.newSingleThreadExecutor;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -35,15 +51,24 @@ import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 import static org.robolectric.annotation.Config.NONE;
 import static org.robolectric.shadows.ShadowLooper.getShadowMainLooper;
+import static org.robolectric.shadows.ShadowLooper.idleMainLooper;
 
+import android.os.Handler;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import com.google.android.agera.test.SingleSlotDelayedExecutor;
 import com.google.android.agera.test.mocks.MockUpdatable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
@@ -57,6 +82,9 @@ public final class RepositoryConfigTest {
   private static final Object ANOTHER_VALUE = "ANOTHER_VALUE";
   private static final Object RESUMED_VALUE = "RESUMED_VALUE";
   private static final Object UNEXPECTED_VALUE = "UNEXPECTED_VALUE";
+  private static final int ADAPTIVE_IDLE_MILLIS = 5000;
+  private static final int MAX_AGE_MILLIS = 1000;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
 
   private MockUpdatable updatable;
   private UpdateDispatcher updateDispatcher;
@@ -64,6 +92,14 @@ public final class RepositoryConfigTest {
   private InterruptibleMonitoredSupplier monitoredSupplier;
   @Mock
   private Supplier<Object> mockSupplier;
+  @Mock
+  private Predicate<Object> mockPredicate;
+  @Mock
+  private Function<Object, Object> mockFunction;
+  @Mock
+  private Updatable mockUpdatable;
+  @Mock
+  private Updatable mockOtherUpdatable;
   private ShadowLooper looper;
 
   @Before
@@ -80,6 +116,8 @@ public final class RepositoryConfigTest {
   @After
   public void tearDown() {
     updatable.removeFromObservables();
+    useDisplayFrames();
+    setWriteExecutor(null);
   }
 
   private void retriggerUpdate() {
@@ -259,6 +297,27 @@ public final class RepositoryConfigTest {
     assertThat(repository, has(INITIAL_VALUE));
   }
 
+  @Test
+  public void shouldInterruptParallelSuppliersOnDeactivate() throws Exception {
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesPerLoop()
+        .goTo(newSingleThreadExecutor()) // need background thread to test interrupt
+        .mergeInParallel(newSingleThreadExecutor(), asList(mockSupplier, monitoredSupplier),
+            staticMerger(UNEXPECTED_VALUE))
+        .thenTransform(Functions.identityFunction())
+        .onDeactivation(SEND_INTERRUPT)
+        .compile();
+
+    updatable.addToObservable(repository);
+    monitoredSupplier.waitForGetToStart();
+    updatable.removeFromObservables();
+    looper.runToEndOfTasks();
+    monitoredSupplier.waitForGetToEnd();
+    assertThat(monitoredSupplier.wasInterrupted(), is(true));
+    assertThat(repository, has(INITIAL_VALUE));
+  }
+
   @Ignore("Interrupt test flaky on CI server ")
   @Test
   public void shouldInterruptOnConcurrentUpdate() throws Exception {
@@ -282,6 +341,799 @@ public final class RepositoryConfigTest {
     assertThat(repository, has(RESUMED_VALUE));
   }
 
+  @Test
+  public void shouldStartOneFlowPerFrameWhenPerFrame() throws Exception {
+    final Runnable frame = useManualFrames();
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesPerFrame()
+        .thenGetFrom(mockSupplier)
+        .compile();
+
+    updatable.addToObservable(repository);
+    updateDispatcher.update();
+    updateDispatcher.update();
+    looper.runToEndOfTasks();
+    verify(mockSupplier, times(1)).get();
+
+    frame.run();
+    looper.runToEndOfTasks();
+    verify(mockSupplier, times(2)).get();
+  }
+
+  @Test
+  public void shouldWidenUpdateWindowForExpensiveFlowsWhenAdaptive() throws Exception {
+    final SleepingSupplier sleepingSupplier = new SleepingSupplier(10);
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesAdaptive(0.1f)
+        .thenGetFrom(sleepingSupplier)
+        .compile();
+
+    updatable.addToObservable(repository);
+    idleMainLooper(ADAPTIVE_IDLE_MILLIS);
+    updateDispatcher.update();
+    assertThat(sleepingSupplier.calls, is(2));
+
+    updateDispatcher.update();
+    assertThat(sleepingSupplier.calls, is(2));
+
+    idleMainLooper(ADAPTIVE_IDLE_MILLIS);
+    assertThat(sleepingSupplier.calls, is(3));
+  }
+
+  @Test
+  public void shouldThrottleIntermediatePublicationsByAdaptedUpdateWindow() throws Exception {
+    final SleepingSupplier sleepingSupplier = new SleepingSupplier(10);
+    when(mockFunction.apply(any())).thenReturn(ANOTHER_VALUE);
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesAdaptive(0.1f)
+        .getFrom(sleepingSupplier)
+        .publishIntermediate(Functions.identityFunction())
+        .publishIntermediate(mockFunction)
+        .thenSkip()
+        .compile();
+
+    updatable.addToObservable(repository);
+    idleMainLooper(ADAPTIVE_IDLE_MILLIS);
+    verify(mockFunction, times(1)).apply(any());
+
+    updateDispatcher.update();
+    assertThat(sleepingSupplier.calls, is(2));
+    verify(mockFunction, times(1)).apply(any());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldThrowForZeroAdaptiveTargetCpuFraction() {
+    repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesAdaptive(0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldThrowForAdaptiveTargetCpuFractionAboveOne() {
+    repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesAdaptive(1.5f);
+  }
+
+  private static final class SleepingSupplier implements Supplier<Object> {
+    private final long sleepMillis;
+    int calls;
+
+    SleepingSupplier(final long sleepMillis) {
+      this.sleepMillis = sleepMillis;
+    }
+
+    @NonNull
+    @Override
+    public Object get() {
+      calls++;
+      try {
+        Thread.sleep(sleepMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return calls;
+    }
+  }
+
+  @Test
+  public void shouldNotRevalidateFreshValueOnActivation() {
+    final RevalidatingRepository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .compileStaleWhileRevalidate(MAX_AGE_MILLIS);
+
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    repository.removeUpdatable(mockUpdatable);
+    idleMainLooper(MAX_AGE_MILLIS / 2);
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+
+    verify(mockSupplier, times(1)).get();
+    assertThat(repository.getValueAgeMillis(), is((long) MAX_AGE_MILLIS / 2));
+    assertThat(repository, has(UPDATED_VALUE));
+    repository.removeUpdatable(mockUpdatable);
+  }
+
+  @Test
+  public void shouldRevalidateStaleValueOnActivation() {
+    final RevalidatingRepository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .compileStaleWhileRevalidate(MAX_AGE_MILLIS);
+
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    repository.removeUpdatable(mockUpdatable);
+    idleMainLooper(MAX_AGE_MILLIS);
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+
+    verify(mockSupplier, times(2)).get();
+    assertThat(repository.getValueAgeMillis(), is(0L));
+    repository.removeUpdatable(mockUpdatable);
+  }
+
+  @Test
+  public void shouldKeepRevalidatingAfterRevalidationSkipped() {
+    final RevalidatingRepository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .check(mockPredicate).orSkip()
+        .thenGetFrom(mockSupplier)
+        .compileStaleWhileRevalidate(MAX_AGE_MILLIS);
+    when(mockPredicate.apply(any())).thenReturn(true, false, true);
+
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    idleMainLooper(MAX_AGE_MILLIS);
+    verify(mockSupplier, times(1)).get();
+
+    idleMainLooper(MAX_AGE_MILLIS);
+    verify(mockPredicate, times(3)).apply(any());
+    verify(mockSupplier, times(2)).get();
+    repository.removeUpdatable(mockUpdatable);
+  }
+
+  @Test
+  public void shouldKeepReleasedValueUntilReactivation() {
+    final RevalidatingRepository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .releaseValueOnTrimMemory(TRIM_MEMORY_BACKGROUND)
+        .compileStaleWhileRevalidate(MAX_AGE_MILLIS);
+
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    repository.removeUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    Repositories.onTrimMemory(TRIM_MEMORY_BACKGROUND);
+
+    assertThat(repository, has(UPDATED_VALUE));
+  }
+
+  @Test
+  public void shouldGetReleasedValueOfLazyRepositoryReleasedAtEndOfLazyPartOfFlow() {
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .getFrom(mockSupplier)
+        .goLazy()
+        .check(falsePredicate()).orEnd(staticFunction(ANOTHER_VALUE))
+        .thenTransform(mockFunction)
+        .sendDiscardedValuesTo(new Receiver<Object>() {
+          @Override
+          public void accept(@NonNull final Object value) {
+            // Called with the value of getFrom once the lazy part of the flow has ended, before
+            // get() returns the value of orEnd.
+            Repositories.onTrimMemory(TRIM_MEMORY_BACKGROUND);
+          }
+        })
+        .releaseValueOnTrimMemory(TRIM_MEMORY_BACKGROUND)
+        .compile();
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    repository.removeUpdatable(mockUpdatable);
+    idleMainLooper(0);
+
+    assertThat(repository, has(ANOTHER_VALUE));
+  }
+
+  @Test
+  public void shouldRecomputeReleasedValueOnActivation() {
+    final RevalidatingRepository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .releaseValueOnTrimMemory(TRIM_MEMORY_BACKGROUND)
+        .compileStaleWhileRevalidate(MAX_AGE_MILLIS);
+
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    repository.removeUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    Repositories.onTrimMemory(TRIM_MEMORY_COMPLETE);
+    when(mockSupplier.get()).thenReturn(ANOTHER_VALUE);
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+
+    verify(mockSupplier, times(2)).get();
+    assertThat(repository, has(ANOTHER_VALUE));
+    repository.removeUpdatable(mockUpdatable);
+  }
+
+  @Test
+  public void shouldCancelFlowBetweenMemoizedTransforms() {
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .goTo(delayedExecutor)
+        .memoizedGetFrom(mockSupplier)
+        .transform(new Function<Object, Object>() {
+          @NonNull
+          @Override
+          public Object apply(@NonNull final Object input) {
+            updatable.removeFromObservables();
+            looper.runToEndOfTasks();
+            return input;
+          }
+        })
+        .thenTransform(mockFunction)
+        .onDeactivation(CANCEL_FLOW)
+        .compile();
+
+    updatable.addToObservable(repository);
+    delayedExecutor.resumeOrThrow();
+    looper.runToEndOfTasks();
+
+    verifyZeroInteractions(mockFunction);
+    assertThat(repository, has(INITIAL_VALUE));
+  }
+
+  @Test
+  public void shouldForgetMemoizedValuesOnTrimMemory() {
+    final List<Object> inputs = new ArrayList<>();
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .memoizedGetFrom(mockSupplier)
+        .thenTransform(new Function<Object, Object>() {
+          @NonNull
+          @Override
+          public Object apply(@NonNull final Object input) {
+            inputs.add(input);
+            return new Object();
+          }
+        })
+        .releaseValueOnTrimMemory(TRIM_MEMORY_BACKGROUND)
+        .compile();
+
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    repository.removeUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    Repositories.onTrimMemory(TRIM_MEMORY_COMPLETE);
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+
+    assertThat(inputs, is(asList(UPDATED_VALUE, UPDATED_VALUE)));
+    repository.removeUpdatable(mockUpdatable);
+  }
+
+  @Test
+  public void shouldNotReleaseValueBelowTrimMemoryLevel() {
+    final RevalidatingRepository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .releaseValueOnTrimMemory(TRIM_MEMORY_BACKGROUND)
+        .compileStaleWhileRevalidate(MAX_AGE_MILLIS);
+
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    repository.removeUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    Repositories.onTrimMemory(TRIM_MEMORY_RUNNING_LOW);
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+
+    verify(mockSupplier, times(1)).get();
+    repository.removeUpdatable(mockUpdatable);
+  }
+
+  @Test
+  public void shouldNotReleaseValueOfActiveRepository() {
+    final RevalidatingRepository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .releaseValueOnTrimMemory(TRIM_MEMORY_BACKGROUND)
+        .compileStaleWhileRevalidate(MAX_AGE_MILLIS);
+
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    Repositories.onTrimMemory(TRIM_MEMORY_COMPLETE);
+    repository.removeUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+
+    verify(mockSupplier, times(1)).get();
+    repository.removeUpdatable(mockUpdatable);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldNotAllowNonPositiveTrimMemoryLevel() {
+    repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .releaseValueOnTrimMemory(0);
+  }
+
+  @Test
+  public void shouldRevalidateWhenValueReachesMaxAgeWhileActive() {
+    final RevalidatingRepository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .compileStaleWhileRevalidate(MAX_AGE_MILLIS);
+
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(MAX_AGE_MILLIS - 1);
+    verify(mockSupplier, times(1)).get();
+
+    idleMainLooper(1);
+    verify(mockSupplier, times(2)).get();
+
+    repository.removeUpdatable(mockUpdatable);
+    idleMainLooper(MAX_AGE_MILLIS * 2);
+    verify(mockSupplier, times(2)).get();
+  }
+
+  @Test
+  public void shouldServeStaleValueWhileRevalidating() {
+    final RevalidatingRepository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesPerLoop()
+        .goTo(delayedExecutor)
+        .thenGetFrom(mockSupplier)
+        .compileStaleWhileRevalidate(MAX_AGE_MILLIS);
+    assertThat(repository.getValueAgeMillis(), is(-1L));
+
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    assertThat(repository.isRevalidating(), is(true));
+    delayedExecutor.resumeOrThrow();
+    assertThat(repository.isRevalidating(), is(false));
+
+    when(mockSupplier.get()).thenReturn(ANOTHER_VALUE);
+    updateDispatcher.update();
+    idleMainLooper(0);
+
+    assertThat(repository.isRevalidating(), is(true));
+    assertThat(repository, has(UPDATED_VALUE));
+    delayedExecutor.resumeOrThrow();
+    assertThat(repository, has(ANOTHER_VALUE));
+    repository.removeUpdatable(mockUpdatable);
+  }
+
+  @Test
+  public void shouldResetValueAgeWithInitialValue() {
+    final RevalidatingRepository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .onDeactivation(RESET_TO_INITIAL_VALUE)
+        .compileStaleWhileRevalidate(MAX_AGE_MILLIS);
+
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    repository.removeUpdatable(mockUpdatable);
+    idleMainLooper(0);
+
+    assertThat(repository.getValueAgeMillis(), is(-1L));
+    assertThat(repository, has(INITIAL_VALUE));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldNotAllowNonPositiveMaxAge() {
+    repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .compileStaleWhileRevalidate(0);
+  }
+
+  @Test
+  public void shouldRestoreValueFromSnapshotOnCompile() {
+    final InMemorySnapshotStore store = new InMemorySnapshotStore(RESUMED_VALUE);
+
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .persistTo(store, new StringCodec())
+        .compile();
+
+    assertThat(repository, has(RESUMED_VALUE));
+  }
+
+  @Test
+  public void shouldStartWithInitialValueIfSnapshotCannotBeDecoded() {
+    final InMemorySnapshotStore store = new InMemorySnapshotStore("");
+
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .persistTo(store, new StringCodec())
+        .compile();
+
+    assertThat(repository, has(INITIAL_VALUE));
+  }
+
+  @Test
+  public void shouldStartWithInitialValueIfCodecThrows() {
+    final InMemorySnapshotStore store = new InMemorySnapshotStore(RESUMED_VALUE);
+
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .persistTo(store, new ThrowingCodec())
+        .compile();
+
+    assertThat(repository, has(INITIAL_VALUE));
+  }
+
+  @Test
+  public void shouldStartWithInitialValueIfStoreThrows() {
+    final InMemorySnapshotStore store = new InMemorySnapshotStore(null);
+    store.failReads = true;
+
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .persistTo(store, new StringCodec())
+        .compile();
+
+    assertThat(repository, has(INITIAL_VALUE));
+  }
+
+  @Test
+  public void shouldWriteLatestValueToSnapshotOnce() {
+    looper.pause();
+    setWriteExecutor(new SyncExecutor());
+    final InMemorySnapshotStore store = new InMemorySnapshotStore(null);
+    when(mockSupplier.get()).thenReturn(UPDATED_VALUE, ANOTHER_VALUE);
+
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .persistTo(store, new StringCodec())
+        .compile();
+
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    updateDispatcher.update();
+    idleMainLooper(0);
+    assertThat(store.writeCount, is(0));
+
+    idleMainLooper(SnapshotPersistence.WRITE_DELAY_MILLIS);
+    assertThat(store.writeCount, is(1));
+    assertThat(store.read().get(), is(ANOTHER_VALUE.toString().getBytes(UTF_8)));
+    repository.removeUpdatable(mockUpdatable);
+    looper.unPause();
+  }
+
+  @Test
+  public void shouldSubmitGoToTasksWithPriorityToFlowExecutor() {
+    final RecordingFlowExecutor executor = new RecordingFlowExecutor();
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .goTo(executor)
+        .thenGetFrom(mockSupplier)
+        .priority(FlowPriority.BACKGROUND)
+        .compile();
+
+    updatable.addToObservable(repository);
+
+    assertThat(executor.priorities, is(asList(FlowPriority.BACKGROUND)));
+    executor.tasks.get(0).run();
+    assertThat(repository, has(UPDATED_VALUE));
+  }
+
+  @Test
+  public void shouldSubmitGoToTasksWithoutPriorityToFlowExecutorByDefault() {
+    final RecordingFlowExecutor executor = new RecordingFlowExecutor();
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .goTo(executor)
+        .thenGetFrom(mockSupplier)
+        .compile();
+
+    updatable.addToObservable(repository);
+
+    assertThat(executor.priorities, is(asList(RecordingFlowExecutor.NONE)));
+  }
+
+  @Test
+  public void shouldNotifyUpdatablesOfVisibleRepositoryFirst() {
+    looper.pause();
+    final Repository<Object> backgroundRepository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .compile();
+    final Repository<Object> visibleRepository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .priority(FlowPriority.VISIBLE)
+        .compile();
+    backgroundRepository.addUpdatable(mockOtherUpdatable);
+    visibleRepository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    when(mockSupplier.get()).thenReturn(ANOTHER_VALUE);
+
+    updateDispatcher.update();
+    idleMainLooper(0);
+
+    final InOrder inOrder = inOrder(mockUpdatable, mockOtherUpdatable);
+    inOrder.verify(mockUpdatable, times(2)).update();
+    inOrder.verify(mockOtherUpdatable).update();
+    backgroundRepository.removeUpdatable(mockOtherUpdatable);
+    visibleRepository.removeUpdatable(mockUpdatable);
+    looper.unPause();
+  }
+
+  @Test
+  public void shouldStartFlowOfVisibleRepositoryAheadOfWaitingMessages() {
+    looper.pause();
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .priority(FlowPriority.VISIBLE)
+        .compile();
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+
+    updateDispatcher.update();
+    new Handler().post(new Runnable() {
+      @Override
+      public void run() {
+        mockOtherUpdatable.update();
+      }
+    });
+    idleMainLooper(0);
+
+    final InOrder inOrder = inOrder(mockSupplier, mockOtherUpdatable);
+    inOrder.verify(mockSupplier, times(2)).get();
+    inOrder.verify(mockOtherUpdatable).update();
+    repository.removeUpdatable(mockUpdatable);
+    looper.unPause();
+  }
+
+  @Test
+  public void shouldNotifyUpdatablesOfVisibleRepositoryInOrder() {
+    looper.pause();
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .priority(FlowPriority.VISIBLE)
+        .compile();
+    repository.addUpdatable(mockUpdatable);
+    repository.addUpdatable(mockOtherUpdatable);
+    idleMainLooper(0);
+
+    final InOrder inOrder = inOrder(mockUpdatable, mockOtherUpdatable);
+    inOrder.verify(mockUpdatable).update();
+    inOrder.verify(mockOtherUpdatable).update();
+    repository.removeUpdatable(mockUpdatable);
+    repository.removeUpdatable(mockOtherUpdatable);
+    looper.unPause();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldNotAllowUnknownPriority() {
+    repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(mockSupplier)
+        .priority(2);
+  }
+
+  @Test
+  public void shouldRequestCancellationOfTokenWhenFlowIsCancelled() {
+    final CancellationTokenSupplier tokenSupplier = new CancellationTokenSupplier();
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .getFrom(tokenSupplier)
+        .goTo(delayedExecutor)
+        .thenGetFrom(mockSupplier)
+        .onDeactivation(CANCEL_FLOW)
+        .compile();
+
+    updatable.addToObservable(repository);
+    final CancellationToken cancelledToken = tokenSupplier.tokens.get(0);
+    assertThat(cancelledToken.isCancellationRequested(), is(false));
+    updatable.removeFromObservables();
+    looper.runToEndOfTasks();
+
+    assertThat(cancelledToken.isCancellationRequested(), is(true));
+    delayedExecutor.resumeOrThrow();
+    updatable.addToObservable(repository);
+    assertThat(tokenSupplier.tokens.size(), is(2));
+    assertThat(tokenSupplier.tokens.get(1).isCancellationRequested(), is(false));
+  }
+
+  @Test
+  public void shouldEndCancelledFlowWhenDirectiveThrowsAfterCancellation() {
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .goTo(delayedExecutor)
+        .thenGetFrom(new Supplier<Object>() {
+          @NonNull
+          @Override
+          public Object get() {
+            if (currentCancellationToken().isCancellationRequested()) {
+              throw new CancellationException();
+            }
+            return UPDATED_VALUE;
+          }
+        })
+        .onDeactivation(CANCEL_FLOW)
+        .compile();
+
+    updatable.addToObservable(repository);
+    updatable.removeFromObservables();
+    looper.runToEndOfTasks();
+    delayedExecutor.resumeOrThrow();
+    looper.runToEndOfTasks();
+
+    assertThat(repository, has(INITIAL_VALUE));
+    updatable.addToObservable(repository);
+    delayedExecutor.resumeOrThrow();
+    assertThat(repository, has(UPDATED_VALUE));
+  }
+
+  @Test
+  public void shouldNotExposeTokenOutsideOfFlow() {
+    final CancellationTokenSupplier tokenSupplier = new CancellationTokenSupplier();
+    final Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(tokenSupplier)
+        .compile();
+
+    updatable.addToObservable(repository);
+
+    assertThat(tokenSupplier.tokens.size(), is(1));
+    assertThat(currentCancellationToken(),
+        is(not(tokenSupplier.tokens.get(0))));
+  }
+
+  private static final class CancellationTokenSupplier implements Supplier<Object> {
+    final List<CancellationToken> tokens = new ArrayList<>();
+
+    @NonNull
+    @Override
+    public Object get() {
+      tokens.add(currentCancellationToken());
+      return UPDATED_VALUE;
+    }
+  }
+
+  private static final class RecordingFlowExecutor implements FlowExecutor {
+    static final int NONE = -1;
+    final List<Runnable> tasks = new ArrayList<>();
+    final List<Integer> priorities = new ArrayList<>();
+
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      execute(command, NONE);
+    }
+
+    @Override
+    public void execute(@NonNull final Runnable command, final int priority) {
+      tasks.add(command);
+      priorities.add(priority);
+    }
+
+    @Override
+    public int getQueueDepth() {
+      return tasks.size();
+    }
+
+    @Override
+    public long getAverageWaitNanos() {
+      return 0;
+    }
+
+    @Override
+    public void shutdown() {}
+  }
+
+  private static final class InMemorySnapshotStore implements SnapshotStore {
+    int writeCount;
+    boolean failReads;
+    @Nullable
+    private byte[] snapshot;
+
+    InMemorySnapshotStore(@Nullable final Object value) {
+      this.snapshot = value != null ? value.toString().getBytes(UTF_8) : null;
+    }
+
+    @NonNull
+    @Override
+    public Result<byte[]> read() {
+      if (failReads) {
+        throw new IllegalStateException("Store unavailable");
+      }
+      return snapshot != null ? present(snapshot) : Result.<byte[]>absent();
+    }
+
+    @Override
+    public void write(@NonNull final byte[] snapshot) {
+      this.snapshot = snapshot;
+      writeCount++;
+    }
+  }
+
+  private static final class ThrowingCodec implements SnapshotCodec<Object> {
+    @NonNull
+    @Override
+    public byte[] encode(@NonNull final Object value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @NonNull
+    @Override
+    public Result<Object> decode(@NonNull final byte[] snapshot) {
+      throw new IllegalArgumentException("Corrupt snapshot");
+    }
+  }
+
+  private static final class SyncExecutor implements Executor {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      command.run();
+    }
+  }
+
+  private static final class StringCodec implements SnapshotCodec<Object> {
+    @NonNull
+    @Override
+    public byte[] encode(@NonNull final Object value) {
+      return value.toString().getBytes(UTF_8);
+    }
+
+    @NonNull
+    @Override
+    public Result<Object> decode(@NonNull final byte[] snapshot) {
+      if (snapshot.length == 0) {
+        return failure();
+      }
+      return success((Object) new String(snapshot, UTF_8));
+    }
+  }
+
   private static final class InterruptibleMonitoredSupplier implements Supplier<Object> {
     private static final int ENDED = 0;
     private static final int STARTED = 1;
@@ -15,22 +15,36 @@
  */
 package com.google.android.agera;
 
+import static com.google.android.agera.Functions.identityFunction;
 import static com.google.android.agera.Functions.staticFunction;
+import static com.google.android.agera.Observables.updateDispatcher;
 import static com.google.android.agera.Predicates.falsePredicate;
 import static com.google.android.agera.Predicates.truePredicate;
 import static com.google.android.agera.Repositories.repositoryWithInitialValue;
 import static com.google.android.agera.RepositoryConfig.CANCEL_FLOW;
 import static com.google.android.agera.Suppliers.staticSupplier;
+import static com.google.android.agera.test.matchers.SupplierGives.has;
 import static com.google.android.agera.test.mocks.MockUpdatable.mockUpdatable;
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 import static org.robolectric.annotation.Config.NONE;
+import static org.robolectric.shadows.ShadowLooper.runUiThreadTasksIncludingDelayedTasks;
 
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.google.android.agera.test.SingleSlotDelayedAsyncSupplier;
 import com.google.android.agera.test.SingleSlotDelayedExecutor;
 import com.google.android.agera.test.mocks.MockUpdatable;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -49,6 +63,7 @@ public final class RepositoryDisposerTest {
   private static final Object FINAL_VALUE = new Object();
 
   private MockUpdatable updatable;
+  private UpdateDispatcher updateDispatcher;
   private SingleSlotDelayedExecutor executor;
   @Mock
   private Predicate<Object> mockPredicate;
@@ -60,6 +75,7 @@ public final class RepositoryDisposerTest {
     initMocks(this);
     updatable = mockUpdatable();
     executor = new SingleSlotDelayedExecutor();
+    updateDispatcher = updateDispatcher();
   }
 
   @After
@@ -170,4 +186,203 @@ public final class RepositoryDisposerTest {
 
     verify(mockDisposer).accept(FIRST_VALUE);
   }
+
+  @Test
+  public void shouldDiscardAsyncValueDeliveredAfterCancellation() {
+    final SingleSlotDelayedAsyncSupplier<Object> asyncSupplier =
+        new SingleSlotDelayedAsyncSupplier<>();
+    Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .getFromAsync(asyncSupplier)
+        .thenTransform(staticFunction(FINAL_VALUE))
+        .onDeactivation(CANCEL_FLOW)
+        .sendDiscardedValuesTo(mockDisposer)
+        .compile();
+
+    updatable.addToObservable(repository);
+    final Receiver<Object> staleReceiver = asyncSupplier.takeReceiverOrThrow();
+    updatable.removeFromObservables();
+    runUiThreadTasksIncludingDelayedTasks();
+    updatable.addToObservable(repository);
+    staleReceiver.accept(FIRST_VALUE);
+
+    verify(mockDisposer).accept(FIRST_VALUE);
+    assertThat(asyncSupplier.hasReceiver(), is(true));
+    assertThat(repository, has(INITIAL_VALUE));
+
+    asyncSupplier.deliverOrThrow(SECOND_VALUE);
+
+    assertThat(repository, has(FINAL_VALUE));
+  }
+
+  @Test
+  public void shouldDiscardAsyncValueDeliveredTwice() {
+    final SingleSlotDelayedAsyncSupplier<Object> asyncSupplier =
+        new SingleSlotDelayedAsyncSupplier<>();
+    Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .getFromAsync(asyncSupplier)
+        .thenTransform(identityFunction())
+        .sendDiscardedValuesTo(mockDisposer)
+        .compile();
+
+    updatable.addToObservable(repository);
+    final Receiver<Object> receiver = asyncSupplier.takeReceiverOrThrow();
+    receiver.accept(FIRST_VALUE);
+    receiver.accept(SECOND_VALUE);
+
+    verify(mockDisposer).accept(SECOND_VALUE);
+    assertThat(repository, has(FIRST_VALUE));
+  }
+
+  @Test
+  public void shouldNotReuseDiscardedMemoizedValue() {
+    final NewObjectFunction function = new NewObjectFunction();
+    Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesPerLoop()
+        .memoizedGetFrom(staticSupplier(FIRST_VALUE))
+        .transform(function)
+        .check(mockPredicate).orSkip()
+        .thenTransform(identityFunction())
+        .sendDiscardedValuesTo(mockDisposer)
+        .compile();
+    when(mockPredicate.apply(any())).thenReturn(false, true);
+
+    updatable.addToObservable(repository);
+    updateDispatcher.update();
+
+    verify(mockDisposer).accept(function.outputs.get(0));
+    assertThat(function.outputs.size(), is(2));
+    assertThat(repository, has(function.outputs.get(1)));
+  }
+
+  @Test
+  public void shouldRecycleDiscardedOutputOfRecyclingTransform() {
+    final RecordingRecyclingFunction function = new RecordingRecyclingFunction(true);
+    Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesPerLoop()
+        .transformRecycling(function)
+        .thenSkip()
+        .sendDiscardedValuesTo(mockDisposer)
+        .compile();
+
+    updatable.addToObservable(repository);
+    updateDispatcher.update();
+
+    assertThat(function.recycledValues, is(asList(null, function.outputs.get(0))));
+    verify(mockDisposer, never()).accept(any());
+  }
+
+  @Test
+  public void shouldRecycleReplacedOutputOfRecyclingTransform() {
+    final RecordingRecyclingFunction function = new RecordingRecyclingFunction(true);
+    Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesPerLoop()
+        .transformRecycling(function)
+        .thenTransform(staticFunction(FINAL_VALUE))
+        .sendDiscardedValuesTo(mockDisposer)
+        .compile();
+
+    updatable.addToObservable(repository);
+    updateDispatcher.update();
+
+    assertThat(function.recycledValues, is(asList(null, function.outputs.get(0))));
+    assertThat(repository, has(FINAL_VALUE));
+  }
+
+  @Test
+  public void shouldNotRecycleOutputOfRecyclingTransformUsedAsValue() {
+    final RecordingRecyclingFunction function = new RecordingRecyclingFunction(true);
+    Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesPerLoop()
+        .transformRecycling(function)
+        .thenTransform(identityFunction())
+        .sendDiscardedValuesTo(mockDisposer)
+        .compile();
+
+    updatable.addToObservable(repository);
+    updateDispatcher.update();
+
+    assertThat(function.recycledValues, is(asList(null, null)));
+    assertThat(repository, has(function.outputs.get(1)));
+  }
+
+  @Test
+  public void shouldNotRecyclePreviousValueAfterFlowEndedEarly() {
+    final RecordingRecyclingFunction function = new RecordingRecyclingFunction(true);
+    Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesPerLoop()
+        .check(mockPredicate).orEnd(staticFunction(BREAK_VALUE))
+        .transformRecycling(function)
+        .thenTransform(identityFunction())
+        .sendDiscardedValuesTo(mockDisposer)
+        .compile();
+    when(mockPredicate.apply(any())).thenReturn(true, false, true);
+
+    updatable.addToObservable(repository);
+    final Object previousValue = repository.get();
+    updateDispatcher.update();
+    assertThat(repository, has(BREAK_VALUE));
+    updateDispatcher.update();
+
+    assertThat(function.recycledValues, is(asList(null, null)));
+    assertThat(function.outputs.get(1), is(not(sameInstance(previousValue))));
+  }
+
+  @Test
+  public void shouldDiscardRecycledValueNotReused() {
+    final RecordingRecyclingFunction function = new RecordingRecyclingFunction(false);
+    Repository<Object> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe(updateDispatcher)
+        .onUpdatesPerLoop()
+        .transformRecycling(function)
+        .thenSkip()
+        .sendDiscardedValuesTo(mockDisposer)
+        .compile();
+
+    updatable.addToObservable(repository);
+    updateDispatcher.update();
+
+    verify(mockDisposer).accept(function.outputs.get(0));
+    verify(mockDisposer, never()).accept(function.outputs.get(1));
+  }
+
+  private static final class NewObjectFunction implements Function<Object, Object> {
+    final List<Object> outputs = new ArrayList<>();
+
+    @NonNull
+    @Override
+    public Object apply(@NonNull final Object input) {
+      final Object output = new Object();
+      outputs.add(output);
+      return output;
+    }
+  }
+
+  private static final class RecordingRecyclingFunction
+      implements RecyclingFunction<Object, Object> {
+    final List<Object> recycledValues = new ArrayList<>();
+    final List<Object> outputs = new ArrayList<>();
+    private final boolean reuse;
+
+    RecordingRecyclingFunction(final boolean reuse) {
+      this.reuse = reuse;
+    }
+
+    @NonNull
+    @Override
+    public Object apply(@NonNull final Object input, @Nullable final Object recycled) {
+      recycledValues.add(recycled);
+      final Object output = reuse && recycled != null ? recycled : new Object();
+      outputs.add(output);
+      return output;
+    }
+  }
 }
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.Repositories.mutableRepository;
+import static com.google.android.agera.Repositories.repositoryWithInitialValue;
+import static com.google.android.agera.Suppliers.staticSupplier;
+import static com.google.android.agera.TemplateParameter.templateParameter;
+import static com.google.android.agera.test.matchers.SupplierGives.has;
+import static com.google.android.agera.test.mocks.MockUpdatable.mockUpdatable;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.robolectric.annotation.Config.NONE;
+import static org.robolectric.shadows.ShadowLooper.idleMainLooper;
+
+import android.support.annotation.NonNull;
+import com.google.android.agera.test.mocks.MockUpdatable;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@Config(manifest = NONE)
+@RunWith(RobolectricTestRunner.class)
+public final class RepositoryTemplateTest {
+  private static final String INITIAL_VALUE = "INITIAL_VALUE";
+  private static final String FIRST_VALUE = "FIRST_VALUE";
+  private static final String SECOND_VALUE = "SECOND_VALUE";
+  private static final String SUFFIX = "!";
+  private static final int MAX_AGE_MILLIS = 1000;
+
+  private MockUpdatable updatable;
+  private Updatable mockUpdatable;
+  private TemplateParameter<String> parameter;
+  private RepositoryTemplate<String> template;
+
+  @Before
+  public void setUp() {
+    updatable = mockUpdatable();
+    mockUpdatable = mock(Updatable.class);
+    parameter = templateParameter();
+    template = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .getFrom(parameter)
+        .thenTransform(new AppendSuffixFunction())
+        .compileTemplate();
+  }
+
+  @After
+  public void tearDown() {
+    updatable.removeFromObservables();
+  }
+
+  @Test
+  public void shouldGetFromBoundSupplier() {
+    final Repository<String> repository =
+        template.instantiate(parameter.bindTo(staticSupplier(FIRST_VALUE)));
+
+    updatable.addToObservable(repository);
+
+    assertThat(repository, has(FIRST_VALUE + SUFFIX));
+  }
+
+  @Test
+  public void shouldCreateIndependentInstances() {
+    final Repository<String> firstRepository =
+        template.instantiate(parameter.bindTo(staticSupplier(FIRST_VALUE)));
+    final Repository<String> secondRepository =
+        template.instantiate(parameter.bindTo(staticSupplier(SECOND_VALUE)));
+
+    updatable.addToObservable(firstRepository);
+
+    assertThat(firstRepository, has(FIRST_VALUE + SUFFIX));
+    assertThat(secondRepository, has(INITIAL_VALUE));
+    updatable.addToObservable(secondRepository);
+    assertThat(secondRepository, has(SECOND_VALUE + SUFFIX));
+  }
+
+  @Test
+  public void shouldSubstituteParameterOfMergeInParallel() {
+    final TemplateParameter<String> otherParameter = templateParameter();
+    final RepositoryTemplate<String> parallelTemplate = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .mergeInParallel(new SyncExecutor(), singletonList(otherParameter),
+            new FirstItemMerger())
+        .thenTransform(new AppendSuffixFunction())
+        .compileTemplate();
+    final Repository<String> repository =
+        parallelTemplate.instantiate(otherParameter.bindTo(staticSupplier(SECOND_VALUE)));
+
+    updatable.addToObservable(repository);
+
+    assertThat(repository, has(SECOND_VALUE + SUFFIX));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldNotAllowUnboundParameter() {
+    template.instantiate();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotAllowGettingFromParameter() {
+    parameter.get();
+  }
+
+  @Test
+  public void shouldKeepServingFreshValueOfStaleWhileRevalidateInstance() {
+    final MutableRepository<String> source = mutableRepository(FIRST_VALUE);
+    final RepositoryTemplate<String> revalidatingTemplate =
+        repositoryWithInitialValue(INITIAL_VALUE)
+            .observe()
+            .onUpdatesPerLoop()
+            .getFrom(parameter)
+            .thenTransform(new AppendSuffixFunction())
+            .compileStaleWhileRevalidateTemplate(MAX_AGE_MILLIS);
+    final RevalidatingRepository<String> repository =
+        revalidatingTemplate.instantiate(parameter.bindTo(source));
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    repository.removeUpdatable(mockUpdatable);
+    source.accept(SECOND_VALUE);
+    idleMainLooper(MAX_AGE_MILLIS / 2);
+
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+
+    assertThat(repository, has(FIRST_VALUE + SUFFIX));
+    assertThat(repository.getValueAgeMillis(), is((long) MAX_AGE_MILLIS / 2));
+    repository.removeUpdatable(mockUpdatable);
+  }
+
+  @Test
+  public void shouldRevalidateStaleValueOfStaleWhileRevalidateInstance() {
+    final MutableRepository<String> source = mutableRepository(FIRST_VALUE);
+    final RepositoryTemplate<String> revalidatingTemplate =
+        repositoryWithInitialValue(INITIAL_VALUE)
+            .observe()
+            .onUpdatesPerLoop()
+            .getFrom(parameter)
+            .thenTransform(new AppendSuffixFunction())
+            .compileStaleWhileRevalidateTemplate(MAX_AGE_MILLIS);
+    final RevalidatingRepository<String> repository =
+        revalidatingTemplate.instantiate(parameter.bindTo(source));
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+    repository.removeUpdatable(mockUpdatable);
+    source.accept(SECOND_VALUE);
+    idleMainLooper(MAX_AGE_MILLIS);
+
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(0);
+
+    assertThat(repository, has(SECOND_VALUE + SUFFIX));
+    repository.removeUpdatable(mockUpdatable);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldNotAllowNonPositiveMaxAgeOfStaleWhileRevalidateTemplate() {
+    repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(parameter)
+        .compileStaleWhileRevalidateTemplate(0);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotAllowTemplatePersistingValue() {
+    repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(parameter)
+        .persistTo(mock(SnapshotStore.class), mock(SnapshotCodec.class))
+        .compileTemplate();
+  }
+
+  private static final class AppendSuffixFunction implements Function<String, String> {
+    @NonNull
+    @Override
+    public String apply(@NonNull final String input) {
+      return input + SUFFIX;
+    }
+  }
+
+  private static final class FirstItemMerger implements Merger<String, List<String>, String> {
+    @NonNull
+    @Override
+    public String merge(@NonNull final String input, @NonNull final List<String> values) {
+      return values.get(0);
+    }
+  }
+
+  private static final class SyncExecutor implements Executor {
+    @Override
+    public void execute(@NonNull final Runnable command) {
+      command.run();
+    }
+  }
+}
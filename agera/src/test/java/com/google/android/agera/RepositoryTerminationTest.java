@@ -17,22 +17,34 @@ package com.google.android.agera;
 
 import static com.google.android.agera.Repositories.mutableRepository;
 import static com.google.android.agera.Repositories.repositoryWithInitialValue;
+import static com.google.android.agera.RepositoryConfig.CANCEL_FLOW;
 import static com.google.android.agera.Result.failure;
 import static com.google.android.agera.Result.success;
+import static com.google.android.agera.RetryPolicies.fixedDelay;
 import static com.google.android.agera.test.matchers.SupplierGives.has;
 import static com.google.android.agera.test.matchers.UpdatableUpdated.wasNotUpdated;
 import static com.google.android.agera.test.matchers.UpdatableUpdated.wasUpdated;
 import static com.google.android.agera.test.mocks.MockUpdatable.mockUpdatable;
 import static java.util.Arrays.asList;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
 import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 import static org.robolectric.annotation.Config.NONE;
+import static org.robolectric.shadows.ShadowLooper.idleMainLooper;
 
+import com.google.android.agera.test.SingleSlotDelayedExecutor;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
 import com.google.android.agera.test.mocks.MockUpdatable;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -52,6 +64,8 @@ public final class RepositoryTerminationTest {
   private static final int VALUE = 42;
   private static final Result<Integer> SUCCESS_WITH_VALUE = success(VALUE);
   private static final Result<Integer> FAILURE = failure();
+  private static final int RETRY_DELAY = 1000;
+  private static final int TIMEOUT = 500;
 
   private MutableRepository<List<Integer>> listSource;
   private MutableRepository<List<Integer>> otherListSource;
@@ -66,6 +80,10 @@ public final class RepositoryTerminationTest {
   private Function<List<Integer>, List<Integer>> mockOtherFunction;
   @Mock
   private Supplier<Result<Integer>> mockAttemptSupplier;
+  @Mock
+  private Function<Integer, Result<Integer>> mockAttemptFunction;
+  @Mock
+  private Updatable mockUpdatable;
 
   @Before
   public void setUp() {
@@ -165,4 +183,278 @@ public final class RepositoryTerminationTest {
 
     assertThat(repository, has(VALUE));
   }
+
+  @Test
+  public void shouldRetryAttemptGetFromUntilItSucceeds() {
+    when(mockAttemptSupplier.get()).thenReturn(FAILURE, FAILURE, SUCCESS_WITH_VALUE);
+
+    final Repository<Integer> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .attemptGetFrom(mockAttemptSupplier).retry(fixedDelay(5, RETRY_DELAY)).orSkip()
+        .thenTransform(Functions.<Integer>identityFunction())
+        .compile();
+
+    repository.addUpdatable(mockUpdatable);
+    verify(mockAttemptSupplier, times(1)).get();
+
+    idleMainLooper(RETRY_DELAY);
+    verify(mockAttemptSupplier, times(2)).get();
+
+    idleMainLooper(RETRY_DELAY);
+    verify(mockAttemptSupplier, times(3)).get();
+    assertThat(repository, has(VALUE));
+    repository.removeUpdatable(mockUpdatable);
+  }
+
+  @Test
+  public void shouldTerminateAfterLastRetryFails() {
+    when(mockAttemptSupplier.get()).thenReturn(FAILURE);
+
+    final Repository<Integer> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .attemptGetFrom(mockAttemptSupplier).retry(fixedDelay(3, RETRY_DELAY))
+        .orEnd(Functions.<Throwable, Integer>staticFunction(VALUE))
+        .thenTransform(Functions.<Integer>identityFunction())
+        .compile();
+
+    repository.addUpdatable(mockUpdatable);
+    idleMainLooper(RETRY_DELAY);
+    idleMainLooper(RETRY_DELAY);
+    idleMainLooper(RETRY_DELAY);
+
+    verify(mockAttemptSupplier, times(3)).get();
+    assertThat(repository, has(VALUE));
+    repository.removeUpdatable(mockUpdatable);
+  }
+
+  @Test
+  public void shouldRetryAttemptTransformWithSameInput() {
+    when(mockAttemptFunction.apply(INITIAL_VALUE)).thenReturn(FAILURE, SUCCESS_WITH_VALUE);
+
+    final Repository<Integer> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenAttemptTransform(mockAttemptFunction).retry(fixedDelay(2, RETRY_DELAY)).orSkip()
+        .compile();
+
+    updatable.addToObservable(repository);
+
+    verify(mockAttemptFunction, times(2)).apply(INITIAL_VALUE);
+    assertThat(repository, has(VALUE));
+  }
+
+  @Test
+  public void shouldRetryOnExecutorOfPrecedingGoTo() {
+    when(mockAttemptSupplier.get()).thenReturn(FAILURE, SUCCESS_WITH_VALUE);
+    final SingleSlotDelayedExecutor executor = new SingleSlotDelayedExecutor();
+
+    final Repository<Integer> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .goTo(executor)
+        .attemptGetFrom(mockAttemptSupplier).retry(fixedDelay(2, RETRY_DELAY)).orSkip()
+        .thenTransform(Functions.<Integer>identityFunction())
+        .compile();
+
+    repository.addUpdatable(mockUpdatable);
+    executor.resumeOrThrow();
+    verify(mockAttemptSupplier, times(1)).get();
+    assertThat(executor.hasRunnable(), is(false));
+
+    idleMainLooper(RETRY_DELAY);
+    assertThat(executor.hasRunnable(), is(true));
+    executor.resumeOrThrow();
+
+    verify(mockAttemptSupplier, times(2)).get();
+    assertThat(repository, has(VALUE));
+    repository.removeUpdatable(mockUpdatable);
+  }
+
+  @Test
+  public void shouldNotRetryAfterCancellation() {
+    when(mockAttemptSupplier.get()).thenReturn(FAILURE);
+
+    final Repository<Integer> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .attemptGetFrom(mockAttemptSupplier).retry(fixedDelay(5, RETRY_DELAY)).orSkip()
+        .thenTransform(Functions.<Integer>identityFunction())
+        .onDeactivation(CANCEL_FLOW)
+        .compile();
+
+    repository.addUpdatable(mockUpdatable);
+    repository.removeUpdatable(mockUpdatable);
+    idleMainLooper(RETRY_DELAY * 10);
+
+    verify(mockAttemptSupplier, times(1)).get();
+    assertThat(repository, has(INITIAL_VALUE));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotAllowRetryAfterCheck() {
+    repositoryWithInitialValue(INITIAL_LIST)
+        .observe()
+        .onUpdatesPerLoop()
+        .check(mockPredicate).retry(fixedDelay(2, RETRY_DELAY));
+  }
+
+  @Test
+  public void shouldEndWithTimeoutFailureOfHungAttemptOnGoToExecutor() throws Exception {
+    final BlockingSupplier blockingSupplier = new BlockingSupplier();
+    final SingleSlotDelayedExecutor executor = new SingleSlotDelayedExecutor();
+    final Repository<Integer> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .goTo(executor)
+        .withTimeout(TIMEOUT)
+        .attemptGetFrom(blockingSupplier)
+        .orEnd(new TimeoutToValueFunction())
+        .thenTransform(Functions.<Integer>identityFunction())
+        .sendDiscardedValuesTo(mockReceiver)
+        .compile();
+
+    repository.addUpdatable(mockUpdatable);
+    final Thread thread = resumeOnNewThread(executor);
+    blockingSupplier.called.await();
+
+    idleMainLooper(TIMEOUT);
+    thread.join();
+    executor.resumeOrThrow();
+
+    assertThat(blockingSupplier.interrupted, is(true));
+    assertThat(repository, has(VALUE));
+    verify(mockReceiver).accept(FAILURE);
+    repository.removeUpdatable(mockUpdatable);
+  }
+
+  @Test
+  public void shouldEndWithTimeoutFailureOfLateAttemptOnWorkerThread() {
+    final Repository<Integer> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .withTimeout(TIMEOUT)
+        .attemptGetFrom(new SleepingSupplier(TIMEOUT))
+        .orEnd(new TimeoutToValueFunction())
+        .thenTransform(Functions.<Integer>identityFunction())
+        .compile();
+
+    updatable.addToObservable(repository);
+
+    assertThat(repository, has(VALUE));
+  }
+
+  @Test
+  public void shouldUseValueOfTimedAttemptCompletedInTime() {
+    when(mockAttemptSupplier.get()).thenReturn(success(INITIAL_VALUE + 1));
+
+    final Repository<Integer> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .withTimeout(TIMEOUT)
+        .attemptGetFrom(mockAttemptSupplier).orSkip()
+        .thenTransform(Functions.<Integer>identityFunction())
+        .compile();
+
+    updatable.addToObservable(repository);
+    idleMainLooper(TIMEOUT);
+
+    assertThat(repository, has(INITIAL_VALUE + 1));
+  }
+
+  @Test
+  public void shouldSkipFlowOnTimeoutOfNonAttemptDirective() throws Exception {
+    final BlockingSupplier blockingSupplier = new BlockingSupplier();
+    final SingleSlotDelayedExecutor executor = new SingleSlotDelayedExecutor();
+    final Repository<Result<Integer>> repository = repositoryWithInitialValue(SUCCESS_WITH_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .goTo(executor)
+        .withTimeout(TIMEOUT)
+        .thenGetFrom(blockingSupplier)
+        .compile();
+
+    repository.addUpdatable(mockUpdatable);
+    final Thread thread = resumeOnNewThread(executor);
+    blockingSupplier.called.await();
+
+    idleMainLooper(TIMEOUT);
+    thread.join();
+
+    assertThat(executor.hasRunnable(), is(false));
+    assertThat(repository, has(SUCCESS_WITH_VALUE));
+    verify(mockUpdatable, never()).update();
+    repository.removeUpdatable(mockUpdatable);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotAllowTimeoutBeforeSendTo() {
+    repositoryWithInitialValue(INITIAL_LIST)
+        .observe()
+        .onUpdatesPerLoop()
+        .withTimeout(TIMEOUT)
+        .sendTo(mockReceiver);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldNotAllowNonPositiveTimeout() {
+    repositoryWithInitialValue(INITIAL_LIST)
+        .observe()
+        .onUpdatesPerLoop()
+        .withTimeout(0);
+  }
+
+  @NonNull
+  private static Thread resumeOnNewThread(@NonNull final SingleSlotDelayedExecutor executor) {
+    final Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        executor.resumeOrThrow();
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  private static final class BlockingSupplier implements Supplier<Result<Integer>> {
+    final CountDownLatch called = new CountDownLatch(1);
+    volatile boolean interrupted;
+
+    @NonNull
+    @Override
+    public Result<Integer> get() {
+      called.countDown();
+      try {
+        new CountDownLatch(1).await();
+      } catch (final InterruptedException e) {
+        interrupted = true;
+      }
+      return FAILURE;
+    }
+  }
+
+  private static final class SleepingSupplier implements Supplier<Result<Integer>> {
+    private final int millis;
+
+    SleepingSupplier(final int millis) {
+      this.millis = millis;
+    }
+
+    @NonNull
+    @Override
+    public Result<Integer> get() {
+      SystemClock.sleep(millis);
+      return success(INITIAL_VALUE + 1);
+    }
+  }
+
+  private static final class TimeoutToValueFunction implements Function<Throwable, Integer> {
+    @NonNull
+    @Override
+    public Integer apply(@NonNull final Throwable input) {
+      assertThat(input, instanceOf(TimeoutException.class));
+      return VALUE;
+    }
+  }
 }
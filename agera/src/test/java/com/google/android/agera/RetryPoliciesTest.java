@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.RetryPolicies.exponentialBackoff;
+import static com.google.android.agera.RetryPolicies.fixedDelay;
+import static com.google.android.agera.test.matchers.HasPrivateConstructor.hasPrivateConstructor;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import org.junit.Test;
+
+public final class RetryPoliciesTest {
+  private static final Throwable FAILURE = new Throwable();
+
+  @Test
+  public void shouldDoubleDelayUpToMaxDelay() {
+    final RetryPolicy policy = exponentialBackoff(10, 100, 500, 0);
+
+    assertThat(policy.retryDelayMillis(1, FAILURE), is(100L));
+    assertThat(policy.retryDelayMillis(2, FAILURE), is(200L));
+    assertThat(policy.retryDelayMillis(3, FAILURE), is(400L));
+    assertThat(policy.retryDelayMillis(4, FAILURE), is(500L));
+    assertThat(policy.retryDelayMillis(9, FAILURE), is(500L));
+  }
+
+  @Test
+  public void shouldStopRetryingAfterMaxAttempts() {
+    final RetryPolicy policy = exponentialBackoff(3, 100, 500, 0);
+
+    assertThat(policy.retryDelayMillis(2, FAILURE), is(200L));
+    assertThat(policy.retryDelayMillis(3, FAILURE), is(-1L));
+  }
+
+  @Test
+  public void shouldReduceDelayByUpToJitter() {
+    final RetryPolicy policy = exponentialBackoff(10, 1000, 1000, 0.25);
+
+    for (int i = 0; i < 100; i++) {
+      assertThat(policy.retryDelayMillis(1, FAILURE),
+          allOf(greaterThanOrEqualTo(750L), lessThanOrEqualTo(1000L)));
+    }
+  }
+
+  @Test
+  public void shouldRetryWithFixedDelay() {
+    final RetryPolicy policy = fixedDelay(3, 100);
+
+    assertThat(policy.retryDelayMillis(1, FAILURE), is(100L));
+    assertThat(policy.retryDelayMillis(2, FAILURE), is(100L));
+    assertThat(policy.retryDelayMillis(3, FAILURE), is(-1L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldThrowForZeroMaxAttempts() {
+    exponentialBackoff(0, 100, 500, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldThrowForMaxDelayLessThanInitialDelay() {
+    exponentialBackoff(3, 500, 100, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldThrowForJitterAboveOne() {
+    exponentialBackoff(3, 100, 500, 2);
+  }
+
+  @Test
+  public void shouldHavePrivateConstructor() {
+    assertThat(RetryPolicies.class, hasPrivateConstructor());
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.Observables.compositeObservable;
+import static com.google.android.agera.Observables.sharedCompositeObservable;
+import static com.google.android.agera.Observables.updateDispatcher;
+import static com.google.android.agera.Repositories.repositoryWithInitialValue;
+import static com.google.android.agera.Suppliers.staticSupplier;
+import static java.lang.Math.min;
+import static java.lang.System.nanoTime;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assume.assumeTrue;
+import static org.robolectric.annotation.Config.NONE;
+import static org.robolectric.shadows.ShadowLooper.getShadowMainLooper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+/**
+ * Measures compiled repositories sharing the composite observable of their event sources, on the
+ * Robolectric main looper. Skipped unless run with {@code ./gradlew :agera:test -Pbenchmark},
+ * which prints the best time of several rounds of each measurement.
+ */
+@Config(manifest = NONE)
+@RunWith(RobolectricTestRunner.class)
+public final class SharedCompositeObservableBenchmark {
+  private static final int SOURCES = 20;
+  private static final int REPOSITORIES = 1000;
+  private static final int COMPOSED_OBSERVABLES = 2000;
+  private static final int ROUNDS = 7;
+  private static final Updatable NO_OP_UPDATABLE = new Updatable() {
+    @Override
+    public void update() {}
+  };
+
+  private UpdateDispatcher[] sources;
+  private ShadowLooper looper;
+
+  @Before
+  public void setUp() {
+    assumeTrue("Benchmarks run with -Pbenchmark", Boolean.getBoolean("agera.benchmark"));
+    sources = new UpdateDispatcher[SOURCES];
+    for (int i = 0; i < SOURCES; i++) {
+      sources[i] = updateDispatcher();
+    }
+    looper = getShadowMainLooper();
+  }
+
+  @Test
+  public void compileActivateAndUpdateRepositoriesObservingSameSources() {
+    long compileNanos = Long.MAX_VALUE;
+    long activateNanos = Long.MAX_VALUE;
+    long updateNanos = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++) {
+      final Repository[] repositories = new Repository[REPOSITORIES];
+      final long startNanos = nanoTime();
+      for (int i = 0; i < REPOSITORIES; i++) {
+        repositories[i] = repositoryWithInitialValue(0)
+            .observe(sources)
+            .onUpdatesPerLoop()
+            .thenGetFrom(staticSupplier(i))
+            .compile();
+      }
+      final long compiledNanos = nanoTime();
+      for (final Repository repository : repositories) {
+        repository.addUpdatable(NO_OP_UPDATABLE);
+      }
+      looper.runToEndOfTasks();
+      final long activatedNanos = nanoTime();
+      for (final UpdateDispatcher source : sources) {
+        source.update();
+      }
+      looper.runToEndOfTasks();
+      final long updatedNanos = nanoTime();
+      for (final Repository repository : repositories) {
+        repository.removeUpdatable(NO_OP_UPDATABLE);
+      }
+      looper.runToEndOfTasks();
+      compileNanos = min(compileNanos, compiledNanos - startNanos);
+      activateNanos = min(activateNanos, activatedNanos - compiledNanos);
+      updateNanos = min(updateNanos, updatedNanos - activatedNanos);
+    }
+    print("compile " + REPOSITORIES + " repositories", compileNanos);
+    print("activate " + REPOSITORIES + " repositories", activateNanos);
+    print("update all " + SOURCES + " sources, drain", updateNanos);
+  }
+
+  @Test
+  public void lookUpSharedCompositeObservableOfSameSources() {
+    long lookUpNanos = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++) {
+      // Hold the first one so that the others are looked up rather than created.
+      final Observable shared = sharedCompositeObservable(0, sources);
+      final long startNanos = nanoTime();
+      for (int i = 0; i < REPOSITORIES; i++) {
+        sharedCompositeObservable(0, sources);
+      }
+      lookUpNanos = min(lookUpNanos, nanoTime() - startNanos);
+      assertThat(sharedCompositeObservable(0, sources), is(sameInstance(shared)));
+    }
+    print("look up shared composite " + REPOSITORIES + " times", lookUpNanos);
+  }
+
+  @Test
+  public void composeManyObservables() {
+    final Observable[] observables = new Observable[COMPOSED_OBSERVABLES];
+    for (int i = 0; i < COMPOSED_OBSERVABLES; i++) {
+      observables[i] = sources[i % SOURCES];
+    }
+    long composeNanos = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++) {
+      final long startNanos = nanoTime();
+      compositeObservable(observables);
+      composeNanos = min(composeNanos, nanoTime() - startNanos);
+    }
+    print("compositeObservable of " + COMPOSED_OBSERVABLES, composeNanos);
+  }
+
+  private static void print(final String measurement, final long nanos) {
+    System.out.printf("%-40s %8.2fms%n", measurement, nanos / 1e6);
+  }
+}
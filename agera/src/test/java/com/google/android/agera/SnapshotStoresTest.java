@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.SnapshotStores.fileSnapshotStore;
+import static com.google.android.agera.test.matchers.HasPrivateConstructor.hasPrivateConstructor;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.File;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class SnapshotStoresTest {
+  private static final byte[] SNAPSHOT = {1, 2, 3};
+  private static final byte[] OTHER_SNAPSHOT = {4, 5};
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void shouldReadAbsentSnapshotFromMissingFile() {
+    final SnapshotStore store = fileSnapshotStore(new File(folder.getRoot(), "snapshot"));
+
+    assertThat(store.read().isAbsent(), is(true));
+  }
+
+  @Test
+  public void shouldReadLastWrittenSnapshot() {
+    final File file = new File(folder.getRoot(), "snapshot");
+    final SnapshotStore store = fileSnapshotStore(file);
+
+    store.write(SNAPSHOT);
+    store.write(OTHER_SNAPSHOT);
+
+    assertThat(fileSnapshotStore(file).read().get(), is(OTHER_SNAPSHOT));
+  }
+
+  @Test
+  public void shouldNotLeaveTemporaryFileBehind() {
+    final File file = new File(folder.getRoot(), "snapshot");
+
+    fileSnapshotStore(file).write(SNAPSHOT);
+
+    assertThat(folder.getRoot().list(), is(new String[] {"snapshot"}));
+  }
+
+  @Test
+  public void shouldHavePrivateConstructor() {
+    assertThat(SnapshotStores.class, hasPrivateConstructor());
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.Predicates.falsePredicate;
+import static com.google.android.agera.Repositories.repositoryWithInitialValue;
+import static com.google.android.agera.Suppliers.staticSupplier;
+import static com.google.android.agera.TemplateParameter.templateParameter;
+import static com.google.android.agera.test.mocks.MockUpdatable.mockUpdatable;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.robolectric.annotation.Config.NONE;
+
+import com.google.android.agera.StartupProfiler.Recording;
+import com.google.android.agera.StartupProfiler.Report;
+import com.google.android.agera.StartupProfiler.RepositoryProfile;
+import com.google.android.agera.test.mocks.MockUpdatable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@Config(manifest = NONE)
+@RunWith(RobolectricTestRunner.class)
+public final class StartupProfilerTest {
+  private static final String INITIAL_VALUE = "INITIAL_VALUE";
+  private static final String VALUE = "VALUE";
+
+  private MockUpdatable updatable;
+
+  @Before
+  public void setUp() {
+    updatable = mockUpdatable();
+  }
+
+  @After
+  public void tearDown() {
+    updatable.removeFromObservables();
+  }
+
+  @Test
+  public void shouldRecordCompilationOnly() {
+    StartupProfiler.startProfiling();
+    repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(staticSupplier(VALUE))
+        .compile();
+    final Report report = StartupProfiler.stopProfiling();
+
+    assertThat(report.getRepositoryProfiles(), hasSize(1));
+    final RepositoryProfile profile = report.getRepositoryProfiles().get(0);
+    assertThat(profile.getCompilationSite(), containsString(getClass().getName()));
+    assertThat(profile.getCompileNanos(), greaterThanOrEqualTo(0L));
+    assertThat(profile.getActivationNanos(), is(-1L));
+    assertThat(profile.getFirstValueNanos(), is(-1L));
+    assertThat(report.getMaxFirstValueNanos(), is(-1L));
+  }
+
+  @Test
+  public void shouldRecordActivationAndFirstValue() {
+    StartupProfiler.startProfiling();
+    final Repository<String> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(staticSupplier(VALUE))
+        .compile();
+    updatable.addToObservable(repository);
+    final Report report = StartupProfiler.stopProfiling();
+
+    final RepositoryProfile profile = report.getRepositoryProfiles().get(0);
+    assertThat(profile.getActivationNanos(), greaterThanOrEqualTo(0L));
+    assertThat(profile.getFirstValueNanos(), greaterThanOrEqualTo(profile.getActivationNanos()));
+    assertThat(report.getMaxFirstValueNanos(), is(profile.getFirstValueNanos()));
+    assertThat(report.getTotalCompileNanos(), is(profile.getCompileNanos()));
+  }
+
+  @Test
+  public void shouldListRepositoriesWithoutValueLast() {
+    StartupProfiler.startProfiling();
+    final Repository<String> skippingRepository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .check(falsePredicate()).orSkip()
+        .thenGetFrom(staticSupplier(VALUE))
+        .compile();
+    final Repository<String> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(staticSupplier(VALUE))
+        .compile();
+    updatable.addToObservable(skippingRepository);
+    updatable.addToObservable(repository);
+    final Report report = StartupProfiler.stopProfiling();
+
+    assertThat(report.getRepositoryProfiles(), hasSize(2));
+    assertThat(report.getRepositoryProfiles().get(0).getFirstValueNanos(),
+        greaterThanOrEqualTo(0L));
+    assertThat(report.getRepositoryProfiles().get(1).getActivationNanos(),
+        greaterThanOrEqualTo(0L));
+    assertThat(report.getRepositoryProfiles().get(1).getFirstValueNanos(), is(-1L));
+  }
+
+  @Test
+  public void shouldRecordTemplateInstantiation() {
+    final TemplateParameter<String> parameter = templateParameter();
+    final RepositoryTemplate<String> template = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(parameter)
+        .compileTemplate();
+    StartupProfiler.startProfiling();
+    template.instantiate(parameter.bindTo(staticSupplier(VALUE)));
+    final Report report = StartupProfiler.stopProfiling();
+
+    assertThat(report.getRepositoryProfiles(), hasSize(1));
+    assertThat(report.getRepositoryProfiles().get(0).getCompilationSite(),
+        containsString(getClass().getName()));
+  }
+
+  @Test
+  public void shouldNotRecordRepositoriesCompiledBeforeProfiling() {
+    final Repository<String> repository = repositoryWithInitialValue(INITIAL_VALUE)
+        .observe()
+        .onUpdatesPerLoop()
+        .thenGetFrom(staticSupplier(VALUE))
+        .compile();
+    StartupProfiler.startProfiling();
+    updatable.addToObservable(repository);
+
+    assertThat(StartupProfiler.stopProfiling().getRepositoryProfiles(), is(empty()));
+  }
+
+  @Test
+  public void shouldNotRecordStagesReachedAfterStopping() {
+    StartupProfiler.startProfiling();
+    final Recording recording = StartupProfiler.startRecording();
+    StartupProfiler.stopProfiling();
+
+    recording.firstUpdatableAdded();
+    recording.activated();
+    recording.valueProduced();
+
+    final RepositoryProfile profile = recording.close();
+    assertThat(profile.getActivationNanos(), is(-1L));
+    assertThat(profile.getFirstValueNanos(), is(-1L));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotAllowStartingTwice() {
+    StartupProfiler.startProfiling();
+    try {
+      StartupProfiler.startProfiling();
+    } finally {
+      StartupProfiler.stopProfiling();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotAllowStoppingWithoutStarting() {
+    StartupProfiler.stopProfiling();
+  }
+}
@@ -15,14 +15,26 @@
  */
 package com.google.android.agera;
 
+import static com.google.android.agera.CancellationTokens.enterCancellationToken;
 import static com.google.android.agera.Suppliers.functionAsSupplier;
+import static com.google.android.agera.Suppliers.singleFlightSupplier;
 import static com.google.android.agera.Suppliers.staticSupplier;
 import static com.google.android.agera.test.matchers.HasPrivateConstructor.hasPrivateConstructor;
 import static com.google.android.agera.test.matchers.SupplierGives.gives;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -30,14 +42,19 @@ import org.mockito.Mock;
 public final class SuppliersTest {
   private static final Object ITEM = new Object();
   private static final Object RETURN_ITEM = new Object();
+  private static final Object KEY = new Object();
+  private static final Object OTHER_KEY = new Object();
 
   @Mock
   private Function<Object, Object> mockFunction;
+  @Mock
+  private Supplier<Object> mockSupplier;
 
   @Before
   public void setUp() {
     initMocks(this);
     when(mockFunction.apply(ITEM)).thenReturn(RETURN_ITEM);
+    when(mockSupplier.get()).thenReturn(ITEM);
   }
 
   @Test
@@ -50,8 +67,204 @@ public final class SuppliersTest {
     assertThat(staticSupplier(ITEM), gives(ITEM));
   }
 
+  @Test
+  public void shouldCallSupplierForEachSequentialCallOfSingleFlightSupplier() {
+    final Supplier<Object> supplier = singleFlightSupplier(KEY, mockSupplier);
+
+    assertThat(supplier, gives(ITEM));
+    assertThat(supplier, gives(ITEM));
+    verify(mockSupplier, times(2)).get();
+  }
+
+  @Test
+  public void shouldShareOngoingCallAmongSingleFlightSuppliersWithEqualKeys() throws Exception {
+    final BlockingSupplier blockingSupplier = new BlockingSupplier();
+    final GettingThread leader = new GettingThread(singleFlightSupplier(KEY, blockingSupplier));
+    final GettingThread follower = new GettingThread(singleFlightSupplier(KEY, mockSupplier));
+
+    leader.start();
+    blockingSupplier.called.await();
+    follower.start();
+    waitUntilWaiting(follower);
+    blockingSupplier.release.countDown();
+    leader.join();
+    follower.join();
+
+    assertThat(follower.value, is(sameInstance(leader.value)));
+    verify(mockSupplier, never()).get();
+  }
+
+  @Test
+  public void shouldNotShareCallsAmongSingleFlightSuppliersWithDifferentKeys() throws Exception {
+    final BlockingSupplier blockingSupplier = new BlockingSupplier();
+    final GettingThread thread = new GettingThread(singleFlightSupplier(KEY, blockingSupplier));
+
+    thread.start();
+    blockingSupplier.called.await();
+    assertThat(singleFlightSupplier(OTHER_KEY, mockSupplier), gives(ITEM));
+    blockingSupplier.release.countDown();
+    thread.join();
+  }
+
+  @Test
+  public void shouldRethrowFailureOfSharedCall() throws Exception {
+    final BlockingSupplier blockingSupplier = new BlockingSupplier();
+    blockingSupplier.failure = new IllegalStateException();
+    final GettingThread leader = new GettingThread(singleFlightSupplier(KEY, blockingSupplier));
+    final GettingThread follower = new GettingThread(singleFlightSupplier(KEY, mockSupplier));
+
+    leader.start();
+    blockingSupplier.called.await();
+    follower.start();
+    waitUntilWaiting(follower);
+    blockingSupplier.release.countDown();
+    leader.join();
+    follower.join();
+
+    assertThat(leader.failure, is(sameInstance((Throwable) blockingSupplier.failure)));
+    assertThat(follower.failure, is(sameInstance((Throwable) blockingSupplier.failure)));
+  }
+
+  @Test
+  public void shouldStopWaitingForSharedCallWhenInterrupted() throws Exception {
+    final BlockingSupplier blockingSupplier = new BlockingSupplier();
+    final GettingThread leader = new GettingThread(singleFlightSupplier(KEY, blockingSupplier));
+    final GettingThread follower = new GettingThread(singleFlightSupplier(KEY, mockSupplier));
+
+    leader.start();
+    blockingSupplier.called.await();
+    follower.start();
+    waitUntilWaiting(follower);
+    follower.interrupt();
+    follower.join();
+
+    assertThat(follower.failure, is(instanceOf(CancellationException.class)));
+    assertThat(follower.interrupted, is(true));
+    blockingSupplier.release.countDown();
+    leader.join();
+    assertThat(leader.failure, is((Throwable) null));
+    verify(mockSupplier, never()).get();
+  }
+
+  @Test
+  public void shouldStopWaitingForSharedCallWhenCancellationIsRequested() throws Exception {
+    final BlockingSupplier blockingSupplier = new BlockingSupplier();
+    final SettableCancellationToken cancellationToken = new SettableCancellationToken();
+    final GettingThread leader = new GettingThread(singleFlightSupplier(KEY, blockingSupplier));
+    final GettingThread follower =
+        new GettingThread(singleFlightSupplier(KEY, mockSupplier), cancellationToken);
+
+    leader.start();
+    blockingSupplier.called.await();
+    follower.start();
+    waitUntilWaiting(follower);
+    cancellationToken.cancellationRequested = true;
+    follower.join();
+
+    assertThat(follower.failure, is(instanceOf(CancellationException.class)));
+    assertThat(follower.interrupted, is(false));
+    blockingSupplier.release.countDown();
+    leader.join();
+    assertThat(leader.failure, is((Throwable) null));
+    verify(mockSupplier, never()).get();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldThrowForReentrantCallOfSingleFlightSupplierWithEqualKey() {
+    reentrantSingleFlightSupplier().get();
+  }
+
+  @Test
+  public void shouldCallSupplierAfterReentrantCallOfSingleFlightSupplierFailed() {
+    try {
+      reentrantSingleFlightSupplier().get();
+    } catch (final IllegalStateException expected) {
+      // The failed call must not leave its flight behind.
+    }
+
+    assertThat(singleFlightSupplier(KEY, mockSupplier), gives(ITEM));
+  }
+
   @Test
   public void shouldHavePrivateConstructor() {
     assertThat(Suppliers.class, hasPrivateConstructor());
   }
+
+  @NonNull
+  private Supplier<Object> reentrantSingleFlightSupplier() {
+    return singleFlightSupplier(KEY, new Supplier<Object>() {
+      @NonNull
+      @Override
+      public Object get() {
+        return singleFlightSupplier(KEY, mockSupplier).get();
+      }
+    });
+  }
+
+  private static void waitUntilWaiting(@NonNull final Thread thread) throws InterruptedException {
+    while (thread.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(1);
+    }
+  }
+
+  private static final class BlockingSupplier implements Supplier<Object> {
+    final CountDownLatch called = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    volatile RuntimeException failure;
+
+    @NonNull
+    @Override
+    public Object get() {
+      called.countDown();
+      try {
+        release.await();
+      } catch (final InterruptedException e) {
+        throw new AssertionError(e);
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return new Object();
+    }
+  }
+
+  private static final class SettableCancellationToken implements CancellationToken {
+    volatile boolean cancellationRequested;
+
+    @Override
+    public boolean isCancellationRequested() {
+      return cancellationRequested;
+    }
+  }
+
+  private static final class GettingThread extends Thread {
+    @NonNull
+    private final Supplier<Object> supplier;
+    @Nullable
+    private final CancellationToken cancellationToken;
+    volatile Object value;
+    volatile Throwable failure;
+    volatile boolean interrupted;
+
+    GettingThread(@NonNull final Supplier<Object> supplier) {
+      this(supplier, null);
+    }
+
+    GettingThread(@NonNull final Supplier<Object> supplier,
+        @Nullable final CancellationToken cancellationToken) {
+      this.supplier = supplier;
+      this.cancellationToken = cancellationToken;
+    }
+
+    @Override
+    public void run() {
+      enterCancellationToken(cancellationToken);
+      try {
+        value = supplier.get();
+      } catch (final RuntimeException e) {
+        failure = e;
+      }
+      interrupted = isInterrupted();
+    }
+  }
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera;
+
+import static com.google.android.agera.WorkerHandler.MSG_CALL_UPDATABLE;
+import static com.google.android.agera.WorkerHandler.workerHandler;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.robolectric.annotation.Config.NONE;
+import static org.robolectric.shadows.ShadowLooper.getShadowMainLooper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+@Config(manifest = NONE)
+@RunWith(RobolectricTestRunner.class)
+public final class WorkerHandlerTest {
+  private static final Object TOKEN = new Object();
+  private static final Object OTHER_TOKEN = new Object();
+
+  @Mock
+  private Updatable mockUpdatable;
+  @Mock
+  private Updatable mockOtherUpdatable;
+  private WorkerHandler handler;
+  private ShadowLooper looper;
+
+  @Before
+  public void setUp() {
+    initMocks(this);
+    handler = workerHandler();
+    looper = getShadowMainLooper();
+    looper.pause();
+  }
+
+  @After
+  public void tearDown() {
+    looper.unPause();
+  }
+
+  @Test
+  public void shouldCallUrgentlyUpdatedUpdatablesInOrder() {
+    handler.update(mockUpdatable, TOKEN, true);
+    handler.update(mockOtherUpdatable, TOKEN, true);
+
+    looper.runToEndOfTasks();
+
+    final InOrder inOrder = inOrder(mockUpdatable, mockOtherUpdatable);
+    inOrder.verify(mockUpdatable).update();
+    inOrder.verify(mockOtherUpdatable).update();
+  }
+
+  @Test
+  public void shouldNotCallUrgentlyUpdatedUpdatableAfterRemoval() {
+    handler.update(mockUpdatable, TOKEN, true);
+    handler.update(mockOtherUpdatable, TOKEN, true);
+
+    handler.removeUpdatable(mockUpdatable, TOKEN);
+    looper.runToEndOfTasks();
+
+    verify(mockUpdatable, never()).update();
+    verify(mockOtherUpdatable).update();
+  }
+
+  @Test
+  public void shouldCallUrgentlyUpdatedUpdatableAfterRemovalForOneOfTwoTokens() {
+    handler.update(mockUpdatable, TOKEN, true);
+    handler.update(mockUpdatable, OTHER_TOKEN, true);
+
+    handler.removeUpdatable(mockUpdatable, TOKEN);
+    looper.runToEndOfTasks();
+
+    verify(mockUpdatable).update();
+  }
+
+  @Test
+  public void shouldNotHandlePurgedUrgentMessage() {
+    handler.update(mockUpdatable, TOKEN, true);
+
+    handler.purgeMessages(MSG_CALL_UPDATABLE, mockUpdatable);
+    looper.runToEndOfTasks();
+
+    verify(mockUpdatable, never()).update();
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.agera.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.google.android.agera.AsyncSupplier;
+import com.google.android.agera.Receiver;
+
+public final class SingleSlotDelayedAsyncSupplier<T> implements AsyncSupplier<T> {
+  @Nullable
+  private Receiver<? super T> receiver;
+
+  @Override
+  public void get(@NonNull final Receiver<? super T> receiver) {
+    assertThat("delayedAsyncSupplier cannot hold more than one Receiver", this.receiver,
+        is(nullValue()));
+    this.receiver = receiver;
+  }
+
+  public boolean hasReceiver() {
+    return receiver != null;
+  }
+
+  @NonNull
+  public Receiver<? super T> takeReceiverOrThrow() {
+    final Receiver<? super T> receiver = this.receiver;
+    assertThat("delayedAsyncSupplier should have held a Receiver for takeReceiverOrThrow()",
+        receiver, is(notNullValue()));
+    this.receiver = null;
+    //noinspection ConstantConditions
+    return receiver;
+  }
+
+  public void deliverOrThrow(@NonNull final T value) {
+    takeReceiverOrThrow().accept(value);
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.google.android.agera.database;
 
+import static com.google.android.agera.CancellationTokens.currentCancellationToken;
 import static com.google.android.agera.Preconditions.checkNotNull;
 import static com.google.android.agera.Result.failure;
 import static com.google.android.agera.Result.success;
@@ -23,6 +24,7 @@ import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.support.annotation.NonNull;
+import com.google.android.agera.CancellationToken;
 import com.google.android.agera.Function;
 import com.google.android.agera.Merger;
 import com.google.android.agera.Result;
@@ -30,6 +32,7 @@ import com.google.android.agera.Supplier;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 
 /**
  * Utility methods for obtaining database querying {@link Function} instances.
@@ -141,7 +144,11 @@ public final class SqlDatabaseFunctions {
             return success(Collections.<T>emptyList());
           }
           final List<T> items = new ArrayList<>(count);
+          final CancellationToken cancellationToken = currentCancellationToken();
           while (cursor.moveToNext()) {
+            if (cancellationToken.isCancellationRequested()) {
+              return failure(new CancellationException());
+            }
             items.add(cursorToItem.apply(cursor));
           }
           return success(items);
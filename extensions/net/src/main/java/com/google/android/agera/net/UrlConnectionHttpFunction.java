@@ -15,17 +15,20 @@
  */
 package com.google.android.agera.net;
 
+import static com.google.android.agera.CancellationTokens.currentCancellationToken;
 import static com.google.android.agera.Result.failure;
 import static com.google.android.agera.Result.success;
 import static com.google.android.agera.net.HttpResponse.httpResponse;
 import static java.util.Locale.US;
 
 import android.support.annotation.NonNull;
+import com.google.android.agera.CancellationToken;
 import com.google.android.agera.Function;
 import com.google.android.agera.Result;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -41,11 +44,13 @@ final class UrlConnectionHttpFunction implements Function<HttpRequest, Result<Ht
   @Override
   @NonNull
   public Result<HttpResponse> apply(@NonNull final HttpRequest request) {
+    final CancellationToken cancellationToken = currentCancellationToken();
     try {
+      checkNotCancelled(cancellationToken);
       final HttpURLConnection connection =
           (HttpURLConnection) new URL(request.url).openConnection();
       try {
-        return success(getHttpResponseResult(request, connection));
+        return success(getHttpResponseResult(request, connection, cancellationToken));
       } finally {
         connection.disconnect();
       }
@@ -56,7 +61,8 @@ final class UrlConnectionHttpFunction implements Function<HttpRequest, Result<Ht
 
   @NonNull
   private HttpResponse getHttpResponseResult(final @NonNull HttpRequest request,
-      @NonNull final HttpURLConnection connection) throws IOException {
+      @NonNull final HttpURLConnection connection,
+      @NonNull final CancellationToken cancellationToken) throws IOException {
     connection.setConnectTimeout(request.connectTimeoutMs);
     connection.setReadTimeout(request.readTimeoutMs);
     connection.setInstanceFollowRedirects(request.followRedirects);
@@ -79,7 +85,7 @@ final class UrlConnectionHttpFunction implements Function<HttpRequest, Result<Ht
     final String responseMessage = connection.getResponseMessage();
     return httpResponse(connection.getResponseCode(),
         responseMessage != null ? responseMessage : "",
-        getHeader(connection), getByteArray(connection));
+        getHeader(connection), getByteArray(connection, cancellationToken));
   }
 
   @NonNull
@@ -95,7 +101,8 @@ final class UrlConnectionHttpFunction implements Function<HttpRequest, Result<Ht
   }
 
   @NonNull
-  private byte[] getByteArray(@NonNull final HttpURLConnection connection) throws IOException {
+  private byte[] getByteArray(@NonNull final HttpURLConnection connection,
+      @NonNull final CancellationToken cancellationToken) throws IOException {
     final int contentLength = connection.getContentLength();
     if (contentLength == 0) {
       return EMPTY_BODY;
@@ -106,6 +113,7 @@ final class UrlConnectionHttpFunction implements Function<HttpRequest, Result<Ht
       final ByteArrayOutputStream out = new ByteArrayOutputStream();
       final byte[] buffer = new byte[capacity];
       while (true) {
+        checkNotCancelled(cancellationToken);
         int r = inputStream.read(buffer);
         if (r == -1) {
           break;
@@ -118,6 +126,13 @@ final class UrlConnectionHttpFunction implements Function<HttpRequest, Result<Ht
     }
   }
 
+  private static void checkNotCancelled(@NonNull final CancellationToken cancellationToken)
+      throws InterruptedIOException {
+    if (cancellationToken.isCancellationRequested()) {
+      throw new InterruptedIOException("Request cancelled");
+    }
+  }
+
   @NonNull
   private static InputStream getInputStream(@NonNull final HttpURLConnection connection) {
     try {
@@ -32,7 +32,9 @@ import android.support.v7.util.ListUpdateCallback;
 import android.support.v7.widget.RecyclerView;
 import android.view.View;
 import com.google.android.agera.Binder;
+import com.google.android.agera.Delta;
 import com.google.android.agera.Function;
+import com.google.android.agera.PersistentVector;
 import com.google.android.agera.Receiver;
 import com.google.android.agera.Result;
 import com.google.android.agera.rvadapter.RepositoryPresenterCompilerStates.RPItemCompile;
@@ -50,6 +52,8 @@ final class RepositoryPresenterCompiler implements
   @NonNull
   private static final Function<Object, Object> SAME_KEY_FOR_ITEM = staticFunction(new Object());
   @NonNull
+  private static final Function<Delta<List>, List> DELTA_LIST_AS_LIST = new DeltaListAsList();
+  @NonNull
   private Function<Object, Integer> layoutForItem;
   @NonNull
   private Binder binder = nullBinder();
@@ -60,6 +64,7 @@ final class RepositoryPresenterCompiler implements
   @NonNull
   private Function<Object, Object> keyForItem = NO_KEY_FOR_ITEM;
   private boolean detectMoves;
+  private boolean diffPositionally;
   @NonNull
   private Binder collectionBinder = nullBinder();
 
@@ -67,14 +72,14 @@ final class RepositoryPresenterCompiler implements
   @Override
   public RepositoryPresenter forItem() {
     return new CompiledRepositoryPresenter(layoutForItem, binder, stableIdForItem, recycler,
-        keyForItem, detectMoves, itemAsList(), collectionBinder);
+        keyForItem, detectMoves, diffPositionally, itemAsList(), collectionBinder);
   }
 
   @NonNull
   @Override
   public RepositoryPresenter<List> forList() {
     return new CompiledRepositoryPresenter(layoutForItem, binder, stableIdForItem, recycler,
-        keyForItem, detectMoves, (Function) identityFunction(),
+        keyForItem, detectMoves, diffPositionally, (Function) identityFunction(),
         collectionBinder);
   }
 
@@ -82,7 +87,7 @@ final class RepositoryPresenterCompiler implements
   @Override
   public RepositoryPresenter<Result> forResult() {
     return new CompiledRepositoryPresenter(layoutForItem, binder, stableIdForItem, recycler,
-        keyForItem, detectMoves, (Function) resultAsList(),
+        keyForItem, detectMoves, diffPositionally, (Function) resultAsList(),
         collectionBinder);
   }
 
@@ -90,10 +95,17 @@ final class RepositoryPresenterCompiler implements
   @Override
   public RepositoryPresenter<Result<List>> forResultList() {
     return new CompiledRepositoryPresenter(layoutForItem, binder, stableIdForItem, recycler,
-        keyForItem, detectMoves, (Function) resultListAsList(),
+        keyForItem, detectMoves, diffPositionally, (Function) resultListAsList(),
         collectionBinder);
   }
 
+  @NonNull
+  @Override
+  public RepositoryPresenter<Delta<List>> forDeltaList() {
+    return new CompiledRepositoryPresenter(layoutForItem, binder, stableIdForItem, recycler,
+        keyForItem, detectMoves, diffPositionally, (Function) DELTA_LIST_AS_LIST, collectionBinder);
+  }
+
   @NonNull
   @Override
   public RPTypedCollectionCompile bindCollectionWith(@NonNull final Binder collectionBinder) {
@@ -105,7 +117,7 @@ final class RepositoryPresenterCompiler implements
   @Override
   public RepositoryPresenter forCollection(@NonNull final Function converter) {
     return new CompiledRepositoryPresenter(layoutForItem, binder, stableIdForItem, recycler,
-        keyForItem, detectMoves, converter, collectionBinder);
+        keyForItem, detectMoves, diffPositionally, converter, collectionBinder);
   }
 
   @NonNull
@@ -155,6 +167,16 @@ final class RepositoryPresenterCompiler implements
   public RPMain diffWith(@NonNull final Function keyForItem, final boolean detectMoves) {
     this.keyForItem = keyForItem;
     this.detectMoves = detectMoves;
+    this.diffPositionally = false;
+    return this;
+  }
+
+  @NonNull
+  @Override
+  public RPMain diffPositionally() {
+    this.keyForItem = SAME_KEY_FOR_ITEM;
+    this.detectMoves = false;
+    this.diffPositionally = true;
     return this;
   }
 
@@ -163,6 +185,7 @@ final class RepositoryPresenterCompiler implements
   public RPItemCompile diff() {
     this.keyForItem = SAME_KEY_FOR_ITEM;
     this.detectMoves = false;
+    this.diffPositionally = false;
     return this;
   }
 
@@ -184,6 +207,7 @@ final class RepositoryPresenterCompiler implements
     @NonNull
     private final Function<Object, Object> keyForItem;
     private final boolean detectMoves;
+    private final boolean diffPositionally;
     @NonNull
     private WeakReference<Object> dataRef = new WeakReference<>(null);
     @NonNull
@@ -196,6 +220,7 @@ final class RepositoryPresenterCompiler implements
         @NonNull final Receiver<View> recycler,
         @NonNull final Function<Object, Object> keyForItem,
         final boolean detectMoves,
+        final boolean diffPositionally,
         @NonNull final Function<Object, List<Object>> converter,
         @NonNull final Binder<Object, View> collectionBinder) {
       this.collectionBinder = collectionBinder;
@@ -207,6 +232,7 @@ final class RepositoryPresenterCompiler implements
       this.enableDiff = keyForItem != NO_KEY_FOR_ITEM;
       this.keyForItem = keyForItem;
       this.detectMoves = detectMoves;
+      this.diffPositionally = diffPositionally;
     }
 
     @Override
@@ -255,6 +281,13 @@ final class RepositoryPresenterCompiler implements
     @Override
     public boolean getUpdates(@NonNull final Object oldData, @NonNull final Object newData,
         @NonNull final ListUpdateCallback listUpdateCallback) {
+      if (newData instanceof Delta && oldData instanceof Delta
+          && ((Delta) newData).isRelativeTo((Delta) oldData)) {
+        // The changes have been described where the new data was produced; no need to diff.
+        ((Delta) newData).dispatchChanges(new ListUpdateCallbackDiffCallback(listUpdateCallback));
+        return true;
+      }
+
       if (!enableDiff) {
         return false;
       }
@@ -266,9 +299,16 @@ final class RepositoryPresenterCompiler implements
         return true;
       }
 
-      // Do proper diffing.
       final List oldItems = getItems(oldData);
       final List newItems = getItems(newData); // This conveniently saves newData to dataRef.
+      if (diffPositionally) {
+        // Structurally shared versions can be diffed in time proportional to the changes.
+        asPersistentVector(oldItems).diff(asPersistentVector(newItems),
+            new ListUpdateCallbackDiffCallback(listUpdateCallback));
+        return true;
+      }
+
+      // Do proper diffing.
       DiffUtil.calculateDiff(new DiffUtil.Callback() {
         @Override
         public int getOldListSize() {
@@ -296,5 +336,44 @@ final class RepositoryPresenterCompiler implements
       }, detectMoves).dispatchUpdatesTo(listUpdateCallback);
       return true;
     }
+
+    @NonNull
+    private static PersistentVector asPersistentVector(@NonNull final List items) {
+      return items instanceof PersistentVector
+          ? (PersistentVector) items : PersistentVector.copyOf(items);
+    }
+  }
+
+  private static final class DeltaListAsList implements Function<Delta<List>, List> {
+    @NonNull
+    @Override
+    public List apply(@NonNull final Delta<List> input) {
+      return input.getValue();
+    }
+  }
+
+  private static final class ListUpdateCallbackDiffCallback
+      implements PersistentVector.DiffCallback {
+    @NonNull
+    private final ListUpdateCallback listUpdateCallback;
+
+    ListUpdateCallbackDiffCallback(@NonNull final ListUpdateCallback listUpdateCallback) {
+      this.listUpdateCallback = listUpdateCallback;
+    }
+
+    @Override
+    public void onInserted(final int position, final int count) {
+      listUpdateCallback.onInserted(position, count);
+    }
+
+    @Override
+    public void onRemoved(final int position, final int count) {
+      listUpdateCallback.onRemoved(position, count);
+    }
+
+    @Override
+    public void onChanged(final int position, final int count) {
+      listUpdateCallback.onChanged(position, count, null);
+    }
   }
 }
@@ -22,7 +22,9 @@ import android.support.v7.util.DiffUtil.Callback;
 import android.support.v7.widget.RecyclerView;
 import android.view.View;
 import com.google.android.agera.Binder;
+import com.google.android.agera.Delta;
 import com.google.android.agera.Function;
+import com.google.android.agera.PersistentVector;
 import com.google.android.agera.Receiver;
 import com.google.android.agera.Repository;
 import com.google.android.agera.Result;
@@ -75,6 +77,9 @@ public interface RepositoryPresenterCompilerStates {
      * code has better alternatives, it should directly subclass {@link RepositoryPresenter} and
      * provide a custom implementation in {@link RepositoryPresenter#getUpdates}.
      *
+     * <p>To avoid {@link DiffUtil} for collections of items held in {@link PersistentVector}s, use
+     * {@link #diffPositionally()} instead.
+     *
      * @param keyForItem A function from individual item objects to objects uniquely identifying the
      *     items across any changes. Can be the same as the stable ID function, provided the
      *     function does not return the same ID for multiple items (in particular
@@ -84,6 +89,23 @@ public interface RepositoryPresenterCompilerStates {
      */
     @NonNull
     TRet diffWith(@NonNull Function<? super TVal, ?> keyForItem, boolean detectMoves);
+
+    /**
+     * Enables fine-grained events that compare the old and the new collection of items position
+     * by position, instead of using {@link DiffUtil}. The items at a position have {@linkplain
+     * Callback#areContentsTheSame the same content} if they are {@linkplain Object#equals equal};
+     * the events are changes of the positions whose items differ, followed by an insertion or
+     * removal at the end if the size changed. Moves, and insertions or removals in the middle of
+     * the collection, are reported as changes of all affected positions. As with {@link
+     * #diffWith}, the same instance of collection object causes a blanket item change event.
+     *
+     * <p>If both the old and the new collection of items are {@link PersistentVector}s, the events
+     * are produced by {@link PersistentVector#diff}, which skips the parts shared by the two
+     * versions without looking at their items, so that the cost is proportional to the changes
+     * rather than to the size of the collection. This overrides any earlier {@link #diffWith}.
+     */
+    @NonNull
+    TRet diffPositionally();
   }
 
   /**
@@ -207,6 +229,19 @@ public interface RepositoryPresenterCompilerStates {
     @NonNull
     RepositoryPresenter<Result<List<T>>> forResultList();
 
+    /**
+     * Creates a {@link RepositoryPresenter} for a {@link Repository} of a {@link Delta} of a
+     * {@link List} where each item in the {@link List} will be bound to the {@link RecyclerView}.
+     *
+     * <p>When the new {@link Delta} is {@linkplain Delta#isRelativeTo relative to} the previously
+     * presented one, the presenter produces the fine-grained events by
+     * {@linkplain Delta#dispatchChanges replaying} its changes, without diffing and regardless of
+     * {@link #diffWith}. Otherwise, the events are produced as for {@link #forList()}, diffing the
+     * lists of the two {@link Delta}s if {@link #diffWith} is specified.
+     */
+    @NonNull
+    RepositoryPresenter<Delta<List<T>>> forDeltaList();
+
     /**
      * Creates a {@link RepositoryPresenter} for a {@link Repository} of a type that can be
      * converted to a {@link List} of items using the {@code converter}.
@@ -15,6 +15,7 @@
  */
 package com.google.android.agera.rvadapter;
 
+import static com.google.android.agera.Delta.initialDelta;
 import static com.google.android.agera.Result.failure;
 import static com.google.android.agera.Result.present;
 import static com.google.android.agera.Result.success;
@@ -29,6 +30,7 @@ import static org.hamcrest.Matchers.is;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -39,11 +41,14 @@ import android.support.v7.widget.RecyclerView;
 import android.view.View;
 import com.google.android.agera.Binder;
 import com.google.android.agera.Binders;
+import com.google.android.agera.Delta;
 import com.google.android.agera.Function;
 import com.google.android.agera.Functions;
+import com.google.android.agera.PersistentVector;
 import com.google.android.agera.Receiver;
 import com.google.android.agera.Result;
 import com.google.android.agera.rvadapter.test.DiffingLogic;
+import java.util.ArrayList;
 import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
@@ -83,6 +88,7 @@ public class RepositoryPresentersTest {
   @Before
   public void setUp() {
     initMocks(this);
+    CountingItem.equalsCalls = 0;
     viewHolder = new RecyclerView.ViewHolder(view) {};
     when(layoutForItem.apply(SECOND_STRING)).thenReturn(DYNAMIC_LAYOUT_ID);
   }
@@ -457,6 +463,113 @@ public class RepositoryPresentersTest {
     verifyNoMoreInteractions(listUpdateCallback);
   }
 
+  @Test
+  public void shouldNotifyPositionalFineGrainedEventsForPersistentVectors() {
+    final List<CountingItem> items = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      items.add(new CountingItem());
+    }
+    final PersistentVector<CountingItem> oldData = PersistentVector.copyOf(items);
+    final PersistentVector<CountingItem> newData =
+        oldData.with(50, new CountingItem()).plus(new CountingItem());
+    final RepositoryPresenter<List<CountingItem>> diffingPresenter =
+        repositoryPresenterOf(CountingItem.class)
+            .layout(LAYOUT_ID)
+            .diffPositionally()
+            .forList();
+
+    final boolean fineGrained = diffingPresenter.getUpdates(oldData, newData, listUpdateCallback);
+
+    assertThat(fineGrained, is(true));
+    verify(listUpdateCallback).onChanged(50, 1, null);
+    verify(listUpdateCallback).onInserted(100, 1);
+    verifyNoMoreInteractions(listUpdateCallback);
+    // DiffUtil would compare the contents of all positions; the vectors only differ at one.
+    assertThat(CountingItem.equalsCalls, is(1));
+  }
+
+  @Test
+  public void shouldNotifyPositionalFineGrainedEventsForDeltaLists() {
+    final Delta<List<String>> oldData = initialDelta(asList("A:1", "B:2", "C:3"));
+    final Delta<List<String>> newData = initialDelta(asList("A:1", "C:3"));
+    final RepositoryPresenter<Delta<List<String>>> diffingPresenter =
+        repositoryPresenterOf(String.class)
+            .layout(LAYOUT_ID)
+            .diffPositionally()
+            .forDeltaList();
+
+    final boolean fineGrained = diffingPresenter.getUpdates(oldData, newData, listUpdateCallback);
+
+    assertThat(fineGrained, is(true));
+    verify(listUpdateCallback).onChanged(1, 1, null);
+    verify(listUpdateCallback).onRemoved(2, 1);
+    verifyNoMoreInteractions(listUpdateCallback);
+  }
+
+  @Test
+  public void shouldDiffPersistentVectorsWithDiffUtilForDiffWith() {
+    final PersistentVector<String> oldData = PersistentVector.copyOf(asList("A:1", "B:2", "C:3"));
+    final PersistentVector<String> newData = PersistentVector.copyOf(asList("B:2", "A:4", "C:5"));
+    final DiffingLogic diffingLogic = new DiffingLogic(oldData, newData);
+    final RepositoryPresenter<List<String>> diffingPresenter =
+        repositoryPresenterOf(String.class)
+            .layout(LAYOUT_ID)
+            .diffWith(diffingLogic, false)
+            .forList();
+
+    final boolean fineGrained = diffingPresenter.getUpdates(oldData, newData, listUpdateCallback);
+
+    assertThat(fineGrained, is(true));
+    DiffUtil.calculateDiff(diffingLogic, false).dispatchUpdatesTo(
+        verifyingWrapper(listUpdateCallback));
+    verifyNoMoreInteractions(listUpdateCallback);
+  }
+
+  @Test
+  public void shouldNotifyFineGrainedEventsFromDeltaWithoutDiffWith() {
+    final Delta<List<String>> oldData = initialDelta(asList("A:1", "B:2", "C:3"));
+    final Delta<List<String>> newData = oldData.changesTo(asList("A:1", "C:3", "D:4"))
+        .removed(1, 1)
+        .inserted(2, 1)
+        .build();
+    final RepositoryPresenter<Delta<List<String>>> deltaPresenter =
+        repositoryPresenterOf(String.class)
+            .layout(LAYOUT_ID)
+            .forDeltaList();
+
+    final boolean fineGrained = deltaPresenter.getUpdates(oldData, newData, listUpdateCallback);
+
+    assertThat(fineGrained, is(true));
+    verify(listUpdateCallback).onRemoved(1, 1);
+    verify(listUpdateCallback).onInserted(2, 1);
+    verifyNoMoreInteractions(listUpdateCallback);
+  }
+
+  @Test
+  public void shouldRefuseFineGrainedEventsForUnrelatedDeltaWithoutDiffWith() {
+    final Delta<List<String>> oldData = initialDelta(asList("A:1", "B:2"));
+    final Delta<List<String>> newData = initialDelta(asList("A:1", "C:3"));
+    final RepositoryPresenter<Delta<List<String>>> deltaPresenter =
+        repositoryPresenterOf(String.class)
+            .layout(LAYOUT_ID)
+            .forDeltaList();
+
+    final boolean fineGrained = deltaPresenter.getUpdates(oldData, newData, listUpdateCallback);
+
+    assertThat(fineGrained, is(false));
+    verifyZeroInteractions(listUpdateCallback);
+  }
+
+  @Test
+  public void shouldReturnListSizeForCountOfRepositoryPresenterOfDeltaList() {
+    final RepositoryPresenter<Delta<List<String>>> deltaPresenter =
+        repositoryPresenterOf(String.class)
+            .layout(LAYOUT_ID)
+            .forDeltaList();
+
+    assertThat(deltaPresenter.getItemCount(initialDelta(STRING_LIST)), is(STRING_LIST.size()));
+  }
+
   @Test
   public void shouldNotifyBlanketChangeEventForSameObjectForOldAndNewData() {
     final List<String> oneList = asList("A:0", "B:1");
@@ -478,4 +591,19 @@ public class RepositoryPresentersTest {
   public void shouldHavePrivateConstructor() {
     assertThat(RepositoryPresenters.class, hasPrivateConstructor());
   }
+
+  private static final class CountingItem {
+    static int equalsCalls;
+
+    @Override
+    public boolean equals(final Object object) {
+      equalsCalls++;
+      return super.equals(object);
+    }
+
+    @Override
+    public int hashCode() {
+      return super.hashCode();
+    }
+  }
 }
@@ -17,6 +17,7 @@ package com.google.android.agera.testapp;
 
 import static android.graphics.BitmapFactory.decodeByteArray;
 import static android.support.v7.widget.LinearLayoutManager.HORIZONTAL;
+import static com.google.android.agera.FlowExecutors.flowExecutor;
 import static com.google.android.agera.Repositories.repositoryWithInitialValue;
 import static com.google.android.agera.RepositoryConfig.SEND_INTERRUPT;
 import static com.google.android.agera.Result.absentIfNull;
@@ -58,7 +59,7 @@ import java.util.concurrent.Executor;
 
 public final class NotesFragment extends Fragment {
   private static final Executor networkExecutor = newSingleThreadExecutor();
-  private static final Executor calculationExecutor = newSingleThreadExecutor();
+  private static final Executor calculationExecutor = flowExecutor();
 
   private Repository<Result<Bitmap>> backgroundRepository;
   private Updatable updatable;